@@ -0,0 +1,442 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded HTTP server exposing the item and template controllers as a JSON API.
+ * Requests are handled by a bounded thread pool; when its queue is full the request is answered with 503 on a
+ * separate thread, so an overload does not stall other connections. Only when that thread's bounded queue is full
+ * too does the accepting thread answer with 503 itself.
+ * Connections are kept alive between requests and list responses are streamed as they are written. Small responses
+ * wait for the client's delayed acknowledgement on kept-alive connections unless the JVM is started with
+ * -Dsun.net.httpserver.nodelay=true, which has to be set before the HTTP server classes are loaded.
+ *
+ * Endpoints:
+ * GET /items (query parameters expired, from, before, priority, completed, limit), GET /items/{id},
+ * POST /items, PUT /items/{id}, POST /items/{id}/toggle, DELETE /items/{id},
+ * GET /templates, GET /templates/{id}, POST /templates, PUT /templates/{id}, DELETE /templates/{id} and
+ * POST /templates/{id}/items for creating items from a template for a range of dates.
+ */
+public class ApiServer {
+
+    private static final Pattern ITEM_PATH = Pattern.compile("^/items(?:/(\\d+)(/toggle)?)?/?$");
+    private static final Pattern TEMPLATE_PATH = Pattern.compile("^/templates(?:/(\\d+)(/items)?)?/?$");
+    private static final int QUEUED_REQUESTS_PER_THREAD = 64;
+    private static final int QUEUED_REJECTIONS = 256;
+    private static final int MAX_TEMPLATE_RANGE_DAYS = 3660;
+    private static final ThreadLocal<Boolean> rejected = new ThreadLocal<>();
+
+    private ItemController itemController;
+    private TemplateController templateController;
+    private ItemIngest itemIngest;
+    private HttpServer server;
+    private ThreadPoolExecutor executor;
+    private ThreadPoolExecutor rejectionExecutor;
+
+    /**
+     * Constructor with controller injection
+     * @param itemController Controller for handling items
+     * @param templateController Controller for handling templates
+     */
+    public ApiServer(ItemController itemController, TemplateController templateController){
+        this.itemController = itemController;
+        this.templateController = templateController;
+    }
+
+    /**
+     * Constructor with controller injection, creating items through a group-commit queue
+     * @param itemController Controller for handling items
+     * @param templateController Controller for handling templates
+     * @param itemIngest Queue that POST /items submits new items to, so concurrent requests share commits
+     */
+    public ApiServer(ItemController itemController, TemplateController templateController, ItemIngest itemIngest){
+        this(itemController, templateController);
+        this.itemIngest = itemIngest;
+    }
+
+    /**
+     * Starts listening for requests
+     * @param port Port to listen on, 0 for any free port
+     * @param threads Number of threads handling requests
+     * @throws IOException If the server socket could not be opened
+     */
+    public void start(int port, int threads) throws IOException {
+        AtomicInteger threadNumber = new AtomicInteger();
+        rejectionExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUED_REJECTIONS),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "api-rejected");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> runRejected(runnable));
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUED_REQUESTS_PER_THREAD),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "api-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> rejectionExecutor.execute(() -> runRejected(runnable)));
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/items", this::handleItems);
+        server.createContext("/templates", this::handleTemplates);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Gets the port the server is listening on
+     * @return Port number
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, giving requests in progress a second to finish
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        rejectionExecutor.shutdown();
+    }
+
+    // region Handlers
+
+    /**
+     * Handles requests to /items
+     * @param exchange Request and response
+     * @throws IOException If the response could not be written
+     */
+    private void handleItems(HttpExchange exchange) throws IOException {
+        try {
+            if (rejectIfBusy(exchange))
+                return;
+            Matcher path = ITEM_PATH.matcher(exchange.getRequestURI().getPath());
+            if (!path.matches()){
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            if (path.group(1) == null){
+                if (method.equals("GET"))
+                    streamItems(exchange, itemController.getItems(parseItemQuery(exchange)));
+                else if (method.equals("POST")){
+                    Map<String, String> body = readBody(exchange);
+                    String description = required(body, "description");
+                    Priority priority = Priority.valueOf(required(body, "priority"));
+                    LocalDate deadlineDate = LocalDate.parse(required(body, "deadlineDate"));
+                    boolean created = itemIngest == null ?
+                            itemController.createItem(description, priority, deadlineDate) :
+                            itemIngest.submit(null, description, priority, deadlineDate).join() != null;
+                    sendJson(exchange, 201, "{\"created\":" + created + "}");
+                }
+                else
+                    sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            int id = Integer.parseInt(path.group(1));
+            if (path.group(2) != null){
+                if (method.equals("POST"))
+                    sendResult(exchange, itemController.toggleCompleted(id));
+                else
+                    sendError(exchange, 405, "Method not allowed");
+            }
+            else if (method.equals("GET")){
+                Item item = itemController.getItem(id);
+                if (item == null){
+                    sendError(exchange, 404, "Item with id " + id + " was not found");
+                } else {
+                    StringBuilder json = new StringBuilder();
+                    Json.writeItem(json, item);
+                    sendJson(exchange, 200, json.toString());
+                }
+            }
+            else if (method.equals("PUT")){
+                Map<String, String> body = readBody(exchange);
+                sendResult(exchange, itemController.updateItem(id, required(body, "description"),
+                        Priority.valueOf(required(body, "priority")), LocalDate.parse(required(body, "deadlineDate")),
+                        Boolean.parseBoolean(body.get("isCompleted"))));
+            }
+            else if (method.equals("DELETE"))
+                sendResult(exchange, itemController.deleteItem(id));
+            else
+                sendError(exchange, 405, "Method not allowed");
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            sendInternalError(exchange, e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Handles requests to /templates
+     * @param exchange Request and response
+     * @throws IOException If the response could not be written
+     */
+    private void handleTemplates(HttpExchange exchange) throws IOException {
+        try {
+            if (rejectIfBusy(exchange))
+                return;
+            Matcher path = TEMPLATE_PATH.matcher(exchange.getRequestURI().getPath());
+            if (!path.matches()){
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            if (path.group(1) == null){
+                if (method.equals("GET"))
+                    streamTemplates(exchange, templateController.getTemplates());
+                else if (method.equals("POST")){
+                    Map<String, String> body = readBody(exchange);
+                    boolean created = templateController.createTemplate(required(body, "name"),
+                            required(body, "description"), Priority.valueOf(required(body, "priority")),
+                            Long.parseLong(body.getOrDefault("daysToAdd", "0")),
+                            Recurrence.valueOf(body.getOrDefault("recurrence", Recurrence.NONE.name())),
+                            Integer.parseInt(body.getOrDefault("recurrenceInterval", "0")));
+                    sendJson(exchange, 201, "{\"created\":" + created + "}");
+                }
+                else
+                    sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            int id = Integer.parseInt(path.group(1));
+            if (path.group(2) != null){
+                if (method.equals("POST")){
+                    Map<String, String> body = readBody(exchange);
+                    LocalDate firstDate = LocalDate.parse(required(body, "firstDate"));
+                    LocalDate lastDate = LocalDate.parse(required(body, "lastDate"));
+                    if (ChronoUnit.DAYS.between(firstDate, lastDate) >= MAX_TEMPLATE_RANGE_DAYS)
+                        throw new IllegalArgumentException("At most " + MAX_TEMPLATE_RANGE_DAYS +
+                                " days of items can be created at once");
+                    IdRange ids = templateController.createItemsFromTemplate(id, firstDate, lastDate);
+                    if (ids == null)
+                        sendError(exchange, 404, "Template with id " + id + " was not found or the range was empty");
+                    else
+                        sendJson(exchange, 201, "{\"first\":" + ids.first + ",\"last\":" + ids.last +
+                                ",\"count\":" + ids.count + "}");
+                }
+                else
+                    sendError(exchange, 405, "Method not allowed");
+            }
+            else if (method.equals("GET")){
+                Template template = templateController.getTemplate(id);
+                if (template == null){
+                    sendError(exchange, 404, "Template with id " + id + " was not found");
+                } else {
+                    StringBuilder json = new StringBuilder();
+                    Json.writeTemplate(json, template);
+                    sendJson(exchange, 200, json.toString());
+                }
+            }
+            else if (method.equals("PUT")){
+                Map<String, String> body = readBody(exchange);
+                Template template = templateController.getTemplate(id);
+                // Fields left out keep their current values, so the recurrence start does not move unasked
+                sendResult(exchange, template != null && templateController.updateTemplate(id,
+                        required(body, "name"), required(body, "description"),
+                        Priority.valueOf(required(body, "priority")),
+                        body.containsKey("daysToAdd") ? Long.parseLong(body.get("daysToAdd")) : template.daysToAdd,
+                        body.containsKey("recurrence") ? Recurrence.valueOf(body.get("recurrence")) :
+                                template.recurrence,
+                        body.containsKey("recurrenceInterval") ? Integer.parseInt(body.get("recurrenceInterval")) :
+                                template.recurrenceInterval));
+            }
+            else if (method.equals("DELETE"))
+                sendResult(exchange, templateController.deleteTemplate(id));
+            else
+                sendError(exchange, 405, "Method not allowed");
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            sendInternalError(exchange, e);
+        } finally {
+            exchange.close();
+        }
+    }
+    // endregion
+
+    // region Helper methods
+
+    /**
+     * Runs a request that the handler threads had no room for, so its handler answers it with 503. Requests the
+     * rejection thread has no room for either are answered on the accepting thread.
+     * @param runnable Task of the HTTP server handling the request
+     */
+    private static void runRejected(Runnable runnable) {
+        rejected.set(true);
+        try {
+            runnable.run();
+        } finally {
+            rejected.remove();
+        }
+    }
+
+    /**
+     * Answers a request that the handler threads had no room for
+     * @param exchange Request and response
+     * @return True if the request was answered with 503 and must not be handled
+     * @throws IOException If the response could not be written
+     */
+    private static boolean rejectIfBusy(HttpExchange exchange) throws IOException {
+        if (rejected.get() == null)
+            return false;
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendError(exchange, 503, "Too many requests in progress");
+        return true;
+    }
+
+    /**
+     * Answers a request whose handling failed unexpectedly, for example because the database could not be reached
+     * @param exchange Request and response
+     * @param e Exception thrown by the handler
+     * @throws IOException If the response could not be written, also when a streamed response had already started
+     */
+    private static void sendInternalError(HttpExchange exchange, RuntimeException e) throws IOException {
+        System.err.println(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " failed: " + e);
+        sendError(exchange, 500, "Internal server error");
+    }
+
+    /**
+     * Builds an item filter from the query parameters of a request
+     * @param exchange Request whose query parameters to use
+     * @return Filter for fetching the requested items
+     */
+    private static ItemQuery parseItemQuery(HttpExchange exchange) {
+        Map<String, String> parameters = parseQueryString(exchange.getRequestURI().getRawQuery());
+        ItemQuery query = Boolean.parseBoolean(parameters.get("expired")) ?
+                ItemQuery.pastItems() :
+                parameters.containsKey("from") || parameters.containsKey("before") ?
+                        ItemQuery.items().orderBy(ItemQuery.SortKey.DEADLINE, false) :
+                        ItemQuery.futureItems();
+        if (parameters.containsKey("from"))
+            query.deadlineFrom(LocalDate.parse(parameters.get("from")));
+        if (parameters.containsKey("before"))
+            query.deadlineBefore(LocalDate.parse(parameters.get("before")));
+        if (parameters.containsKey("priority")){
+            List<Priority> priorities = new ArrayList<>();
+            for (String priority : parameters.get("priority").split(","))
+                priorities.add(Priority.valueOf(priority));
+            query.priorities(priorities.toArray(new Priority[0]));
+        }
+        if (parameters.containsKey("completed"))
+            query.completed(Boolean.parseBoolean(parameters.get("completed")));
+        if (parameters.containsKey("limit"))
+            query.limit(Integer.parseInt(parameters.get("limit")));
+        return query;
+    }
+
+    private static Map<String, String> parseQueryString(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null)
+            return parameters;
+        for (String pair : query.split("&")){
+            int separator = pair.indexOf('=');
+            if (separator > 0)
+                parameters.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            return Json.parseObject(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String required(Map<String, String> body, String field) {
+        String value = body.get(field);
+        if (value == null)
+            throw new IllegalArgumentException("Missing field " + field);
+        return value;
+    }
+
+    /**
+     * Streams items as a JSON array using chunked transfer encoding
+     * @param exchange Request and response
+     * @param items Items to write
+     * @throws IOException If the response could not be written
+     */
+    private static void streamItems(HttpExchange exchange, List<Item> items) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            out.write('[');
+            for (int i = 0; i < items.size(); i++){
+                if (i > 0)
+                    out.write(',');
+                Json.writeItem(out, items.get(i));
+            }
+            out.write(']');
+        }
+    }
+
+    /**
+     * Streams templates as a JSON array using chunked transfer encoding
+     * @param exchange Request and response
+     * @param templates Templates to write
+     * @throws IOException If the response could not be written
+     */
+    private static void streamTemplates(HttpExchange exchange, List<Template> templates) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            out.write('[');
+            for (int i = 0; i < templates.size(); i++){
+                if (i > 0)
+                    out.write(',');
+                Json.writeTemplate(out, templates.get(i));
+            }
+            out.write(']');
+        }
+    }
+
+    private static void sendResult(HttpExchange exchange, boolean result) throws IOException {
+        if (result)
+            sendJson(exchange, 200, "{\"result\":true}");
+        else
+            sendError(exchange, 404, "Not found or deleted");
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        Json.writeString(json, message);
+        sendJson(exchange, status, json.append('}').toString());
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+    // endregion
+}
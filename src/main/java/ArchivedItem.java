@@ -0,0 +1,85 @@
+import org.hibernate.annotations.Formula;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.PostLoad;
+import javax.persistence.Table;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Data object representing a todo item moved to the cold table by the item archive. The rows of one deadline month
+ * form a partition that is read with the index on archiveMonth and deadlineDate.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_archived_month_deadline", columnList = "archiveMonth, deadlineDate"))
+public class ArchivedItem {
+
+    /**
+     * Same id as the item had in the hot table
+     */
+    @Id
+    public int id;
+    /**
+     * Year multiplied by 100 plus the month of the deadline, 0 for items without a deadline
+     */
+    public int archiveMonth;
+    @Formula("(SELECT d.text FROM ItemDescription d WHERE d.id = descriptionId)")
+    public String description;
+    public Integer descriptionId;
+    public Priority priority;
+    public LocalDate deadlineDate;
+    public boolean isCompleted;
+    public boolean isActive;
+    public String listName;
+    public LocalDateTime createdAt;
+    public LocalDateTime completedAt;
+    @ElementCollection
+    @CollectionTable(name = "ArchivedItemTag", joinColumns = @JoinColumn(name = "itemId"))
+    @Column(name = "tag")
+    public Set<String> tags = new HashSet<>();
+
+    /**
+     * Empty constructor for Hibernate/JPA
+     */
+    public ArchivedItem(){}
+
+    /**
+     * Gets the partition of a deadline date
+     * @param deadlineDate Deadline date, may be null
+     * @return Year multiplied by 100 plus the month, 0 for null
+     */
+    static int monthOf(LocalDate deadlineDate) {
+        return deadlineDate == null ? 0 : deadlineDate.getYear() * 100 + deadlineDate.getMonthValue();
+    }
+
+    /**
+     * Gives the item as an unmanaged Item. The tags are shared with this entity, so they are loaded on first access
+     * while the entity manager is open, like the tags of a managed item.
+     * @return Item with the same id and values
+     */
+    Item toItem() {
+        Item item = new Item(description, priority, deadlineDate);
+        item.id = id;
+        item.descriptionId = descriptionId;
+        item.isCompleted = isCompleted;
+        item.isActive = isActive;
+        item.listName = listName;
+        item.createdAt = createdAt;
+        item.completedAt = completedAt;
+        item.tags = tags;
+        return item;
+    }
+
+    @PostLoad
+    private void internDescription(){
+        description = DescriptionDictionary.intern(description);
+    }
+}
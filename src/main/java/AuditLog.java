@@ -0,0 +1,228 @@
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Append-only history of item and template changes.
+ *
+ * Changes reported by the controllers are only put into a bounded queue on the thread that made them. A background
+ * thread serializes them and writes them in batches, one transaction per batch, so recording a change costs an
+ * interactive command about as much as adding to a queue. When the queue is full, the changing thread waits for the
+ * writer instead of losing entries.
+ */
+public class AuditLog {
+
+    private static final int BATCH_SIZE = 100;
+    private static final long POLL_MILLIS = 100;
+
+    private EntityManagerFactory entityManagerFactory;
+    private Supplier<String> changedBy;
+    private BlockingQueue<Change> queue;
+    private Thread writer;
+    private volatile boolean running = true;
+    private AtomicLong recorded = new AtomicLong();
+    private long written;
+    private AtomicLong failed = new AtomicLong();
+
+    /**
+     * Constructor starting the writer thread
+     * @param entityManagerFactory Entity manager factory of the database to write the history to
+     * @param capacity Maximum number of changes waiting to be written
+     * @param changedBy Gives the name recorded as the author of a change, called on the changing thread
+     */
+    public AuditLog(EntityManagerFactory entityManagerFactory, int capacity, Supplier<String> changedBy){
+        this.entityManagerFactory = entityManagerFactory;
+        this.changedBy = changedBy;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::writeChanges, "audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Records the changes made through an item controller
+     * @param itemController Controller whose changes to record
+     */
+    public void listenTo(ItemController itemController) {
+        itemController.addListener((before, after) ->
+                record("Item", after.id, changeType(before, after.isActive), before, after));
+    }
+
+    /**
+     * Records the changes made through a template controller
+     * @param templateController Controller whose changes to record
+     */
+    public void listenTo(TemplateController templateController) {
+        templateController.addListener((before, after) ->
+                record("Template", after.id, changeType(before, after.isActive), before, after));
+    }
+
+    /**
+     * Gets the recorded changes of an item, oldest first
+     * @param id Id of the item
+     * @return History entries of the item
+     */
+    public List<HistoryEntry> getItemHistory(int id) {
+        return getHistory("Item", id);
+    }
+
+    /**
+     * Gets the recorded changes of a template, oldest first
+     * @param id Id of the template
+     * @return History entries of the template
+     */
+    public List<HistoryEntry> getTemplateHistory(int id) {
+        return getHistory("Template", id);
+    }
+
+    /**
+     * Waits until every change recorded before the call has been written
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized void flush() throws InterruptedException {
+        long target = recorded.get();
+        while (written < target)
+            wait();
+    }
+
+    /**
+     * Gets the number of changes that could not be written
+     * @return Number of failed entries
+     */
+    public long failedEntries() {
+        return failed.get();
+    }
+
+    /**
+     * Writes the remaining changes and stops the writer thread
+     * @throws InterruptedException If interrupted while waiting for the writer
+     */
+    public void close() throws InterruptedException {
+        running = false;
+        writer.join();
+    }
+
+    // region Helper methods
+
+    private static ChangeType changeType(Object before, boolean isActive) {
+        if (before == null)
+            return ChangeType.CREATED;
+        return isActive ? ChangeType.UPDATED : ChangeType.DELETED;
+    }
+
+    private void record(String entityType, int entityId, ChangeType changeType, Object before, Object after) {
+        Change change = new Change(entityType, entityId, changeType, changedBy.get(), before, after);
+        recorded.incrementAndGet();
+        try {
+            queue.put(change);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.incrementAndGet();
+            markWritten(1);
+        }
+    }
+
+    private List<HistoryEntry> getHistory(String entityType, int id) {
+        return UnitOfWork.run(entityManagerFactory, entityManager -> entityManager.createQuery(
+                "SELECT h FROM HistoryEntry h WHERE h.entityType = :entityType AND h.entityId = :entityId " +
+                        "ORDER BY h.id", HistoryEntry.class)
+                .setParameter("entityType", entityType)
+                .setParameter("entityId", id)
+                .getResultList());
+    }
+
+    /**
+     * Loop of the writer thread. Takes up to a batch of changes at a time and writes them in one transaction.
+     */
+    private void writeChanges() {
+        List<Change> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !queue.isEmpty()){
+            try {
+                Change first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+            } catch (InterruptedException e) {
+                running = false;
+                continue;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            try {
+                UnitOfWork.run(entityManagerFactory, entityManager -> {
+                    for (Change change : batch)
+                        entityManager.persist(change.toEntry());
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                failed.addAndGet(batch.size());
+                System.err.println("Writing "+batch.size()+" history entries failed: "+e);
+            }
+            markWritten(batch.size());
+            batch.clear();
+        }
+    }
+
+    private synchronized void markWritten(int count) {
+        written += count;
+        notifyAll();
+    }
+
+    private static String toJson(Object value) {
+        if (value == null)
+            return null;
+        StringBuilder json = new StringBuilder(128);
+        try {
+            if (value instanceof Item)
+                Json.writeItemState(json, (Item) value);
+            else
+                Json.writeTemplateState(json, (Template) value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Change waiting in the queue. Values are serialized on the writer thread.
+     */
+    private static class Change {
+
+        private String entityType;
+        private int entityId;
+        private ChangeType changeType;
+        private LocalDateTime changedAt = LocalDateTime.now();
+        private String changedBy;
+        private Object before;
+        private Object after;
+
+        Change(String entityType, int entityId, ChangeType changeType, String changedBy, Object before, Object after){
+            this.entityType = entityType;
+            this.entityId = entityId;
+            this.changeType = changeType;
+            this.changedBy = changedBy;
+            this.before = before;
+            this.after = after;
+        }
+
+        HistoryEntry toEntry() {
+            HistoryEntry entry = new HistoryEntry();
+            entry.entityType = entityType;
+            entry.entityId = entityId;
+            entry.changeType = changeType;
+            entry.changedAt = changedAt;
+            entry.changedBy = changedBy;
+            entry.beforeValue = toJson(before);
+            entry.afterValue = toJson(after);
+            return entry;
+        }
+    }
+    // endregion
+}
@@ -0,0 +1,298 @@
+import org.hibernate.Session;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory compressed bitmap index of item ids.
+ *
+ * Every tag, deadline date, priority and to-do list has a Roaring bitmap of the ids of its items, and two more bitmaps
+ * hold the active and the completed items. A filter is answered by combining bitmaps, and sorting by deadline or
+ * priority walks the per-value bitmaps in order, so only the ids that end up in the result are fetched as rows.
+ * The index covers archived items too. It is loaded with one pass over the item and tag tables and then kept current
+ * by change notifications.
+ */
+public class BitmapIndex implements ChangeListener<Item> {
+
+    private static final int RELOAD_CHUNK_SIZE = 1000;
+
+    private RoaringBitmap all = new RoaringBitmap();
+    private RoaringBitmap active = new RoaringBitmap();
+    private RoaringBitmap completed = new RoaringBitmap();
+    private Map<Priority, RoaringBitmap> priorities = new EnumMap<>(Priority.class);
+    private RoaringBitmap noPriority = new RoaringBitmap();
+    private TreeMap<LocalDate, RoaringBitmap> deadlines = new TreeMap<>();
+    private RoaringBitmap noDeadline = new RoaringBitmap();
+    private Map<String, RoaringBitmap> lists = new HashMap<>();
+    private RoaringBitmap defaultList = new RoaringBitmap();
+    private Map<String, RoaringBitmap> tags = new HashMap<>();
+
+    /**
+     * Loads the index from the database
+     * @param entityManagerFactory Entity manager factory of the database
+     */
+    public synchronized void load(EntityManagerFactory entityManagerFactory) {
+        loadRows(entityManagerFactory, "", "");
+        runOptimize();
+    }
+
+    /**
+     * Replaces the entries of some items with their current state in the database, for example after another process
+     * changed them
+     * @param entityManagerFactory Entity manager factory of the database
+     * @param ids Ids of the items to reload
+     */
+    public synchronized void reload(EntityManagerFactory entityManagerFactory, RoaringBitmap ids) {
+        for (RoaringBitmap bitmap : List.of(all, active, completed, noPriority, noDeadline, defaultList))
+            bitmap.andNot(ids);
+        for (Map<?, RoaringBitmap> bitmaps : List.of(priorities, deadlines, lists, tags)){
+            for (RoaringBitmap bitmap : bitmaps.values())
+                bitmap.andNot(ids);
+            bitmaps.values().removeIf(RoaringBitmap::isEmpty);
+        }
+        int[] idArray = ids.toArray();
+        for (int start = 0; start < idArray.length; start += RELOAD_CHUNK_SIZE){
+            StringBuilder idList = new StringBuilder();
+            for (int i = start; i < Math.min(idArray.length, start + RELOAD_CHUNK_SIZE); i++)
+                idList.append(i == start ? "" : ", ").append(idArray[i]);
+            loadRows(entityManagerFactory, " WHERE id IN (" + idList + ")", " WHERE itemId IN (" + idList + ")");
+        }
+    }
+
+    @Override
+    public synchronized void changed(Item before, Item after) {
+        if (before != null)
+            remove(before);
+        add(after);
+    }
+
+    /**
+     * Gets the number of distinct tags in the index
+     * @return Number of tags with at least one item
+     */
+    public synchronized int tagCount() {
+        return tags.size();
+    }
+
+    /**
+     * Gets the size of the index
+     * @return Approximate number of bytes used by the bitmaps
+     */
+    public synchronized long sizeInBytes() {
+        long size = all.getLongSizeInBytes() + active.getLongSizeInBytes() + completed.getLongSizeInBytes() +
+                noPriority.getLongSizeInBytes() + noDeadline.getLongSizeInBytes() + defaultList.getLongSizeInBytes();
+        for (Collection<RoaringBitmap> bitmaps : List.of(priorities.values(), deadlines.values(), lists.values(),
+                tags.values())){
+            for (RoaringBitmap bitmap : bitmaps)
+                size += bitmap.getLongSizeInBytes();
+        }
+        return size;
+    }
+
+    // region Bitmaps used by ItemQuery, called while holding the lock of the index
+
+    RoaringBitmap all() {
+        return all;
+    }
+
+    RoaringBitmap active() {
+        return active;
+    }
+
+    RoaringBitmap completed() {
+        return completed;
+    }
+
+    RoaringBitmap priority(Priority priority) {
+        return priorities.getOrDefault(priority, new RoaringBitmap());
+    }
+
+    RoaringBitmap list(String listName) {
+        return lists.getOrDefault(listName, new RoaringBitmap());
+    }
+
+    RoaringBitmap tag(String tag) {
+        return tags.getOrDefault(tag, new RoaringBitmap());
+    }
+
+    /**
+     * Combines the bitmaps of a deadline range
+     * @param from First included deadline date, null for no lower bound
+     * @param before First excluded deadline date, null for no upper bound
+     * @return New bitmap of the items whose deadline is in the range
+     */
+    RoaringBitmap deadlines(LocalDate from, LocalDate before) {
+        NavigableMap<LocalDate, RoaringBitmap> range = deadlines;
+        if (from != null)
+            range = range.tailMap(from, true);
+        if (before != null)
+            range = range.headMap(before, false);
+        return FastAggregation.or(range.values().iterator());
+    }
+
+    /**
+     * Orders ids like the ORDER BY of ItemQuery.toJpql, including null values first in ascending order
+     * @param ids Ids to order
+     * @param sortKeys Sort keys in order of precedence
+     * @param descending Direction of each sort key
+     * @param limit Maximum number of ids to return, 0 for no limit
+     * @return Ordered ids
+     */
+    int[] orderedIds(RoaringBitmap ids, List<ItemQuery.SortKey> sortKeys, List<Boolean> descending, int limit) {
+        int max = limit > 0 ? Math.min(limit, ids.getCardinality()) : ids.getCardinality();
+        int[] result = new int[max];
+        int count = collect(ids, sortKeys, descending, 0, result, 0);
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+    // endregion
+
+    // region Helper methods
+
+    /**
+     * Adds the items and tags selected by the given conditions with one JDBC pass over the hot and the archived rows
+     */
+    private void loadRows(EntityManagerFactory entityManagerFactory, String itemCondition, String tagCondition) {
+        UnitOfWork.run(entityManagerFactory, entityManager -> {
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    try (ResultSet rs = statement.executeQuery("SELECT id, priority, deadlineDate, isCompleted, " +
+                            "isActive, listName FROM Item" + itemCondition + " UNION ALL SELECT id, priority, " +
+                            "deadlineDate, isCompleted, isActive, listName FROM ArchivedItem" + itemCondition)) {
+                        while (rs.next()){
+                            Item item = new Item();
+                            item.id = rs.getInt(1);
+                            int priority = rs.getInt(2);
+                            item.priority = rs.wasNull() ? null : Priority.values()[priority];
+                            Date deadlineDate = rs.getDate(3);
+                            item.deadlineDate = deadlineDate == null ? null : deadlineDate.toLocalDate();
+                            item.isCompleted = rs.getBoolean(4);
+                            item.isActive = rs.getBoolean(5);
+                            item.listName = rs.getString(6);
+                            add(item);
+                        }
+                    }
+                    try (ResultSet rs = statement.executeQuery("SELECT itemId, tag FROM ItemTag" + tagCondition +
+                            " UNION ALL SELECT itemId, tag FROM ArchivedItemTag" + tagCondition)) {
+                        while (rs.next())
+                            bitmap(tags, rs.getString(2)).add(rs.getInt(1));
+                    }
+                }
+            });
+            return null;
+        });
+    }
+
+    private int collect(RoaringBitmap ids, List<ItemQuery.SortKey> sortKeys, List<Boolean> descending, int key,
+                        int[] result, int count) {
+        if (key == sortKeys.size() || sortKeys.get(key) == ItemQuery.SortKey.ID){
+            boolean reverse = key < sortKeys.size() && descending.get(key);
+            IntIterator iterator = reverse ? ids.getReverseIntIterator() : ids.getIntIterator();
+            while (count < result.length && iterator.hasNext())
+                result[count++] = iterator.next();
+            return count;
+        }
+        boolean reverse = descending.get(key);
+        List<RoaringBitmap> partitions = new ArrayList<>();
+        if (!reverse)
+            partitions.add(sortKeys.get(key) == ItemQuery.SortKey.DEADLINE ? noDeadline : noPriority);
+        if (sortKeys.get(key) == ItemQuery.SortKey.DEADLINE)
+            partitions.addAll(reverse ? deadlines.descendingMap().values() : deadlines.values());
+        else {
+            for (Priority priority : Priority.values())
+                partitions.add(priority(priority));
+            if (reverse)
+                Collections.reverse(partitions);
+        }
+        if (reverse)
+            partitions.add(sortKeys.get(key) == ItemQuery.SortKey.DEADLINE ? noDeadline : noPriority);
+        for (RoaringBitmap partition : partitions){
+            if (count == result.length)
+                break;
+            if (!RoaringBitmap.intersects(ids, partition))
+                continue;
+            count = collect(RoaringBitmap.and(ids, partition), sortKeys, descending, key + 1, result, count);
+        }
+        return count;
+    }
+
+    private void add(Item item) {
+        int id = item.id;
+        all.add(id);
+        if (item.isActive)
+            active.add(id);
+        if (item.isCompleted)
+            completed.add(id);
+        (item.priority == null ? noPriority : bitmap(priorities, item.priority)).add(id);
+        (item.deadlineDate == null ? noDeadline : bitmap(deadlines, item.deadlineDate)).add(id);
+        (item.listName == null ? defaultList : bitmap(lists, item.listName)).add(id);
+        // Copies without loaded tags leave the tags of the item as they are
+        if (item.tags != null){
+            for (String tag : item.tags)
+                bitmap(tags, tag).add(id);
+        }
+    }
+
+    private void remove(Item item) {
+        int id = item.id;
+        active.remove(id);
+        completed.remove(id);
+        removeFrom(item.priority == null ? null : priorities, item.priority, noPriority, id);
+        removeFrom(item.deadlineDate == null ? null : deadlines, item.deadlineDate, noDeadline, id);
+        removeFrom(item.listName == null ? null : lists, item.listName, defaultList, id);
+        if (item.tags != null){
+            for (String tag : item.tags)
+                removeFrom(tags, tag, null, id);
+        }
+    }
+
+    /**
+     * Removes an id from the bitmap of a value, dropping the bitmap when it becomes empty
+     */
+    private static <K> void removeFrom(Map<K, RoaringBitmap> bitmaps, K value, RoaringBitmap nullBitmap, int id) {
+        if (bitmaps == null){
+            nullBitmap.remove(id);
+            return;
+        }
+        RoaringBitmap bitmap = bitmaps.get(value);
+        if (bitmap == null)
+            return;
+        bitmap.remove(id);
+        if (bitmap.isEmpty())
+            bitmaps.remove(value);
+    }
+
+    private static <K> RoaringBitmap bitmap(Map<K, RoaringBitmap> bitmaps, K value) {
+        return bitmaps.computeIfAbsent(value, key -> new RoaringBitmap());
+    }
+
+    /**
+     * Converts runs of consecutive ids to run containers after a bulk load
+     */
+    private void runOptimize() {
+        all.runOptimize();
+        active.runOptimize();
+        completed.runOptimize();
+        for (Collection<RoaringBitmap> bitmaps : List.of(priorities.values(), deadlines.values(), lists.values(),
+                tags.values())){
+            for (RoaringBitmap bitmap : bitmaps)
+                bitmap.runOptimize();
+        }
+    }
+    // endregion
+}
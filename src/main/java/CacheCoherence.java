@@ -0,0 +1,249 @@
+import org.roaringbitmap.RoaringBitmap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the caches of several processes sharing one database coherent without any service besides the database.
+ *
+ * While coherence is started for an entity manager factory, the item and template controllers append a ChangeLog row
+ * naming the changed ids in the same transaction as every change. Each process polls the rows added since its last
+ * poll and hands the ids changed by other processes to its listeners, which drop or reload only those ids. Identity
+ * values can commit out of order, so ids skipped by a poll are asked for again until they show up or time out as
+ * rolled back. Rows are pruned after a retention period, and a process that has not polled for half of it treats
+ * everything as changed.
+ */
+public class CacheCoherence {
+
+    /**
+     * Callback receiving the ids changed by other processes
+     */
+    public interface Listener {
+
+        /**
+         * Called on the polling thread after other processes committed changes
+         * @param entityType "Item", "Template" or "ItemDependency"
+         * @param ids Changed ids, null if any id may have changed
+         */
+        void invalidated(String entityType, RoaringBitmap ids);
+    }
+
+    static final String ITEM = "Item";
+    static final String TEMPLATE = "Template";
+    static final String DEPENDENCY = "ItemDependency";
+    private static final Duration RETENTION = Duration.ofMinutes(10);
+    private static final Duration GAP_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration PRUNE_INTERVAL = Duration.ofMinutes(1);
+    private static final int MAX_GAP = 1000;
+    private static final Map<EntityManagerFactory, String> origins = new ConcurrentHashMap<>();
+
+    private EntityManagerFactory entityManagerFactory;
+    private Duration pollInterval;
+    private String origin = UUID.randomUUID().toString();
+    private List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private long lastSeenId;
+    private TreeMap<Long, Instant> gaps = new TreeMap<>();
+    private Instant lastPoll;
+    private Instant lastPrune = Instant.MIN;
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Constructor with entityManagerFactory injection
+     * @param entityManagerFactory Entity manager factory of the shared database
+     * @param pollInterval Time between polls for changes of other processes
+     */
+    public CacheCoherence(EntityManagerFactory entityManagerFactory, Duration pollInterval){
+        this.entityManagerFactory = entityManagerFactory;
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Adds a listener for the changes of other processes
+     * @param listener Listener to add
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Drops the cached state of an item controller for the items changed by other processes
+     * @param itemController Controller whose caches to invalidate
+     */
+    public void listenTo(ItemController itemController) {
+        addListener((entityType, ids) -> {
+            if (ITEM.equals(entityType))
+                itemController.invalidate(ids);
+        });
+    }
+
+    /**
+     * Drops the cached state of a template controller for the templates changed by other processes
+     * @param templateController Controller whose caches to invalidate
+     */
+    public void listenTo(TemplateController templateController) {
+        addListener((entityType, ids) -> {
+            if (TEMPLATE.equals(entityType))
+                templateController.invalidate(ids);
+        });
+    }
+
+    /**
+     * Drops the cached dependency graph, or the open state of the items in it, for the changes of other processes
+     * @param dependencyController Controller whose caches to invalidate
+     */
+    public void listenTo(DependencyController dependencyController) {
+        addListener((entityType, ids) -> {
+            if (ITEM.equals(entityType) || DEPENDENCY.equals(entityType))
+                dependencyController.invalidate(entityType, ids);
+        });
+    }
+
+    /**
+     * Starts logging the changes of this process and polling for those of other processes
+     */
+    public synchronized void start() {
+        if (timer != null)
+            return;
+        origins.put(entityManagerFactory, origin);
+        lastSeenId = maxId();
+        lastPoll = Instant.now();
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "coherence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = pollInterval.toMillis();
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (RuntimeException e) {
+                // The database may be briefly unavailable, the next poll picks the changes up
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops logging and polling
+     */
+    public synchronized void stop() {
+        if (timer == null)
+            return;
+        origins.remove(entityManagerFactory, origin);
+        timer.shutdownNow();
+        timer = null;
+    }
+
+    /**
+     * Reads the changes committed since the last poll and notifies the listeners about those of other processes
+     * @return Number of change log rows of other processes read
+     */
+    synchronized int poll() {
+        Instant now = Instant.now();
+        if (Duration.between(lastPoll, now).compareTo(RETENTION.dividedBy(2)) > 0){
+            // Rows this process has not seen may already be pruned
+            lastSeenId = maxId();
+            gaps.clear();
+            lastPoll = now;
+            notifyInvalidated(ITEM, null);
+            notifyInvalidated(TEMPLATE, null);
+            notifyInvalidated(DEPENDENCY, null);
+            return 0;
+        }
+        gaps.values().removeIf(firstMissed -> Duration.between(firstMissed, now).compareTo(GAP_TIMEOUT) > 0);
+        List<ChangeLogEntry> entries = UnitOfWork.run(entityManagerFactory, entityManager -> {
+            if (Duration.between(lastPrune, now).compareTo(PRUNE_INTERVAL) > 0){
+                entityManager.createQuery("DELETE FROM ChangeLogEntry e WHERE e.changedAt < :cutoff")
+                        .setParameter("cutoff", LocalDateTime.now().minus(RETENTION))
+                        .executeUpdate();
+                lastPrune = now;
+            }
+            TypedQuery<ChangeLogEntry> query = entityManager.createQuery("SELECT e FROM ChangeLogEntry e " +
+                    "WHERE e.id > :lastSeenId" + (gaps.isEmpty() ? "" : " OR e.id IN :gaps") + " ORDER BY e.id",
+                    ChangeLogEntry.class)
+                    .setParameter("lastSeenId", lastSeenId);
+            if (!gaps.isEmpty())
+                query.setParameter("gaps", gaps.keySet());
+            return query.getResultList();
+        });
+        Map<String, RoaringBitmap> changed = new HashMap<>();
+        boolean changedAll = false;
+        int count = 0;
+        for (ChangeLogEntry entry : entries){
+            gaps.remove(entry.id);
+            if (entry.id > lastSeenId){
+                if (entry.id - lastSeenId > MAX_GAP)
+                    changedAll = true;
+                else {
+                    for (long id = lastSeenId + 1; id < entry.id; id++)
+                        gaps.put(id, now);
+                }
+                lastSeenId = entry.id;
+            }
+            if (!origin.equals(entry.origin)){
+                changed.computeIfAbsent(entry.entityType, type -> new RoaringBitmap())
+                        .add((long) entry.firstId, (long) entry.lastId + 1);
+                count++;
+            }
+        }
+        lastPoll = now;
+        if (changedAll){
+            notifyInvalidated(ITEM, null);
+            notifyInvalidated(TEMPLATE, null);
+            notifyInvalidated(DEPENDENCY, null);
+        } else {
+            for (Map.Entry<String, RoaringBitmap> ids : changed.entrySet())
+                notifyInvalidated(ids.getKey(), ids.getValue());
+        }
+        return count;
+    }
+
+    /**
+     * Logs a change for the other processes in the transaction of the given entity manager. Only marks the unit of
+     * work as changed for the result cache unless coherence is started for the entity manager factory.
+     * @param entityManager Entity manager with an active transaction
+     * @param entityType "Item", "Template" or "ItemDependency"
+     * @param firstId First changed id
+     * @param lastId Last changed id
+     */
+    static void record(EntityManager entityManager, String entityType, int firstId, int lastId) {
+        UnitOfWork.markChanged(entityManager.getEntityManagerFactory());
+        String origin = origins.get(entityManager.getEntityManagerFactory());
+        if (origin == null)
+            return;
+        ChangeLogEntry entry = new ChangeLogEntry();
+        entry.origin = origin;
+        entry.entityType = entityType;
+        entry.firstId = firstId;
+        entry.lastId = lastId;
+        entry.changedAt = LocalDateTime.now();
+        entityManager.persist(entry);
+    }
+
+    // region Helper methods
+
+    private long maxId() {
+        Long maxId = UnitOfWork.run(entityManagerFactory, entityManager -> entityManager.createQuery(
+                "SELECT MAX(e.id) FROM ChangeLogEntry e", Long.class).getSingleResult());
+        return maxId == null ? 0 : maxId;
+    }
+
+    private void notifyInvalidated(String entityType, RoaringBitmap ids) {
+        for (Listener listener : listeners)
+            listener.invalidated(entityType, ids);
+        ResultCache.bump(entityManagerFactory);
+    }
+    // endregion
+}
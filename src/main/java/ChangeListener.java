@@ -0,0 +1,13 @@
+/**
+ * Listener notified when an entity changes
+ * @param <T> Type of the changed entity
+ */
+public interface ChangeListener<T> {
+
+    /**
+     * Called after a change has been committed, on the thread that made the change
+     * @param before State before the change, null if the entity was created
+     * @param after State after the change. A soft deleted entity is passed with isActive set to false.
+     */
+    void changed(T before, T after);
+}
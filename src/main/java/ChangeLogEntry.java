@@ -0,0 +1,36 @@
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Data object recording that a process committed a change to a range of item or template ids. Written in the same
+ * transaction as the change and read by the other processes sharing the database to invalidate their caches.
+ */
+@Entity
+@Table(name = "ChangeLog", indexes = @Index(name = "idx_changelog_time", columnList = "changedAt"))
+public class ChangeLogEntry {
+
+    /**
+     * Identity column, so processes that each see the database but not each other get increasing ids
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    public long id;
+    /**
+     * Random id of the process that made the change
+     */
+    public String origin;
+    public String entityType;
+    public int firstId;
+    public int lastId;
+    public LocalDateTime changedAt;
+
+    /**
+     * Empty constructor for Hibernate/JPA
+     */
+    public ChangeLogEntry(){}
+}
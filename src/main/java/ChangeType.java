@@ -0,0 +1,6 @@
+/**
+ * Change type enumerator with possible values CREATED, UPDATED, DELETED
+ */
+public enum ChangeType {
+    CREATED, UPDATED, DELETED
+}
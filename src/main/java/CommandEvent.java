@@ -0,0 +1,80 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for one console command, from reading the command line until the command is done. Commands
+ * that prompt for input are timed from the last answer, so the time the user takes to answer is not included. The
+ * statement counts cover the whole command.
+ */
+@Name("todo.Command")
+@Label("Console Command")
+@Category({"Todo", "Console"})
+@Description("Console command with the SQL statements it ran")
+@StackTrace(false)
+@Threshold("50 ms")
+public class CommandEvent extends Event {
+
+    private static final ThreadLocal<CommandEvent> current = new ThreadLocal<>();
+
+    @Label("Command")
+    @Description("First word of the command line")
+    String command;
+    @Label("Statements")
+    @Description("Number of SQL statements executed during the command")
+    long statements;
+    @Label("Round Trips")
+    @Description("Number of calls to the database during the command, counting a batch once")
+    long roundTrips;
+    @Label("SQL Rows")
+    @Description("Number of rows read or changed by the SQL statements of the command")
+    long sqlRows;
+    private transient StatementCounter.Counts countsAtBegin;
+
+    /**
+     * Starts timing a command
+     * @param commandLine Line entered by the user
+     * @return Event to finish when the command is done
+     */
+    static CommandEvent start(String commandLine) {
+        CommandEvent event = new CommandEvent();
+        if (event.isEnabled()){
+            event.command = commandLine.trim().split("\\s+", 2)[0];
+            event.countsAtBegin = StatementCounter.current();
+            event.begin();
+            current.set(event);
+        }
+        return event;
+    }
+
+    /**
+     * Restarts the timing of the command running on the current thread after the user has answered a prompt.
+     * Does nothing if no command is being recorded.
+     */
+    static void inputRead() {
+        CommandEvent event = current.get();
+        if (event != null)
+            event.begin();
+    }
+
+    /**
+     * Records the command if it exceeded the threshold of an enabled recording
+     */
+    void finish() {
+        if (command == null)
+            return;
+        current.remove();
+        end();
+        if (shouldCommit()){
+            StatementCounter.Counts counts = StatementCounter.current().since(countsAtBegin);
+            statements = counts.statements;
+            roundTrips = counts.roundTrips;
+            sqlRows = counts.rows;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders items and templates for the console. Rows are formatted into one reusable buffer and written through a
+ * single buffered writer that is flushed once per page instead of once per row.
+ */
+public class ConsoleRenderer {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Writer out;
+    private Scanner pagerInput;
+    private int pageSize;
+    private StringBuilder row = new StringBuilder(256);
+
+    /**
+     * Constructor for rendering to standard output. The pager is only enabled when running in an interactive console.
+     * @param pagerInput Scanner for reading the user's answer at the end of a page
+     * @param pageSize Number of rows per page
+     */
+    public ConsoleRenderer(Scanner pagerInput, int pageSize){
+        this(new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE),
+                System.console() != null ? pagerInput : null, pageSize);
+    }
+
+    /**
+     * Constructor with writer and pager input injection
+     * @param out Writer to render to
+     * @param pagerInput Scanner for reading the user's answer at the end of a page, null to disable the pager
+     * @param pageSize Number of rows per page
+     */
+    public ConsoleRenderer(Writer out, Scanner pagerInput, int pageSize){
+        this.out = out;
+        this.pagerInput = pagerInput;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Prints a title followed by items, page by page
+     * @param title Line printed before the items
+     * @param items Items to print
+     * @param limit Maximum number of items to print, 0 for no limit
+     */
+    public void printItems(String title, List<Item> items, int limit) {
+        writeLine(title);
+        int count = limit > 0 ? Math.min(limit, items.size()) : items.size();
+        for (int i = 0; i < count; i++){
+            formatItem(items.get(i));
+            if (!endRow(i + 1, count))
+                break;
+        }
+        flush();
+    }
+
+    /**
+     * Prints information about a given item
+     * @param item Item whose information to print
+     */
+    public void printItem(Item item) {
+        formatItem(item);
+        write(row);
+        flush();
+    }
+
+    /**
+     * Prints a title followed by templates, page by page
+     * @param title Line printed before the templates
+     * @param templates Templates to print
+     * @param limit Maximum number of templates to print, 0 for no limit
+     */
+    public void printTemplates(String title, List<Template> templates, int limit) {
+        writeLine(title);
+        int count = limit > 0 ? Math.min(limit, templates.size()) : templates.size();
+        for (int i = 0; i < count; i++){
+            formatTemplate(templates.get(i));
+            if (!endRow(i + 1, count))
+                break;
+        }
+        flush();
+    }
+
+    /**
+     * Prints information about a given template
+     * @param template Template whose information to print
+     */
+    public void printTemplate(Template template) {
+        formatTemplate(template);
+        write(row);
+        flush();
+    }
+
+    /**
+     * Prints a title followed by history entries, listing the fields each change touched
+     * @param title Line printed before the entries
+     * @param entries History entries to print, oldest first
+     */
+    public void printHistory(String title, List<HistoryEntry> entries) {
+        writeLine(title);
+        for (int i = 0; i < entries.size(); i++){
+            formatHistoryEntry(entries.get(i));
+            if (!endRow(i + 1, entries.size()))
+                break;
+        }
+        flush();
+    }
+
+    /**
+     * Checks whether a line of input runs a listing command, either alone or followed by options such as --limit
+     * @param line Line given by the user
+     * @param command Name of the command, for example 1 or ready
+     * @return True if the line runs the command
+     */
+    public static boolean isListingCommand(String line, String command) {
+        return line.matches("^" + Pattern.quote(command) + "(\\s.*)?$");
+    }
+
+    /**
+     * Parses the optional --limit argument of a listing command
+     * @param line Line given by the user
+     * @return Parsed limit. If no limit was given, returns 0 meaning no limit
+     */
+    public static int parseLimit(String line) {
+        Matcher matcher = Pattern.compile("--limit\\s+(\\d+)").matcher(line);
+        return matcher.find() ? Integer.valueOf(matcher.group(1)) : 0;
+    }
+
+    /**
+     * Formats an item into the row buffer
+     * @param item Item to format
+     */
+    private void formatItem(Item item) {
+        row.setLength(0);
+        row.append(item.deadlineDate)
+                .append(" - Id :").append(item.id)
+                .append(" - Description: ").append(item.description)
+                .append(" - Priority: ").append(item.priority.name())
+                .append(" - Completed: ").append(item.isCompleted)
+                .append('\n');
+    }
+
+    /**
+     * Formats a template into the row buffer
+     * @param template Template to format
+     */
+    private void formatTemplate(Template template) {
+        row.setLength(0);
+        row.append("Id: ").append(template.id)
+                .append(" - Name: ").append(template.name)
+                .append(" - Days from today: ").append(template.daysToAdd)
+                .append(" - Description: ").append(template.description)
+                .append(" - Priority: ").append(template.priority.name());
+        if (template.isRecurring()){
+            row.append(" - Repeats: ");
+            if (template.recurrence == Recurrence.EVERY_N_DAYS)
+                row.append("every ").append(template.recurrenceInterval).append(" days");
+            else
+                row.append(template.recurrence.name().toLowerCase());
+        }
+        row.append('\n');
+    }
+
+    /**
+     * Formats a history entry into the row buffer
+     * @param entry History entry to format
+     */
+    private void formatHistoryEntry(HistoryEntry entry) {
+        row.setLength(0);
+        row.append(entry.changedAt.withNano(0))
+                .append(" - ").append(entry.changeType.name())
+                .append(" by ").append(entry.changedBy);
+        Map<String, String> before = entry.beforeValue == null ?
+                Collections.emptyMap() : Json.parseObject(entry.beforeValue);
+        Map<String, String> after = entry.afterValue == null ?
+                Collections.emptyMap() : Json.parseObject(entry.afterValue);
+        String separator = " - ";
+        for (Map.Entry<String, String> field : after.entrySet()){
+            String oldValue = before.get(field.getKey());
+            if (field.getKey().equals("id") || Objects.equals(oldValue, field.getValue()))
+                continue;
+            row.append(separator).append(field.getKey()).append(": ");
+            if (entry.beforeValue != null)
+                row.append(oldValue).append(" -> ");
+            row.append(field.getValue());
+            separator = ", ";
+        }
+        row.append('\n');
+    }
+
+    /**
+     * Writes the formatted row and handles the end of a page
+     * @param rowsWritten Number of rows written including this one
+     * @param rowCount Total number of rows to write
+     * @return False if the user quit the pager
+     */
+    private boolean endRow(int rowsWritten, int rowCount) {
+        write(row);
+        if (pageSize <= 0 || rowsWritten % pageSize != 0 || rowsWritten == rowCount)
+            return true;
+        flush();
+        if (pagerInput == null)
+            return true;
+        writeLine("-- " + rowsWritten + "/" + rowCount + ", enter for more, (q)uit --");
+        flush();
+        boolean more = !pagerInput.nextLine().matches("^q");
+        CommandEvent.inputRead();
+        return more;
+    }
+
+    private void writeLine(String line) {
+        write(line);
+        write("\n");
+    }
+
+    private void write(CharSequence text) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Flight recorder event for one call of an item or template controller. Only calls that take longer than the
+ * threshold are recorded, and nothing is measured while no recording has the event enabled.
+ */
+@Name("todo.ControllerCall")
+@Label("Controller Call")
+@Category({"Todo", "Controller"})
+@Description("Item or template controller call with the SQL statements it ran")
+@StackTrace(false)
+@Threshold("10 ms")
+public class ControllerEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+    @Label("Id")
+    @Description("Id of the item or template the call was for, 0 if none")
+    int id;
+    @Label("Rows")
+    @Description("Number of rows returned or changed")
+    int rows;
+    @Label("Statements")
+    @Description("Number of SQL statements executed during the call")
+    long statements;
+    @Label("Round Trips")
+    @Description("Number of calls to the database during the call, counting a batch once")
+    long roundTrips;
+    @Label("SQL Rows")
+    @Description("Number of rows read or changed by the SQL statements of the call")
+    long sqlRows;
+    @Label("Failed")
+    boolean failed;
+
+    /**
+     * Runs a controller call, recording it if it exceeds the threshold of an enabled recording
+     * @param operation Name of the call, for example ItemController.toggleCompleted
+     * @param id Id of the item or template the call is for, 0 if none
+     * @param call Work of the call
+     * @param <T> Type of the result
+     * @return Result of the call
+     */
+    static <T> T record(String operation, int id, Supplier<T> call) {
+        ControllerEvent event = new ControllerEvent();
+        if (!event.isEnabled())
+            return call.get();
+        StatementCounter.Counts countsAtBegin = StatementCounter.current();
+        T result = null;
+        boolean failed = true;
+        event.begin();
+        try {
+            result = call.get();
+            failed = false;
+            return result;
+        } finally {
+            event.end();
+            if (event.shouldCommit()){
+                event.operation = operation;
+                event.id = id;
+                event.rows = rowsOf(result);
+                StatementCounter.Counts counts = StatementCounter.current().since(countsAtBegin);
+                event.statements = counts.statements;
+                event.roundTrips = counts.roundTrips;
+                event.sqlRows = counts.rows;
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+
+    private static int rowsOf(Object result) {
+        if (result instanceof Collection)
+            return ((Collection<?>) result).size();
+        if (result instanceof Map)
+            return ((Map<?, ?>) result).size();
+        if (result instanceof IdRange)
+            return ((IdRange) result).size();
+        if (result instanceof Integer)
+            return (Integer) result;
+        if (result instanceof Boolean)
+            return (Boolean) result ? 1 : 0;
+        return result == null ? 0 : 1;
+    }
+}
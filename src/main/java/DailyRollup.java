@@ -0,0 +1,57 @@
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.LocalDate;
+
+/**
+ * Data object holding the item statistics of one day and priority, maintained by the item controller
+ */
+@Entity
+public class DailyRollup {
+
+    /**
+     * Epoch day multiplied by the number of priorities plus the priority ordinal
+     */
+    @Id
+    public long id;
+    public LocalDate day;
+    public Priority priority;
+    /**
+     * Number of items created on the day
+     */
+    public int created;
+    /**
+     * Number of items completed on the day
+     */
+    public int completed;
+    /**
+     * Number of uncompleted items whose deadline is the day. Once the day has passed, the number of items that went
+     * overdue on it and were not deleted.
+     */
+    public int dueOpen;
+
+    /**
+     * Constructor for a new row with zero counts
+     * @param day Day of the statistics
+     * @param priority Priority of the counted items
+     */
+    public DailyRollup(LocalDate day, Priority priority){
+        this.id = idOf(day, priority);
+        this.day = day;
+        this.priority = priority;
+    }
+
+    /**
+     * Empty constructor for Hibernate/JPA
+     */
+    public DailyRollup(){}
+
+    /**
+     * Gets the id of the row of a day and priority
+     * @param day Day of the statistics
+     * @param priority Priority of the counted items
+     * @return Id of the row
+     */
+    public static long idOf(LocalDate day, Priority priority){
+        return day.toEpochDay() * Priority.values().length + priority.ordinal();
+    }
+}
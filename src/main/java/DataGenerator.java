@@ -0,0 +1,290 @@
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Generator of synthetic items and templates for demos and benchmarks.
+ *
+ * The data is split into chunks of a fixed size, and every chunk draws its values from its own random generator
+ * seeded from the seed and the chunk number. Chunks are generated in parallel but inserted in order, one transaction
+ * per chunk with batched inserts, so the same seed, counts and base date always give the same rows and ids on an
+ * empty database, whatever the number of threads. At most a few chunks per thread are held in memory at once.
+ *
+ * Usage:
+ * <pre>
+ * new DataGenerator(42).items(1_000_000).completionRate(0.3)
+ *         .generate(entityManagerFactory, itemController, templateController);
+ * </pre>
+ * or from the command line with --items, --templates, --seed, --threads and --unit followed by a value.
+ */
+public class DataGenerator {
+
+    private static final int CHUNK_SIZE = 5000;
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2;
+    private static final String[] VERBS = {
+            "Review", "Design", "Code", "Test", "Develop", "Refactor", "Update", "Build", "Publish", "Investigate"
+    };
+    private static final String[] OBJECTS = {
+            "minimum viable product", "work from last week", "thing your boss just mentioned", "database scripts",
+            "important functionality", "first sprint item", "demoable product"
+    };
+
+    private long seed;
+    private int items;
+    private int templates;
+    private int[] priorityWeights = new int[Priority.values().length];
+    private int daysBack = 2;
+    private int daysAhead = 7;
+    private double completionRate = 0.15;
+    private double deletionRate;
+    private LocalDate baseDate = LocalDate.now();
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Constructor with the seed all generated values are derived from
+     * @param seed Seed of the random generators
+     */
+    public DataGenerator(long seed){
+        this.seed = seed;
+        Arrays.fill(priorityWeights, 1);
+    }
+
+    /**
+     * Sets the number of items to generate
+     * @param items Number of items, 0 by default
+     * @return This generator
+     */
+    public DataGenerator items(int items){
+        this.items = items;
+        return this;
+    }
+
+    /**
+     * Sets the number of templates to generate. Generated templates do not recur.
+     * @param templates Number of templates, 0 by default
+     * @return This generator
+     */
+    public DataGenerator templates(int templates){
+        this.templates = templates;
+        return this;
+    }
+
+    /**
+     * Sets the relative frequency of each priority
+     * @param weights One weight per priority in the order of Priority.values(), all 1 by default
+     * @return This generator
+     */
+    public DataGenerator priorityWeights(int... weights){
+        if (weights.length != Priority.values().length || Arrays.stream(weights).sum() <= 0)
+            throw new IllegalArgumentException("Expected " + Priority.values().length + " weights with a positive sum");
+        this.priorityWeights = weights.clone();
+        return this;
+    }
+
+    /**
+     * Sets the range deadlines are spread over uniformly
+     * @param daysBack Number of days before the base date the earliest deadline can be, 2 by default
+     * @param daysAhead Number of days after the base date the latest deadline can be, 7 by default
+     * @return This generator
+     */
+    public DataGenerator deadlineSpread(int daysBack, int daysAhead){
+        this.daysBack = daysBack;
+        this.daysAhead = daysAhead;
+        return this;
+    }
+
+    /**
+     * Sets the share of items that are completed
+     * @param completionRate Probability from 0 to 1, 0.15 by default
+     * @return This generator
+     */
+    public DataGenerator completionRate(double completionRate){
+        this.completionRate = completionRate;
+        return this;
+    }
+
+    /**
+     * Sets the share of items that are deleted
+     * @param deletionRate Probability from 0 to 1, 0 by default
+     * @return This generator
+     */
+    public DataGenerator deletionRate(double deletionRate){
+        this.deletionRate = deletionRate;
+        return this;
+    }
+
+    /**
+     * Sets the date deadlines and creation times are relative to. Benchmarks that compare runs on different days
+     * should fix it.
+     * @param baseDate Base date, today by default
+     * @return This generator
+     */
+    public DataGenerator baseDate(LocalDate baseDate){
+        this.baseDate = baseDate;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads generating chunks while the calling thread inserts them
+     * @param threads Number of threads, the number of processors by default
+     * @return This generator
+     */
+    public DataGenerator threads(int threads){
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Generates and inserts the templates and then the items. Listeners of the controllers are notified of every
+     * inserted row.
+     * @param entityManagerFactory Entity manager factory of the database
+     * @param itemController Controller the items are inserted through
+     * @param templateController Controller the templates are inserted through
+     * @return Number of items and templates inserted
+     */
+    public int generate(EntityManagerFactory entityManagerFactory, ItemController itemController,
+                        TemplateController templateController) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "data-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            int templateChunks = chunks(templates);
+            int itemChunks = chunks(items);
+            Deque<CompletableFuture<List<?>>> pending = new ArrayDeque<>();
+            int next = 0;
+            int inserted = 0;
+            for (int chunk = 0; chunk < templateChunks + itemChunks; chunk++){
+                while (next < templateChunks + itemChunks && pending.size() < threads * CHUNKS_AHEAD_PER_THREAD){
+                    int number = next++;
+                    pending.add(CompletableFuture.supplyAsync(() -> number < templateChunks ?
+                            templateChunk(number) : itemChunk(number - templateChunks), pool));
+                }
+                List<?> rows = pending.poll().join();
+                boolean isTemplateChunk = chunk < templateChunks;
+                UnitOfWork.run(entityManagerFactory, "DataGenerator.insert", 0, entityManager -> isTemplateChunk ?
+                        templateController.insertTemplates(entityManager, cast(rows)) :
+                        itemController.insertItems(entityManager, cast(rows)));
+                inserted += rows.size();
+            }
+            return inserted;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Generates data into a database from the command line
+     * @param args --items, --templates, --seed, --threads and --unit, the name of the persistence unit, each
+     *             followed by a value
+     */
+    public static void main(String[] args) {
+        List<String> arguments = Arrays.asList(args);
+        DataGenerator generator = new DataGenerator(Long.parseLong(argument(arguments, "--seed", "42")))
+                .items(Integer.parseInt(argument(arguments, "--items", "1000000")))
+                .templates(Integer.parseInt(argument(arguments, "--templates", "0")));
+        if (arguments.contains("--threads"))
+            generator.threads(Integer.parseInt(argument(arguments, "--threads", null)));
+        EntityManagerFactory entityManagerFactory =
+                Persistence.createEntityManagerFactory(argument(arguments, "--unit", "local.h2"));
+        try {
+            ItemController itemController = new ItemController(entityManagerFactory);
+            long start = System.nanoTime();
+            int inserted = generator.generate(entityManagerFactory, itemController,
+                    new TemplateController(entityManagerFactory, itemController));
+            System.out.println("Generated " + inserted + " items and templates in " +
+                    (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            entityManagerFactory.close();
+        }
+    }
+
+    // region Helper methods
+
+    private static int chunks(int count) {
+        return (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> cast(List<?> rows) {
+        return (List<T>) rows;
+    }
+
+    private static String argument(List<String> arguments, String name, String defaultValue) {
+        int index = arguments.indexOf(name);
+        return index >= 0 && index + 1 < arguments.size() ? arguments.get(index + 1) : defaultValue;
+    }
+
+    /**
+     * Gets the random generator of a chunk, which depends only on the seed, the kind of rows and the chunk number
+     */
+    private SplittableRandom random(int kind, int chunk) {
+        return new SplittableRandom(seed ^ ((long) kind << 56) ^ chunk * 0x9E3779B97F4A7C15L);
+    }
+
+    private List<Item> itemChunk(int chunk) {
+        SplittableRandom random = random(1, chunk);
+        int count = Math.min(CHUNK_SIZE, items - chunk * CHUNK_SIZE);
+        List<Item> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            LocalDate deadlineDate = baseDate.plusDays(random.nextInt(daysBack + daysAhead + 1) - daysBack);
+            Item item = new Item(description(random), priority(random), deadlineDate);
+            // Created up to two weeks before the deadline, but not after the base date
+            LocalDateTime createdAt = deadlineDate.minusDays(random.nextInt(15)).atStartOfDay()
+                    .plusSeconds(random.nextInt(24 * 60 * 60));
+            LocalDateTime latest = baseDate.atStartOfDay();
+            item.createdAt = createdAt.isAfter(latest) ? latest.minusSeconds(random.nextInt(24 * 60 * 60)) : createdAt;
+            if (random.nextDouble() < completionRate){
+                // Completed up to a week after creation, but not after the base date either
+                LocalDateTime completedAt = item.createdAt.plusSeconds(random.nextInt(7 * 24 * 60 * 60));
+                item.isCompleted = true;
+                item.completedAt = completedAt.isAfter(latest) ? latest : completedAt;
+            }
+            if (random.nextDouble() < deletionRate)
+                item.isActive = false;
+            rows.add(item);
+        }
+        return rows;
+    }
+
+    private List<Template> templateChunk(int chunk) {
+        SplittableRandom random = random(2, chunk);
+        int count = Math.min(CHUNK_SIZE, templates - chunk * CHUNK_SIZE);
+        List<Template> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            int number = chunk * CHUNK_SIZE + i + 1;
+            Template template = new Template("Template " + number, description(random), priority(random),
+                    random.nextInt(daysAhead + 1));
+            if (random.nextDouble() < deletionRate)
+                template.isActive = false;
+            rows.add(template);
+        }
+        return rows;
+    }
+
+    private static String description(SplittableRandom random) {
+        return VERBS[random.nextInt(VERBS.length)] + " the " + OBJECTS[random.nextInt(OBJECTS.length)];
+    }
+
+    private Priority priority(SplittableRandom random) {
+        int value = random.nextInt(Arrays.stream(priorityWeights).sum());
+        for (int i = 0; i < priorityWeights.length; i++){
+            value -= priorityWeights[i];
+            if (value < 0)
+                return Priority.values()[i];
+        }
+        return Priority.values()[priorityWeights.length - 1];
+    }
+    // endregion
+}
@@ -0,0 +1,221 @@
+import org.roaringbitmap.RoaringBitmap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Controller for dependencies between items, where a blocked item cannot be started before its blocker is completed.
+ *
+ * The dependencies are stored in the ItemDependency table and held in memory as a dependency graph, which is loaded on
+ * first use and then kept current by this controller and by the changes of the item controller. The graph rejects
+ * dependencies that would close a cycle and keeps the set of blocked items, so the ready items are found with the
+ * bitmap index of the item controller without reading the dependencies again.
+ */
+public class DependencyController implements ChangeListener<Item> {
+
+    private static final int FETCH_CHUNK_SIZE = 1000;
+
+    private EntityManagerFactory entityManagerFactory;
+    private ItemController itemController;
+    private DependencyGraph graph;
+
+    /**
+     * Constructor with entityManagerFactory and itemController injection
+     * @param entityManagerFactory Injectable entityManagerFactory
+     * @param itemController Controller of the items, whose changes of completion and deletion unblock items
+     */
+    public DependencyController(EntityManagerFactory entityManagerFactory, ItemController itemController){
+        this.entityManagerFactory = entityManagerFactory;
+        this.itemController = itemController;
+        itemController.addListener(this);
+    }
+
+    /**
+     * Makes an item wait for another one
+     * @param blockerId Id of the item that has to be completed first
+     * @param blockedId Id of the item that waits for the blocker
+     * @return True if the dependency was added or already existed, false if either item was not found
+     * @throws IllegalArgumentException If the blocked item already blocks the blocker, directly or through other items
+     */
+    public boolean addDependency(int blockerId, int blockedId) {
+        return UnitOfWork.run(entityManagerFactory, "DependencyController.addDependency", blockedId, entityManager -> {
+            // Read inside the work, so a graph dropped by invalidate before the work starts is not changed
+            DependencyGraph graph = getGraph();
+            Item blocker = itemController.getItem(blockerId);
+            Item blocked = itemController.getItem(blockedId);
+            if (blocker == null || blocked == null)
+                return false;
+            if (entityManager.find(ItemDependency.class, ItemDependency.idOf(blockerId, blockedId)) != null)
+                return true;
+            if (!graph.addEdge(blockerId, blockedId))
+                throw new IllegalArgumentException("Item " + blockedId + " already blocks item " + blockerId);
+            graph.setOpen(blockerId, isOpen(blocker));
+            graph.setOpen(blockedId, isOpen(blocked));
+            // The edge is in the graph before the commit, so a concurrent dependency cannot close a cycle with it
+            UnitOfWork.afterRollback(entityManagerFactory, () -> graph.removeEdge(blockerId, blockedId));
+            entityManager.persist(new ItemDependency(blockerId, blockedId));
+            CacheCoherence.record(entityManager, CacheCoherence.DEPENDENCY, blockedId, blockedId);
+            return true;
+        });
+    }
+
+    /**
+     * Removes a dependency
+     * @param blockerId Id of the blocker
+     * @param blockedId Id of the blocked item
+     * @return True if the dependency existed
+     */
+    public boolean removeDependency(int blockerId, int blockedId) {
+        return UnitOfWork.run(entityManagerFactory, "DependencyController.removeDependency", blockedId,
+                entityManager -> {
+            DependencyGraph graph = getGraph();
+            ItemDependency dependency = entityManager.find(ItemDependency.class,
+                    ItemDependency.idOf(blockerId, blockedId));
+            if (dependency == null)
+                return false;
+            entityManager.remove(dependency);
+            CacheCoherence.record(entityManager, CacheCoherence.DEPENDENCY, blockedId, blockedId);
+            UnitOfWork.afterCommit(entityManagerFactory, () -> graph.removeEdge(blockerId, blockedId));
+            return true;
+        });
+    }
+
+    /**
+     * Gets the items an item waits for
+     * @param id Id of the item
+     * @return Active blockers of the item, including completed ones, with blockers of blockers first
+     */
+    public List<Item> getBlockers(int id) {
+        int[] blockerIds = getGraph().blockersOf(id);
+        return UnitOfWork.run(entityManagerFactory, "DependencyController.getBlockers", id,
+                entityManager -> ItemController.getItems(entityManager, blockerIds, ItemQuery.items()));
+    }
+
+    /**
+     * Checks whether an item waits for an open item
+     * @param id Id of the item
+     * @return True if an active, uncompleted blocker exists
+     */
+    public boolean isBlocked(int id) {
+        return getGraph().isBlocked(id);
+    }
+
+    /**
+     * Gets the items that can be started now
+     * @param query Filter for the items, to which the exclusion of completed and blocked items is added
+     * @return Uncompleted items matching the filter that have no open blockers
+     */
+    public List<Item> getReadyItems(ItemQuery query) {
+        return itemController.getItems(query.completed(false).withoutIds(getGraph().blocked()));
+    }
+
+    /**
+     * Gets the open items that have dependencies in an order in which they can be worked through
+     * @param limit Maximum number of items to return, 0 for no limit
+     * @return Active, uncompleted items with dependencies, each after all of its blockers
+     */
+    public List<Item> getWorkOrder(int limit) {
+        int[] ids = getGraph().orderedOpenIds(limit);
+        return UnitOfWork.run(entityManagerFactory, "DependencyController.getWorkOrder", 0,
+                entityManager -> ItemController.getItems(entityManager, ids, ItemQuery.items().completed(false)));
+    }
+
+    /**
+     * Gets the dependency graph, loading it on first use
+     * @return Dependency graph of the items
+     */
+    public synchronized DependencyGraph getGraph() {
+        if (graph == null)
+            graph = load();
+        return graph;
+    }
+
+    /**
+     * Drops cached state after other processes changed items or dependencies
+     * @param entityType "Item" to reload the open state of the changed items, or "ItemDependency" to drop the graph
+     * @param ids Changed ids, null if any id may have changed
+     */
+    public synchronized void invalidate(String entityType, RoaringBitmap ids) {
+        if (graph == null)
+            return;
+        if (ids == null || CacheCoherence.DEPENDENCY.equals(entityType)){
+            graph = null;
+            return;
+        }
+        List<Integer> nodeIds = new ArrayList<>();
+        for (int id : ids){
+            if (graph.positionOf(id) >= 0)
+                nodeIds.add(id);
+        }
+        if (nodeIds.isEmpty())
+            return;
+        RoaringBitmap open = UnitOfWork.run(entityManagerFactory, entityManager -> openIds(entityManager, nodeIds));
+        for (int id : nodeIds)
+            graph.setOpen(id, open.contains(id));
+    }
+
+    @Override
+    public void changed(Item before, Item after) {
+        DependencyGraph current;
+        synchronized (this) {
+            current = graph;
+        }
+        if (current != null)
+            current.setOpen(after.id, isOpen(after));
+    }
+
+    // region Helper methods
+
+    private static boolean isOpen(Item item) {
+        return item.isActive && !item.isCompleted;
+    }
+
+    /**
+     * Reads all dependencies and the open state of the items they connect
+     */
+    @SuppressWarnings("unchecked")
+    private DependencyGraph load() {
+        return UnitOfWork.run(entityManagerFactory, entityManager -> {
+            List<Object[]> rows = entityManager.createQuery(
+                    "SELECT d.blockerId, d.blockedId FROM ItemDependency d").getResultList();
+            int[] blockerIds = new int[rows.size()];
+            int[] blockedIds = new int[rows.size()];
+            RoaringBitmap nodeIds = new RoaringBitmap();
+            for (int i = 0; i < rows.size(); i++){
+                blockerIds[i] = (Integer) rows.get(i)[0];
+                blockedIds[i] = (Integer) rows.get(i)[1];
+                nodeIds.add(blockerIds[i]);
+                nodeIds.add(blockedIds[i]);
+            }
+            DependencyGraph loaded = new DependencyGraph();
+            loaded.addEdges(blockerIds, blockedIds);
+            List<Integer> ids = new ArrayList<>(nodeIds.getCardinality());
+            for (int id : nodeIds)
+                ids.add(id);
+            for (int id : openIds(entityManager, ids))
+                loaded.setOpen(id, true);
+            return loaded;
+        });
+    }
+
+    /**
+     * Selects the active, uncompleted items among the given ids from the hot and the archived items
+     */
+    private static RoaringBitmap openIds(EntityManager entityManager, List<Integer> ids) {
+        RoaringBitmap open = new RoaringBitmap();
+        for (int start = 0; start < ids.size(); start += FETCH_CHUNK_SIZE){
+            List<Integer> chunk = ids.subList(start, Math.min(ids.size(), start + FETCH_CHUNK_SIZE));
+            for (String entity : new String[]{"Item", "ArchivedItem"}){
+                for (Integer id : entityManager.createQuery("SELECT i.id FROM " + entity + " i " +
+                        "WHERE i.isActive = 'true' AND i.isCompleted = 'false' AND i.id IN :ids", Integer.class)
+                        .setParameter("ids", chunk)
+                        .getResultList())
+                    open.add(id);
+            }
+        }
+        return open;
+    }
+    // endregion
+}
@@ -0,0 +1,345 @@
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory graph of item dependencies kept in topological order.
+ *
+ * An edge goes from a blocker to the item it blocks, and every item with an edge has a position in an order in which
+ * blockers come before the items they block. Adding an edge that goes against the order only moves the items between
+ * the two positions that are reachable from its ends (the algorithm of Pearce and Kelly), so the cost depends on the
+ * size of the affected region instead of the whole graph, and the same search finds the edges that would close a
+ * cycle. Removing an edge never breaks the order.
+ *
+ * The graph also knows which of its items are open, meaning active and not completed, and counts the open blockers of
+ * each item, so the set of blocked items is kept current on every change without searching the graph.
+ */
+public class DependencyGraph {
+
+    private Map<Integer, Node> nodes = new HashMap<>();
+    private List<Node> order = new ArrayList<>();
+    private Set<Long> edges = new HashSet<>();
+    private RoaringBitmap blocked = new RoaringBitmap();
+
+    /**
+     * Adds an edge, reordering the affected region if the blocked item is currently before its blocker
+     * @param blockerId Id of the item that has to be completed first
+     * @param blockedId Id of the item that waits for the blocker
+     * @return False if the edge would close a cycle, in which case the graph is left unchanged
+     */
+    public synchronized boolean addEdge(int blockerId, int blockedId) {
+        if (blockerId == blockedId)
+            return false;
+        if (edges.contains(ItemDependency.idOf(blockerId, blockedId)))
+            return true;
+        Node blocker = nodes.get(blockerId);
+        Node blockedNode = nodes.get(blockedId);
+        // Only an edge between two items already in the graph can close a cycle, so it is rejected before any node
+        // is added
+        if (blocker != null && blockedNode != null && blockedNode.position < blocker.position &&
+                !reorder(blocker, blockedNode))
+            return false;
+        blocker = node(blockerId);
+        blockedNode = node(blockedId);
+        // A new blocker has no edges yet, so moving it before the blocked item cannot fail
+        if (blockedNode.position < blocker.position)
+            reorder(blocker, blockedNode);
+        edges.add(ItemDependency.idOf(blockerId, blockedId));
+        blocker.out = append(blocker.out, blocker.outCount++, blockedNode);
+        blockedNode.in = append(blockedNode.in, blockedNode.inCount++, blocker);
+        if (blocker.open)
+            changeOpenBlockers(blockedNode, 1);
+        return true;
+    }
+
+    /**
+     * Adds many edges at once and sorts the whole graph a single time, for loading a stored graph
+     * @param blockerIds Ids of the blockers
+     * @param blockedIds Ids of the blocked items, at the same indexes as their blockers
+     */
+    public synchronized void addEdges(int[] blockerIds, int[] blockedIds) {
+        for (int i = 0; i < blockerIds.length; i++){
+            if (blockerIds[i] == blockedIds[i] || !edges.add(ItemDependency.idOf(blockerIds[i], blockedIds[i])))
+                continue;
+            Node blocker = node(blockerIds[i]);
+            Node blockedNode = node(blockedIds[i]);
+            blocker.out = append(blocker.out, blocker.outCount++, blockedNode);
+            blockedNode.in = append(blockedNode.in, blockedNode.inCount++, blocker);
+            if (blocker.open)
+                changeOpenBlockers(blockedNode, 1);
+        }
+        sortAll();
+    }
+
+    /**
+     * Removes an edge. The order stays valid, so nothing is moved.
+     * @param blockerId Id of the blocker
+     * @param blockedId Id of the blocked item
+     * @return True if the edge existed
+     */
+    public synchronized boolean removeEdge(int blockerId, int blockedId) {
+        if (!edges.remove(ItemDependency.idOf(blockerId, blockedId)))
+            return false;
+        Node blocker = nodes.get(blockerId);
+        Node blockedNode = nodes.get(blockedId);
+        blocker.outCount = remove(blocker.out, blocker.outCount, blockedNode);
+        blockedNode.inCount = remove(blockedNode.in, blockedNode.inCount, blocker);
+        if (blocker.open)
+            changeOpenBlockers(blockedNode, -1);
+        return true;
+    }
+
+    /**
+     * Sets whether an item is open, updating the blocked state of the items it blocks. Items without edges are
+     * ignored.
+     * @param id Id of the item
+     * @param open True if the item is active and not completed
+     */
+    public synchronized void setOpen(int id, boolean open) {
+        Node node = nodes.get(id);
+        if (node == null || node.open == open)
+            return;
+        node.open = open;
+        for (int i = 0; i < node.outCount; i++)
+            changeOpenBlockers(node.out[i], open ? 1 : -1);
+    }
+
+    /**
+     * Checks whether an item has an open blocker
+     * @param id Id of the item
+     * @return True if the item is blocked
+     */
+    public synchronized boolean isBlocked(int id) {
+        return blocked.contains(id);
+    }
+
+    /**
+     * Gets the items that have at least one open blocker
+     * @return Copy of the ids of the blocked items
+     */
+    public synchronized RoaringBitmap blocked() {
+        return blocked.clone();
+    }
+
+    /**
+     * Gets the blockers of an item
+     * @param id Id of the item
+     * @return Ids of the items that block it, in topological order
+     */
+    public synchronized int[] blockersOf(int id) {
+        Node node = nodes.get(id);
+        if (node == null)
+            return new int[0];
+        Node[] blockers = Arrays.copyOf(node.in, node.inCount);
+        Arrays.sort(blockers, Comparator.comparingInt(blocker -> blocker.position));
+        int[] ids = new int[blockers.length];
+        for (int i = 0; i < blockers.length; i++)
+            ids[i] = blockers[i].id;
+        return ids;
+    }
+
+    /**
+     * Gets the open items of the graph in topological order, so every item comes after all of its blockers
+     * @param limit Maximum number of ids to return, 0 for no limit
+     * @return Ordered ids
+     */
+    public synchronized int[] orderedOpenIds(int limit) {
+        int max = limit > 0 ? limit : order.size();
+        int[] ids = new int[Math.min(max, order.size())];
+        int count = 0;
+        for (int i = 0; i < order.size() && count < ids.length; i++){
+            if (order.get(i).open)
+                ids[count++] = order.get(i).id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Gets the position of an item in the topological order
+     * @param id Id of the item
+     * @return Position, -1 if the item has no edges
+     */
+    public synchronized int positionOf(int id) {
+        Node node = nodes.get(id);
+        return node == null ? -1 : node.position;
+    }
+
+    /**
+     * Gets the number of edges
+     * @return Number of dependencies in the graph
+     */
+    public synchronized int edgeCount() {
+        return edges.size();
+    }
+
+    // region Helper methods
+
+    private Node node(int id) {
+        Node node = nodes.get(id);
+        if (node == null){
+            node = new Node(id, order.size());
+            nodes.put(id, node);
+            order.add(node);
+        }
+        return node;
+    }
+
+    /**
+     * Moves the nodes between the positions of the blocked item and its new blocker so that the blocker comes first
+     * @return False if the blocker is reachable from the blocked item, leaving the order unchanged
+     */
+    private boolean reorder(Node blocker, Node blockedNode) {
+        List<Node> forward = new ArrayList<>();
+        boolean acyclic = search(blockedNode, blocker.position, true, forward);
+        List<Node> backward = new ArrayList<>();
+        if (acyclic)
+            search(blocker, blockedNode.position, false, backward);
+        for (Node node : forward)
+            node.visited = false;
+        for (Node node : backward)
+            node.visited = false;
+        if (!acyclic)
+            return false;
+        // The nodes reaching the blocker take the lowest of the freed positions, followed by the nodes reachable
+        // from the blocked item, each group keeping its current relative order
+        Comparator<Node> byPosition = Comparator.comparingInt(node -> node.position);
+        forward.sort(byPosition);
+        backward.sort(byPosition);
+        int[] positions = new int[forward.size() + backward.size()];
+        int count = 0;
+        for (Node node : backward)
+            positions[count++] = node.position;
+        for (Node node : forward)
+            positions[count++] = node.position;
+        Arrays.sort(positions);
+        count = 0;
+        for (Node node : backward)
+            place(node, positions[count++]);
+        for (Node node : forward)
+            place(node, positions[count++]);
+        return true;
+    }
+
+    /**
+     * Collects the nodes reachable from a start node without leaving the affected region
+     * @param start Node to start from
+     * @param bound Position of the other end of the new edge
+     * @param forward True to follow edges to blocked items with positions below the bound, false to follow edges to
+     *                blockers with positions above it
+     * @param found Receives the visited nodes, which are left marked
+     * @return False if a forward search reached the bound, meaning the new edge would close a cycle
+     */
+    private static boolean search(Node start, int bound, boolean forward, List<Node> found) {
+        Deque<Node> stack = new ArrayDeque<>();
+        start.visited = true;
+        found.add(start);
+        stack.push(start);
+        while (!stack.isEmpty()){
+            Node node = stack.pop();
+            Node[] next = forward ? node.out : node.in;
+            int nextCount = forward ? node.outCount : node.inCount;
+            for (int i = 0; i < nextCount; i++){
+                Node neighbour = next[i];
+                if (forward && neighbour.position == bound)
+                    return false;
+                if (!neighbour.visited && (forward ? neighbour.position < bound : neighbour.position > bound)){
+                    neighbour.visited = true;
+                    found.add(neighbour);
+                    stack.push(neighbour);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts all nodes with Kahn's algorithm, taking ready nodes in their current order
+     */
+    private void sortAll() {
+        int[] waiting = new int[order.size()];
+        Deque<Node> ready = new ArrayDeque<>();
+        for (Node node : order){
+            waiting[node.position] = node.inCount;
+            if (node.inCount == 0)
+                ready.add(node);
+        }
+        List<Node> sorted = new ArrayList<>(order.size());
+        while (!ready.isEmpty()){
+            Node node = ready.poll();
+            sorted.add(node);
+            for (int i = 0; i < node.outCount; i++){
+                if (--waiting[node.out[i].position] == 0)
+                    ready.add(node.out[i]);
+            }
+        }
+        // Nodes on a cycle, which only a database changed by other means can hold, keep their order at the end
+        for (Node node : order){
+            if (waiting[node.position] > 0)
+                sorted.add(node);
+        }
+        for (int i = 0; i < sorted.size(); i++)
+            place(sorted.get(i), i);
+    }
+
+    private void place(Node node, int position) {
+        node.position = position;
+        order.set(position, node);
+    }
+
+    private void changeOpenBlockers(Node node, int delta) {
+        node.openBlockers += delta;
+        if (node.openBlockers > 0)
+            blocked.add(node.id);
+        else
+            blocked.remove(node.id);
+    }
+
+    private static Node[] append(Node[] nodes, int count, Node node) {
+        if (count == nodes.length)
+            nodes = Arrays.copyOf(nodes, Math.max(4, count * 2));
+        nodes[count] = node;
+        return nodes;
+    }
+
+    private static int remove(Node[] nodes, int count, Node node) {
+        for (int i = 0; i < count; i++){
+            if (nodes[i] == node){
+                nodes[i] = nodes[count - 1];
+                nodes[count - 1] = null;
+                return count - 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Item with edges, its position in the order and its neighbours
+     */
+    private static class Node {
+
+        private int id;
+        private int position;
+        private boolean open;
+        private int openBlockers;
+        private boolean visited;
+        private Node[] out = new Node[0];
+        private int outCount;
+        private Node[] in = new Node[0];
+        private int inCount;
+
+        Node(int id, int position){
+            this.id = id;
+            this.position = position;
+        }
+    }
+    // endregion
+}
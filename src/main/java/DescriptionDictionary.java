@@ -0,0 +1,198 @@
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding of item descriptions.
+ *
+ * Items store the id of a row of ItemDescription instead of the text, and the text is read back with a subquery on
+ * the primary key. On the write path the ids of known descriptions are held in memory per database, so only new
+ * descriptions go to the database. New descriptions are inserted and committed in a transaction of their own, so
+ * concurrent writers of the same description never wait for each other's transactions; the entries of rolled back
+ * items are left unused. On the read path loaded descriptions are interned, so a list of a million items holds one
+ * string per distinct description instead of a million copies.
+ */
+public class DescriptionDictionary {
+
+    private static final int FETCH_CHUNK_SIZE = 1000;
+    private static final int MAX_INTERNED = 100_000;
+    private static final Map<EntityManagerFactory, DescriptionDictionary> dictionaries =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Map<String, String> interned = new ConcurrentHashMap<>();
+
+    private Map<String, Integer> ids = new HashMap<>();
+
+    /**
+     * Sets the description ids of items about to be persisted or changed, adding new descriptions to the dictionary
+     * @param entityManager Entity manager of the database the items are written to
+     * @param items Items whose descriptionId is set from their description
+     */
+    static void resolve(EntityManager entityManager, List<Item> items) {
+        Set<String> texts = new LinkedHashSet<>();
+        for (Item item : items){
+            if (item.description != null)
+                texts.add(item.description);
+        }
+        EntityManagerFactory entityManagerFactory = entityManager.getEntityManagerFactory();
+        Map<String, Integer> textIds = dictionaries.computeIfAbsent(entityManagerFactory,
+                key -> new DescriptionDictionary()).idsOf(entityManagerFactory, texts);
+        for (Item item : items)
+            item.descriptionId = item.description == null ? null : textIds.get(item.description);
+    }
+
+    /**
+     * Gets the id of a description on a plain JDBC connection, inserting it in the transaction of the connection if
+     * it is new. For bulk loads that bypass the entity manager.
+     * @param connection Connection with an open transaction
+     * @param text Text of the description, may be null
+     * @return Id of the description, null for a null text
+     * @throws SQLException If the statements fail
+     */
+    static Integer idOf(Connection connection, String text) throws SQLException {
+        if (text == null)
+            return null;
+        try (PreparedStatement select = connection.prepareStatement("SELECT id FROM ItemDescription WHERE text = ?")) {
+            select.setString(1, text);
+            try (ResultSet rs = select.executeQuery()) {
+                if (rs.next())
+                    return rs.getInt(1);
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO ItemDescription (text) VALUES (?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            insert.setString(1, text);
+            insert.executeUpdate();
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Gets the shared instance of a loaded description
+     * @param text Description read from the database, may be null
+     * @return Equal string, the same instance for every equal description
+     */
+    static String intern(String text) {
+        if (text == null)
+            return null;
+        String existing = interned.get(text);
+        if (existing != null)
+            return existing;
+        // Descriptions are not meant to be unique, so a process seeing this many is not getting much out of interning
+        if (interned.size() >= MAX_INTERNED)
+            interned.clear();
+        existing = interned.putIfAbsent(text, text);
+        return existing == null ? text : existing;
+    }
+
+    /**
+     * Moves the descriptions of a database written before the dictionary into it and drops the old text columns.
+     * Does nothing if the item tables have no description column.
+     * @param entityManagerFactory Entity manager factory of the database
+     * @return Number of item and archived item rows migrated
+     */
+    public static int migrate(EntityManagerFactory entityManagerFactory) {
+        return UnitOfWork.run(entityManagerFactory, entityManager -> {
+            int[] migrated = new int[1];
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                for (String table : new String[]{"Item", "ArchivedItem"}){
+                    if (!hasDescriptionColumn(connection, table))
+                        continue;
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate("INSERT INTO ItemDescription (text) SELECT DISTINCT description " +
+                                "FROM " + table + " WHERE description IS NOT NULL AND description NOT IN " +
+                                "(SELECT text FROM ItemDescription)");
+                        migrated[0] += statement.executeUpdate("UPDATE " + table + " t SET descriptionId = " +
+                                "(SELECT d.id FROM ItemDescription d WHERE d.text = t.description) " +
+                                "WHERE description IS NOT NULL");
+                        statement.executeUpdate("ALTER TABLE " + table + " DROP COLUMN description");
+                    }
+                }
+            });
+            return migrated[0];
+        });
+    }
+
+    // region Helper methods
+
+    /**
+     * Gets the ids of descriptions, storing the new ones
+     */
+    private synchronized Map<String, Integer> idsOf(EntityManagerFactory entityManagerFactory, Set<String> texts) {
+        Map<String, Integer> textIds = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String text : texts){
+            Integer id = ids.get(text);
+            if (id == null)
+                missing.add(text);
+            else
+                textIds.put(text, id);
+        }
+        if (!missing.isEmpty()){
+            Map<String, Integer> stored = store(entityManagerFactory, missing);
+            ids.putAll(stored);
+            textIds.putAll(stored);
+        }
+        return textIds;
+    }
+
+    /**
+     * Finds or inserts descriptions in a transaction of their own. Other processes may have stored some of them.
+     */
+    private static Map<String, Integer> store(EntityManagerFactory entityManagerFactory, List<String> texts) {
+        Map<String, Integer> stored = new HashMap<>();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            for (int start = 0; start < texts.size(); start += FETCH_CHUNK_SIZE){
+                for (ItemDescription description : entityManager.createQuery(
+                        "SELECT d FROM ItemDescription d WHERE d.text IN :texts", ItemDescription.class)
+                        .setParameter("texts", texts.subList(start, Math.min(texts.size(), start + FETCH_CHUNK_SIZE)))
+                        .getResultList())
+                    stored.put(description.text, description.id);
+            }
+            for (String text : texts){
+                if (!stored.containsKey(text)){
+                    ItemDescription description = new ItemDescription(text);
+                    entityManager.persist(description);
+                    stored.put(text, description.id);
+                }
+            }
+            entityManager.getTransaction().commit();
+            return stored;
+        } finally {
+            if (entityManager.getTransaction().isActive())
+                entityManager.getTransaction().rollback();
+            entityManager.close();
+        }
+    }
+
+    private static boolean hasDescriptionColumn(Connection connection, String table) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement("SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
+                "WHERE TABLE_NAME = ? AND COLUMN_NAME = 'DESCRIPTION'")) {
+            select.setString(1, table.toUpperCase());
+            try (ResultSet rs = select.executeQuery()) {
+                rs.next();
+                return rs.getLong(1) > 0;
+            }
+        }
+    }
+    // endregion
+}
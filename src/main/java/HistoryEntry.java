@@ -0,0 +1,37 @@
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Data object representing one recorded change of an item or a template. Entries are only ever appended.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_history_entity", columnList = "entityType, entityId"))
+public class HistoryEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "historySequence")
+    @SequenceGenerator(name = "historySequence", sequenceName = IdSequences.HISTORY,
+            allocationSize = IdSequences.ALLOCATION_SIZE)
+    public int id;
+    public String entityType;
+    public int entityId;
+    public ChangeType changeType;
+    public LocalDateTime changedAt;
+    public String changedBy;
+    @Column(length = 4096)
+    public String beforeValue;
+    @Column(length = 4096)
+    public String afterValue;
+
+    /**
+     * Empty constructor for Hibernate/JPA
+     */
+    public HistoryEntry(){}
+}
@@ -0,0 +1,46 @@
+/**
+ * Data object representing the ids of rows created in one operation. Ids come from sequences shared with other
+ * processes and threads, so the rows of one operation may have gaps between their ids that belong to other rows.
+ */
+public class IdRange {
+
+    public int first;
+    public int last;
+    public int count;
+
+    /**
+     * Constructor for the ids of created rows
+     * @param first Lowest id of the created rows
+     * @param last Highest id of the created rows
+     * @param count Number of created rows
+     */
+    public IdRange(int first, int last, int count){
+        this.first = first;
+        this.last = last;
+        this.count = count;
+    }
+
+    /**
+     * Gets the number of ids in the range
+     * @return Number of created rows, which is less than the ids between first and last when other rows got ids
+     *         in between
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * Checks whether the created rows got every id between first and last
+     * @return True if no other rows got ids in between
+     */
+    public boolean isContiguous(){
+        return last - first + 1 == count;
+    }
+
+    @Override
+    public String toString(){
+        if (first == last)
+            return String.valueOf(first);
+        return isContiguous() ? first + "-" + last : "between " + first + " and " + last;
+    }
+}
@@ -0,0 +1,85 @@
+import org.hibernate.Session;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Database sequences that the ids of items, templates and history entries are drawn from.
+ *
+ * Every process sharing a database takes blocks of ALLOCATION_SIZE ids from the same sequence, so concurrent
+ * processes never hand out the same id, and the ids of a batch written by one process are increasing but not
+ * necessarily contiguous. Rows inserted with explicit ids, by a snapshot restore or by a database written before the
+ * sequences existed, leave the sequences behind the stored ids; advance moves them past the highest stored id.
+ */
+public class IdSequences {
+
+    /**
+     * Number of ids a process takes from a sequence at a time, the increment of every sequence
+     */
+    static final int ALLOCATION_SIZE = 50;
+    static final String ITEM = "ItemSequence";
+    static final String TEMPLATE = "TemplateSequence";
+    static final String HISTORY = "HistorySequence";
+
+    /**
+     * Moves every sequence past the highest id stored in the tables it serves. Must be called before ids are taken
+     * from the sequences through the entity manager factory, since ids already taken are not given back.
+     * @param entityManagerFactory Entity manager factory of the database
+     */
+    public static void advance(EntityManagerFactory entityManagerFactory) {
+        UnitOfWork.run(entityManagerFactory, entityManager -> {
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                // Archived items keep their ids, so new items must not reuse them either
+                advance(connection, ITEM, highestId(connection, "Item", "ArchivedItem"));
+                advance(connection, TEMPLATE, highestId(connection, "Template"));
+                advance(connection, HISTORY, highestId(connection, "HistoryEntry"));
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Moves a sequence so that the ids it hands out next are all above an id. Does nothing if they already are.
+     * H2 commits the open transaction of the connection when a sequence is altered.
+     * @param connection Connection to the database
+     * @param sequence Name of the sequence
+     * @param id Id that must not be handed out
+     * @throws SQLException If the sequence could not be read or altered
+     */
+    static void advance(Connection connection, String sequence, long id) throws SQLException {
+        if (id <= 0)
+            return;
+        // Hibernate uses a value taken from the sequence as the last id of a block of ALLOCATION_SIZE ids
+        try (PreparedStatement select = connection.prepareStatement("SELECT CURRENT_VALUE " +
+                "FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = ?")) {
+            select.setString(1, sequence.toUpperCase());
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next() || rs.getLong(1) >= id)
+                    return;
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER SEQUENCE " + sequence + " RESTART WITH " + (id + ALLOCATION_SIZE));
+        }
+    }
+
+    // region Helper methods
+
+    private static long highestId(Connection connection, String... tables) throws SQLException {
+        long highest = 0;
+        try (Statement statement = connection.createStatement()) {
+            for (String table : tables){
+                try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+                    rs.next();
+                    highest = Math.max(highest, rs.getLong(1));
+                }
+            }
+        }
+        return highest;
+    }
+    // endregion
+}
@@ -1,25 +1,63 @@
-import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.Formula;
 
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Data object representing a todo item
  */
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_item_active_deadline", columnList = "isActive, deadlineDate"),
+        @Index(name = "idx_item_list", columnList = "listName")
+})
 public class Item {
 
+    /**
+     * Drawn from a sequence shared by all processes using the database. Archived items keep their ids.
+     */
     @Id
-    @GeneratedValue(generator = "increment")
-    @GenericGenerator(name="increment", strategy="increment")
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "itemSequence")
+    @SequenceGenerator(name = "itemSequence", sequenceName = IdSequences.ITEM,
+            allocationSize = IdSequences.ALLOCATION_SIZE)
     public int id;
+    /**
+     * Read from the description dictionary, written by setting descriptionId
+     */
+    @Formula("(SELECT d.text FROM ItemDescription d WHERE d.id = descriptionId)")
     public String description;
+    /**
+     * Id of the description in the description dictionary, set by the controller before the item is written
+     */
+    public Integer descriptionId;
     public Priority priority;
     public LocalDate deadlineDate;
     public boolean isCompleted;
     public boolean isActive;
+    public String listName;
+    public LocalDateTime createdAt;
+    public LocalDateTime completedAt;
+    @ElementCollection
+    @CollectionTable(name = "ItemTag", joinColumns = @JoinColumn(name = "itemId"),
+            indexes = @Index(name = "idx_item_tag", columnList = "tag"))
+    @Column(name = "tag")
+    public Set<String> tags = new HashSet<>();
 
     /**
      * Constructor for creating todo items inside the program
@@ -32,10 +70,41 @@ public class Item {
         this.priority = priority;
         this.deadlineDate = deadlineDate;
         this.isActive = true;
+        this.createdAt = LocalDateTime.now();
     }
 
     /**
      * Empty constructor for Hibernate/JPA
      */
     public Item(){}
+
+    /**
+     * Copies the current state of the item, for example for change notifications.
+     * The tags are copied only if they are loaded, so copying does not read them from the database. A copy whose
+     * tags were not loaded has null tags, which means they were not changed.
+     * @return Unmanaged copy of the item with the same id and values
+     */
+    public Item copy(){
+        Item copy = new Item(description, priority, deadlineDate);
+        copy.id = id;
+        copy.descriptionId = descriptionId;
+        copy.isCompleted = isCompleted;
+        copy.isActive = isActive;
+        copy.listName = listName;
+        copy.createdAt = createdAt;
+        copy.completedAt = completedAt;
+        copy.tags = Hibernate.isInitialized(tags) ? new HashSet<>(tags) : null;
+        return copy;
+    }
+
+    @PostLoad
+    private void internDescription(){
+        description = DescriptionDictionary.intern(description);
+    }
+
+    @PrePersist
+    private void checkDescription(){
+        if (description != null && descriptionId == null)
+            throw new IllegalStateException("The description of item " + id + " is not in the description dictionary");
+    }
 }
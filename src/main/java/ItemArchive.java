@@ -0,0 +1,154 @@
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves expired items from the hot Item table to the cold ArchivedItem table.
+ *
+ * Items whose deadline is more than a given number of days past, and completed items whose deadline has passed, are
+ * archived. The hot table and its indexes then only hold the upcoming and recently expired items that the future
+ * listing, the histogram and the reminders read all the time. Archived items keep their ids: reads by id fall back to
+ * the cold table, and an archived item is moved back to the hot table when it is changed.
+ */
+public class ItemArchive {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final Duration ARCHIVE_INTERVAL = Duration.ofHours(1);
+    private static final String ITEM_COLUMNS = "id, descriptionId, priority, deadlineDate, isCompleted, isActive, " +
+            "listName, createdAt, completedAt";
+
+    private EntityManagerFactory entityManagerFactory;
+    private int archiveAfterDays;
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Constructor with entityManagerFactory injection
+     * @param entityManagerFactory Entity manager factory of the database
+     * @param archiveAfterDays Number of days after its deadline an uncompleted item is archived
+     */
+    public ItemArchive(EntityManagerFactory entityManagerFactory, int archiveAfterDays){
+        this.entityManagerFactory = entityManagerFactory;
+        this.archiveAfterDays = archiveAfterDays;
+    }
+
+    /**
+     * Starts archiving on a background thread right away and then once an hour
+     */
+    public synchronized void start() {
+        if (timer != null)
+            return;
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                archive();
+            } catch (RuntimeException e) {
+                // Retried on the next run
+            }
+        }, 0, ARCHIVE_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops archiving
+     */
+    public synchronized void stop() {
+        if (timer == null)
+            return;
+        timer.shutdownNow();
+        timer = null;
+    }
+
+    /**
+     * Moves the items that have become cold to the archive, one transaction per batch
+     * @return Number of items archived
+     */
+    public int archive() {
+        LocalDate today = LocalDate.now();
+        int archived = 0;
+        int batch;
+        do {
+            batch = UnitOfWork.run(entityManagerFactory, entityManager -> archiveBatch(entityManager, today));
+            archived += batch;
+        } while (batch == BATCH_SIZE);
+        return archived;
+    }
+
+    /**
+     * Moves an archived item back to the hot table in the transaction of the given entity manager
+     * @param entityManager Entity manager with an active transaction
+     * @param id Id of the item
+     * @return True if the item was archived and has been moved back
+     */
+    static boolean restore(EntityManager entityManager, int id) {
+        int restored = entityManager.createNativeQuery("INSERT INTO Item (" + ITEM_COLUMNS + ") SELECT " +
+                ITEM_COLUMNS + " FROM ArchivedItem WHERE id = ?1")
+                .setParameter(1, id)
+                .executeUpdate();
+        if (restored == 0)
+            return false;
+        entityManager.createNativeQuery("INSERT INTO ItemTag (itemId, tag) " +
+                "SELECT itemId, tag FROM ArchivedItemTag WHERE itemId = ?1")
+                .setParameter(1, id)
+                .executeUpdate();
+        entityManager.createNativeQuery("DELETE FROM ArchivedItemTag WHERE itemId = ?1")
+                .setParameter(1, id)
+                .executeUpdate();
+        entityManager.createNativeQuery("DELETE FROM ArchivedItem WHERE id = ?1")
+                .setParameter(1, id)
+                .executeUpdate();
+        return true;
+    }
+
+    // region Helper methods
+
+    /**
+     * Locks a batch of cold items and moves them with their tags, so a concurrent change of one of them either commits
+     * before the move or fails instead of being lost
+     */
+    private int archiveBatch(EntityManager entityManager, LocalDate today) {
+        List<Integer> ids = new ArrayList<>(BATCH_SIZE);
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement select = connection.prepareStatement("SELECT id FROM Item " +
+                    "WHERE deadlineDate < ? OR (isCompleted AND deadlineDate < ?) LIMIT " + BATCH_SIZE + " FOR UPDATE")) {
+                select.setDate(1, Date.valueOf(today.minusDays(archiveAfterDays)));
+                select.setDate(2, Date.valueOf(today));
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next())
+                        ids.add(rs.getInt(1));
+                }
+            }
+            if (ids.isEmpty())
+                return;
+            UnitOfWork.markChanged(entityManagerFactory);
+            StringBuilder idList = new StringBuilder();
+            for (int id : ids)
+                idList.append(idList.length() == 0 ? "" : ", ").append(id);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("INSERT INTO ArchivedItem (archiveMonth, " + ITEM_COLUMNS + ") " +
+                        "SELECT CASE WHEN deadlineDate IS NULL THEN 0 " +
+                        "ELSE YEAR(deadlineDate) * 100 + MONTH(deadlineDate) END, " + ITEM_COLUMNS +
+                        " FROM Item WHERE id IN (" + idList + ")");
+                statement.executeUpdate("INSERT INTO ArchivedItemTag (itemId, tag) " +
+                        "SELECT itemId, tag FROM ItemTag WHERE itemId IN (" + idList + ")");
+                statement.executeUpdate("DELETE FROM ItemTag WHERE itemId IN (" + idList + ")");
+                statement.executeUpdate("DELETE FROM Item WHERE id IN (" + idList + ")");
+            }
+        });
+        return ids.size();
+    }
+    // endregion
+}
@@ -1,14 +1,35 @@
+import org.hibernate.Hibernate;
+import org.roaringbitmap.RoaringBitmap;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Controller for handling persistence of items
  */
 public class ItemController {
 
+    private static final int BATCH_SIZE = 50;
+    private static final int FETCH_CHUNK_SIZE = 1000;
+    private static final int RESULT_CACHE_SIZE = 64;
+
     private EntityManagerFactory entityManagerFactory;
+    private List<ChangeListener<Item>> listeners = new CopyOnWriteArrayList<>();
+    private BitmapIndex bitmapIndex;
+    private ResultCache resultCache;
 
     /**
      * Constructor with dependency injection for JPA entityManagerFactory
@@ -16,6 +37,23 @@ public class ItemController {
      */
     public ItemController(EntityManagerFactory entityManagerFactory){
         this.entityManagerFactory = entityManagerFactory;
+        this.resultCache = new ResultCache(entityManagerFactory, RESULT_CACHE_SIZE);
+    }
+
+    /**
+     * Registers a listener notified after items are created, updated or deleted through this controller
+     * @param listener Listener to add
+     */
+    public void addListener(ChangeListener<Item> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener
+     * @param listener Listener to remove
+     */
+    public void removeListener(ChangeListener<Item> listener) {
+        listeners.remove(listener);
     }
 
     /**
@@ -26,12 +64,72 @@ public class ItemController {
      * @return True if item created successfully
      */
     public boolean createItem(String description, Priority priority, LocalDate deadlineDate) {
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        entityManager.persist(new Item(description, priority, deadlineDate));
-        entityManager.getTransaction().commit();
-        entityManager.close();
-        return true;
+        return createItem(null, description, priority, deadlineDate);
+    }
+
+    /**
+     * Creates a new todo item on a named to-do list in the database
+     * @param listName Name of the to-do list, null for the default list
+     * @param description Description of the item
+     * @param priority Priority of the item
+     * @param deadlineDate Deadline date of the item
+     * @return True if item created successfully
+     */
+    public boolean createItem(String listName, String description, Priority priority, LocalDate deadlineDate) {
+        Item item = new Item(description, priority, deadlineDate);
+        item.listName = listName;
+        return UnitOfWork.run(entityManagerFactory, "ItemController.createItem", 0, entityManager -> {
+            DescriptionDictionary.resolve(entityManager, List.of(item));
+            entityManager.persist(item);
+            ReportController.record(entityManager, null, item);
+            CacheCoherence.record(entityManager, CacheCoherence.ITEM, item.id, item.id);
+            notifyChanged(null, item.copy());
+            return true;
+        });
+    }
+
+    /**
+     * Creates a todo item for every given deadline date in a single transaction
+     * @param description Description of the items
+     * @param priority Priority of the items
+     * @param deadlineDates Deadline dates of the items, one item is created per date
+     * @return Range of ids of the created items, null if no dates were given
+     */
+    public IdRange createItems(String description, Priority priority, List<LocalDate> deadlineDates) {
+        List<Item> items = new ArrayList<>(deadlineDates.size());
+        for (LocalDate deadlineDate : deadlineDates)
+            items.add(new Item(description, priority, deadlineDate));
+        return UnitOfWork.run(entityManagerFactory, "ItemController.createItems", 0,
+                entityManager -> insertItems(entityManager, items));
+    }
+
+    /**
+     * Persists new items in the transaction of the given entity manager, flushing them as JDBC batches
+     * @param entityManager Entity manager with an active transaction
+     * @param items New items to persist
+     * @return Ids given to the items, null if the list was empty
+     */
+    IdRange insertItems(EntityManager entityManager, List<Item> items) {
+        if (items.isEmpty())
+            return null;
+        DescriptionDictionary.resolve(entityManager, items);
+        ReportController.Changes rollupChanges = new ReportController.Changes();
+        for (int i = 0; i < items.size(); i++){
+            entityManager.persist(items.get(i));
+            rollupChanges.add(null, items.get(i));
+            notifyChanged(null, items.get(i).copy());
+            if ((i + 1) % BATCH_SIZE == 0 || i == items.size() - 1){
+                // Detach the flushed batch so later flushes don't dirty check every item inserted so far
+                entityManager.flush();
+                for (int j = i - i % BATCH_SIZE; j <= i; j++)
+                    entityManager.detach(items.get(j));
+            }
+        }
+        rollupChanges.apply(entityManager);
+        int first = items.stream().mapToInt(item -> item.id).min().getAsInt();
+        int last = items.stream().mapToInt(item -> item.id).max().getAsInt();
+        CacheCoherence.record(entityManager, CacheCoherence.ITEM, first, last);
+        return new IdRange(first, last, items.size());
     }
 
     /**
@@ -40,11 +138,8 @@ public class ItemController {
      * @return Item if found, null if not found or deleted
      */
     public Item getItem(int id) {
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        Item item = entityManager.find(Item.class, id);
-        entityManager.getTransaction().commit();
-        entityManager.close();
+        Item item = UnitOfWork.run(entityManagerFactory, "ItemController.getItem", id,
+                entityManager -> findItem(entityManager, id));
         return (item != null && item.isActive) ? item : null;
     }
 
@@ -55,24 +150,197 @@ public class ItemController {
      * @return List of items matching criteria
      */
     public List<Item> getItems(boolean getExpiredItems) {
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        List<Item> items;
-        if (getExpiredItems){
-             items = entityManager.createQuery(
-                    "SELECT i FROM Item i WHERE isActive = 'true' AND deadlineDate < :now ORDER BY deadlineDate desc", Item.class)
-                    .setParameter("now", LocalDate.now())
-                    .getResultList();
-        } else {
-            items = entityManager.createQuery(
-                    "SELECT i FROM Item i WHERE isActive = 'true' AND deadlineDate >= :now ORDER BY deadlineDate", Item.class)
-                    .setParameter("now", LocalDate.now())
-                    .getResultList();
+        return getItems(getExpiredItems ? ItemQuery.pastItems() : ItemQuery.futureItems());
+    }
+
+    /**
+     * Gets all items matching a filter. Results are cached until the next write.
+     * @param query Filter whose criteria, ordering and limit are applied by the database, or by the bitmap index
+     *              if the filter has tag criteria
+     * @return Unmodifiable list of detached items matching the filter, which must not be changed
+     */
+    public List<Item> getItems(ItemQuery query) {
+        return resultCache.get("ItemController.getItems", query.cacheKey(), () -> UnitOfWork.run(
+                entityManagerFactory, "ItemController.getItems", 0, entityManager -> {
+            List<Item> items;
+            if (query.hasTagCriteria())
+                items = getItems(entityManager, query.selectIds(getBitmapIndex()), query);
+            else {
+                items = query.bind(entityManager.createQuery(query.toJpql(), Item.class)).getResultList();
+                if (query.mayMatchArchived())
+                    items = query.merge(items, query.selectArchived(entityManager));
+            }
+            // Cached items are shared, so later changes in the same unit of work must not reach them
+            for (Item item : items){
+                if (entityManager.contains(item))
+                    entityManager.detach(item);
+            }
+            return Collections.unmodifiableList(items);
+        }));
+    }
+
+    /**
+     * Gets the cache of the results of list and aggregate queries
+     * @return Result cache of this controller
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Gets the bitmap index of the items, loading it on first use. The index follows the changes made through this
+     * controller.
+     * @return Bitmap index of the items
+     */
+    public synchronized BitmapIndex getBitmapIndex() {
+        if (bitmapIndex == null){
+            BitmapIndex index = new BitmapIndex();
+            addListener(index);
+            index.load(entityManagerFactory);
+            bitmapIndex = index;
         }
-        entityManager.getTransaction().commit();
-        entityManager.close();
-        return items;
+        return bitmapIndex;
+    }
+
+    /**
+     * Drops the cached state of items changed by another process sharing the database
+     * @param ids Ids of the changed items, null if any item may have changed
+     */
+    public void invalidate(RoaringBitmap ids) {
+        BitmapIndex index;
+        synchronized (this) {
+            index = bitmapIndex;
+            if (index != null && ids == null){
+                removeListener(index);
+                bitmapIndex = null;
+                return;
+            }
+        }
+        if (index != null)
+            index.reload(entityManagerFactory, ids);
+    }
+
+    /**
+     * Gets the tags of an item
+     * @param id Id of the item
+     * @return Tags of the item, null if the item was not found or was deleted
+     */
+    public Set<String> getTags(int id) {
+        return UnitOfWork.run(entityManagerFactory, "ItemController.getTags", id, entityManager -> {
+            Item item = findItem(entityManager, id);
+            return (item != null && item.isActive) ? new TreeSet<>(item.tags) : null;
+        });
+    }
+
+    /**
+     * Replaces the tags of an item
+     * @param id Id of the item
+     * @param tags New tags of the item. Blank tags are ignored and the others are trimmed.
+     * @return True if the tags were set. False if the item was not found or it was deleted.
+     */
+    public boolean setTags(int id, Collection<String> tags) {
+        return UnitOfWork.run(entityManagerFactory, "ItemController.setTags", id, entityManager -> {
+            Item item = findHotItem(entityManager, id);
+            boolean existsAndIsActive = (item != null && item.isActive);
+            if (existsAndIsActive){
+                // Loaded first so the copy has the old tags
+                Hibernate.initialize(item.tags);
+                Item before = item.copy();
+                item.tags.clear();
+                for (String tag : tags){
+                    if (!tag.trim().isEmpty())
+                        item.tags.add(tag.trim());
+                }
+                CacheCoherence.record(entityManager, CacheCoherence.ITEM, id, id);
+                notifyChanged(before, item.copy());
+            }
+            return existsAndIsActive;
+        });
+    }
+
+    /**
+     * Gets the note of an item. This is the only place note bodies are read.
+     * @param id Id of the item
+     * @return Text of the note, null if the item has no note or it was not found or was deleted
+     */
+    public String getNote(int id) {
+        return UnitOfWork.run(entityManagerFactory, "ItemController.getNote", id, entityManager -> {
+            Item item = findItem(entityManager, id);
+            if (item == null || !item.isActive)
+                return null;
+            ItemNote note = entityManager.find(ItemNote.class, id);
+            return note == null ? null : note.body;
+        });
+    }
+
+    /**
+     * Replaces the note of an item
+     * @param id Id of the item
+     * @param body New text of the note, null or blank to remove the note
+     * @return True if the note was set. False if the item was not found or it was deleted.
+     */
+    public boolean setNote(int id, String body) {
+        return UnitOfWork.run(entityManagerFactory, "ItemController.setNote", id, entityManager -> {
+            Item item = findItem(entityManager, id);
+            boolean existsAndIsActive = (item != null && item.isActive);
+            if (existsAndIsActive){
+                ItemNote note = entityManager.find(ItemNote.class, id);
+                if (body == null || body.trim().isEmpty()){
+                    if (note != null)
+                        entityManager.remove(note);
+                } else if (note == null)
+                    entityManager.persist(new ItemNote(id, body));
+                else {
+                    note.body = body;
+                    note.updatedAt = LocalDateTime.now();
+                }
+                CacheCoherence.record(entityManager, CacheCoherence.ITEM, id, id);
+            }
+            return existsAndIsActive;
+        });
+    }
+
+    /**
+     * Counts upcoming items per day and priority. Results are cached until the next write.
+     * @return Counts indexed by days from today and priority ordinal. Eight buckets: 0,1,2,3,4,5,6,7+ days from now.
+     *         The arrays must not be changed.
+     */
+    public int[][] getHistogram() {
+        return resultCache.get("ItemController.getHistogram", null, () -> {
+            LocalDate today = LocalDate.now();
+            List<Object[]> rows = UnitOfWork.run(entityManagerFactory, "ItemController.getHistogram", 0,
+                    entityManager -> entityManager.createQuery(
+                    "SELECT i.deadlineDate, i.priority, COUNT(i) FROM Item i WHERE isActive = 'true' AND deadlineDate >= :now " +
+                            "GROUP BY i.deadlineDate, i.priority", Object[].class)
+                    .setParameter("now", today)
+                    .getResultList());
+            int[][] histogram = new int[8][Priority.values().length];
+            for (Object[] row : rows){
+                int bucket = (int) Math.min(7, today.until((LocalDate) row[0], ChronoUnit.DAYS));
+                histogram[bucket][((Priority) row[1]).ordinal()] += ((Long) row[2]).intValue();
+            }
+            return histogram;
+        });
+    }
 
+    /**
+     * Counts active, uncompleted items per deadline date. Results are cached until the next write.
+     * @param from First deadline date to count, not before today because archived items are not counted
+     * @return Unmodifiable number of items per deadline date, in date order
+     */
+    public Map<LocalDate, Integer> countDeadlines(LocalDate from) {
+        return resultCache.get("ItemController.countDeadlines", from, () -> {
+            List<Object[]> rows = UnitOfWork.run(entityManagerFactory, "ItemController.countDeadlines", 0,
+                    entityManager -> entityManager.createQuery(
+                    "SELECT i.deadlineDate, COUNT(i) FROM Item i WHERE isActive = 'true' AND isCompleted = 'false' " +
+                            "AND deadlineDate >= :from GROUP BY i.deadlineDate ORDER BY i.deadlineDate", Object[].class)
+                    .setParameter("from", from)
+                    .getResultList());
+            Map<LocalDate, Integer> counts = new LinkedHashMap<>();
+            for (Object[] row : rows)
+                counts.put((LocalDate) row[0], ((Long) row[1]).intValue());
+            return Collections.unmodifiableMap(counts);
+        });
     }
 
     /**
@@ -85,19 +353,22 @@ public class ItemController {
      * @return True if the item was updated. False if the item was not found or it was deleted.
      */
     public boolean updateItem(int id, String description, Priority priority, LocalDate deadlineDate, boolean isCompleted){
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        Item item = entityManager.find(Item.class, id);
-        boolean existsAndIsActive = (item != null && item.isActive);
-        if (existsAndIsActive){
-            item.description = description;
-            item.priority = priority;
-            item.deadlineDate = deadlineDate;
-            item.isCompleted = isCompleted;
-        }
-        entityManager.getTransaction().commit();
-        entityManager.close();
-        return existsAndIsActive;
+        return UnitOfWork.run(entityManagerFactory, "ItemController.updateItem", id, entityManager -> {
+            Item item = findHotItem(entityManager, id);
+            boolean existsAndIsActive = (item != null && item.isActive);
+            if (existsAndIsActive){
+                Item before = item.copy();
+                item.description = description;
+                DescriptionDictionary.resolve(entityManager, List.of(item));
+                item.priority = priority;
+                item.deadlineDate = deadlineDate;
+                setCompleted(item, isCompleted);
+                ReportController.record(entityManager, before, item);
+                CacheCoherence.record(entityManager, CacheCoherence.ITEM, id, id);
+                notifyChanged(before, item.copy());
+            }
+            return existsAndIsActive;
+        });
     }
 
     /**
@@ -106,16 +377,18 @@ public class ItemController {
      * @return True if the status was toggled. False if the item was not found or was deleted.
      */
     public boolean toggleCompleted(int id){
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        Item item = entityManager.find(Item.class, id);
-        boolean existsAndIsActive = (item != null && item.isActive);
-        if (existsAndIsActive){
-            item.isCompleted = !item.isCompleted;
-        }
-        entityManager.getTransaction().commit();
-        entityManager.close();
-        return existsAndIsActive;
+        return UnitOfWork.run(entityManagerFactory, "ItemController.toggleCompleted", id, entityManager -> {
+            Item item = findHotItem(entityManager, id);
+            boolean existsAndIsActive = (item != null && item.isActive);
+            if (existsAndIsActive){
+                Item before = item.copy();
+                setCompleted(item, !item.isCompleted);
+                ReportController.record(entityManager, before, item);
+                CacheCoherence.record(entityManager, CacheCoherence.ITEM, id, id);
+                notifyChanged(before, item.copy());
+            }
+            return existsAndIsActive;
+        });
     }
 
     /**
@@ -124,16 +397,109 @@ public class ItemController {
      * @return True if the item was deleted. False if the item was not found or it was already deleted.
      */
     public boolean deleteItem(int id){
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
+        return UnitOfWork.run(entityManagerFactory, "ItemController.deleteItem", id, entityManager -> {
+            Item item = findHotItem(entityManager, id);
+            boolean existsAndIsActive = (item != null && item.isActive);
+            if (existsAndIsActive){
+                Item before = item.copy();
+                item.isActive = false;
+                ReportController.record(entityManager, before, item);
+                CacheCoherence.record(entityManager, CacheCoherence.ITEM, id, id);
+                notifyChanged(before, item.copy());
+            }
+            return existsAndIsActive;
+        });
+    }
+
+    /**
+     * Fetches items by id in chunks from the hot table and then the archive, keeping only those that still match the
+     * filter, until the limit of the filter is reached
+     * @param entityManager Entity manager with an active transaction
+     * @param ids Ids selected by the bitmap index, in result order
+     * @param query Filter the ids were selected with
+     * @return Items in the order of the ids, at most limit items
+     */
+    static List<Item> getItems(EntityManager entityManager, int[] ids, ItemQuery query) {
+        int limit = query.getLimit();
+        List<Item> items = new ArrayList<>(limit > 0 ? Math.min(limit, ids.length) : ids.length);
+        for (int start = 0; start < ids.length && (limit == 0 || items.size() < limit); start += FETCH_CHUNK_SIZE){
+            List<Integer> chunk = new ArrayList<>(FETCH_CHUNK_SIZE);
+            for (int i = start; i < Math.min(ids.length, start + FETCH_CHUNK_SIZE); i++)
+                chunk.add(ids[i]);
+            Map<Integer, Item> itemsById = new HashMap<>(chunk.size() * 2);
+            for (Item item : entityManager.createQuery("SELECT i FROM Item i WHERE i.id IN :ids", Item.class)
+                    .setParameter("ids", chunk)
+                    .getResultList())
+                itemsById.put(item.id, item);
+            List<Integer> archivedIds = new ArrayList<>();
+            for (int id : chunk){
+                if (!itemsById.containsKey(id))
+                    archivedIds.add(id);
+            }
+            if (!archivedIds.isEmpty()){
+                for (ArchivedItem archived : entityManager.createQuery(
+                        "SELECT a FROM ArchivedItem a WHERE a.id IN :ids", ArchivedItem.class)
+                        .setParameter("ids", archivedIds)
+                        .getResultList())
+                    itemsById.put(archived.id, archived.toItem());
+            }
+            for (int id : chunk){
+                Item item = itemsById.get(id);
+                // The index is updated after commit, so a row may already have changed
+                if (item != null && query.matches(item) && (limit == 0 || items.size() < limit))
+                    items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Sets the completion status of an item, recording when it was completed
+     * @param item Item to change
+     * @param isCompleted New completion status of the item
+     */
+    private static void setCompleted(Item item, boolean isCompleted) {
+        if (isCompleted != item.isCompleted)
+            item.completedAt = isCompleted ? LocalDateTime.now() : null;
+        item.isCompleted = isCompleted;
+    }
+
+    /**
+     * Finds an item for reading, also from the archive
+     * @return Managed item, unmanaged copy of an archived item, or null if not found
+     */
+    private static Item findItem(EntityManager entityManager, int id) {
         Item item = entityManager.find(Item.class, id);
-        boolean existsAndIsActive = (item != null && item.isActive);
-        if (existsAndIsActive){
-            item.isActive = false;
+        if (item == null){
+            ArchivedItem archived = entityManager.find(ArchivedItem.class, id);
+            if (archived != null)
+                item = archived.toItem();
         }
-        entityManager.getTransaction().commit();
-        entityManager.close();
-        return existsAndIsActive;
+        return item;
+    }
+
+    /**
+     * Finds an item for changing it, moving it back from the archive if needed
+     * @return Managed item, or null if not found
+     */
+    private static Item findHotItem(EntityManager entityManager, int id) {
+        Item item = entityManager.find(Item.class, id);
+        if (item == null && ItemArchive.restore(entityManager, id))
+            item = entityManager.find(Item.class, id);
+        return item;
     }
 
+    /**
+     * Notifies the listeners of a change once the unit of work it was made in commits
+     * @param before State before the change, null for new items
+     * @param after State after the change
+     */
+    private void notifyChanged(Item before, Item after) {
+        if (listeners.isEmpty())
+            return;
+        UnitOfWork.afterCommit(entityManagerFactory, () -> {
+            for (ChangeListener<Item> listener : listeners)
+                listener.changed(before, after);
+        });
+    }
 }
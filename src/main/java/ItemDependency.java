@@ -0,0 +1,47 @@
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Data object holding one dependency between two items: the blocked item cannot be started before the blocker is
+ * completed
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_dependency_blocked", columnList = "blockedId"))
+public class ItemDependency {
+
+    /**
+     * Blocker id in the high and blocked id in the low 32 bits
+     */
+    @Id
+    public long id;
+    public int blockerId;
+    public int blockedId;
+
+    /**
+     * Constructor for a new dependency
+     * @param blockerId Id of the item that has to be completed first
+     * @param blockedId Id of the item that waits for the blocker
+     */
+    public ItemDependency(int blockerId, int blockedId){
+        this.id = idOf(blockerId, blockedId);
+        this.blockerId = blockerId;
+        this.blockedId = blockedId;
+    }
+
+    /**
+     * Empty constructor for Hibernate/JPA
+     */
+    public ItemDependency(){}
+
+    /**
+     * Gets the id of the dependency between two items
+     * @param blockerId Id of the item that has to be completed first
+     * @param blockedId Id of the item that waits for the blocker
+     * @return Id of the dependency
+     */
+    public static long idOf(int blockerId, int blockedId){
+        return ((long) blockerId << 32) | (blockedId & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,35 @@
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+/**
+ * Data object holding one distinct item description.
+ *
+ * Descriptions repeat heavily, since every item created from a template copies its description, so items reference
+ * a row of this table by descriptionId instead of storing the text. Rows are only ever added, by the description
+ * dictionary.
+ */
+@Entity
+public class ItemDescription {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    public int id;
+    @Column(unique = true, nullable = false)
+    public String text;
+
+    /**
+     * Constructor for a new description
+     * @param text Text of the description
+     */
+    public ItemDescription(String text){
+        this.text = text;
+    }
+
+    /**
+     * Empty constructor for Hibernate/JPA
+     */
+    public ItemDescription(){}
+}
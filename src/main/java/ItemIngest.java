@@ -0,0 +1,196 @@
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group-commit front end for creating items from many threads at once.
+ *
+ * Producers put new items into a bounded queue and get a future back. A single writer thread takes the items that
+ * are waiting, up to a group size, and inserts them in one transaction, so concurrent producers share the cost of a
+ * commit instead of each paying for their own. After taking the first item the writer waits at most the linger time
+ * for more to arrive, so a lone producer is not delayed much. When the queue is full, producers wait for the writer.
+ * If a group fails, its items are retried one per transaction so that one bad item only fails its own future.
+ */
+public class ItemIngest {
+
+    private static final long POLL_MILLIS = 100;
+
+    private EntityManagerFactory entityManagerFactory;
+    private ItemController itemController;
+    private int groupSize;
+    private long lingerNanos;
+    private BlockingQueue<Submission> queue;
+    private Thread writer;
+    private volatile boolean running = true;
+    /**
+     * Set once the writer has stopped, after which only close and the producers take items from the queue
+     */
+    private volatile boolean closed;
+    private AtomicLong groups = new AtomicLong();
+
+    /**
+     * Constructor starting the writer thread
+     * @param entityManagerFactory Entity manager factory of the database
+     * @param itemController Controller whose listeners are notified of the created items
+     * @param capacity Maximum number of items waiting to be written
+     * @param groupSize Maximum number of items inserted in one transaction
+     * @param lingerMillis Maximum time to wait for more items after the first item of a group
+     */
+    public ItemIngest(EntityManagerFactory entityManagerFactory, ItemController itemController, int capacity,
+                      int groupSize, long lingerMillis){
+        this.entityManagerFactory = entityManagerFactory;
+        this.itemController = itemController;
+        this.groupSize = groupSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::writeGroups, "item-ingest");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a new item, waiting while the queue is full and the ingest is open
+     * @param listName Name of the to-do list, null for the default list
+     * @param description Description of the item
+     * @param priority Priority of the item
+     * @param deadlineDate Deadline date of the item
+     * @return Future completed with the id of the item once its group is committed, or with the exception that
+     *         prevented creating it
+     */
+    public CompletableFuture<Integer> submit(String listName, String description, Priority priority,
+                                             LocalDate deadlineDate) {
+        Submission submission = new Submission(listName, description, priority, deadlineDate);
+        boolean queued = false;
+        try {
+            // Waits in steps, so a producer stops waiting for a full queue once the ingest is closed
+            while (!queued && running)
+                queued = queue.offer(submission, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            submission.result.completeExceptionally(e);
+            return submission.result;
+        }
+        // An item queued after close drained the queue would never be taken. Removing it is atomic with draining,
+        // so exactly one of this producer and close completes its future.
+        if (!queued || (closed && queue.remove(submission)))
+            submission.result.completeExceptionally(new IllegalStateException("Item ingest is closed"));
+        return submission.result;
+    }
+
+    /**
+     * Gets the number of transactions committed so far
+     * @return Number of groups written, including retries of single items
+     */
+    public long groupCount() {
+        return groups.get();
+    }
+
+    /**
+     * Writes the remaining items and stops the writer thread
+     * @throws InterruptedException If interrupted while waiting for the writer
+     */
+    public void close() throws InterruptedException {
+        running = false;
+        writer.join();
+        closed = true;
+        // Items queued by producers that raced with closing
+        List<Submission> leftover = new ArrayList<>();
+        queue.drainTo(leftover);
+        for (Submission submission : leftover)
+            submission.result.completeExceptionally(new IllegalStateException("Item ingest is closed"));
+    }
+
+    // region Helper methods
+
+    /**
+     * Loop of the writer thread. Collects a group of waiting items and inserts them in one transaction.
+     */
+    private void writeGroups() {
+        List<Submission> group = new ArrayList<>(groupSize);
+        while (running || !queue.isEmpty()){
+            try {
+                Submission first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                group.add(first);
+                queue.drainTo(group, groupSize - group.size());
+                long deadline = System.nanoTime() + lingerNanos;
+                while (group.size() < groupSize && running){
+                    long remaining = deadline - System.nanoTime();
+                    Submission next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null)
+                        break;
+                    group.add(next);
+                    queue.drainTo(group, groupSize - group.size());
+                }
+            } catch (InterruptedException e) {
+                running = false;
+                if (group.isEmpty())
+                    continue;
+            }
+            try {
+                write(group);
+            } catch (RuntimeException e) {
+                if (group.size() == 1)
+                    group.get(0).result.completeExceptionally(e);
+                else {
+                    for (Submission submission : group){
+                        try {
+                            write(List.of(submission));
+                        } catch (RuntimeException itemException) {
+                            submission.result.completeExceptionally(itemException);
+                        }
+                    }
+                }
+            }
+            group.clear();
+        }
+    }
+
+    /**
+     * Inserts a group in one transaction and completes the futures of its items after the commit
+     */
+    private void write(List<Submission> group) {
+        List<Item> items = new ArrayList<>(group.size());
+        for (Submission submission : group)
+            items.add(submission.toItem());
+        UnitOfWork.run(entityManagerFactory, "ItemIngest.write", 0,
+                entityManager -> itemController.insertItems(entityManager, items));
+        groups.incrementAndGet();
+        for (int i = 0; i < group.size(); i++)
+            group.get(i).result.complete(items.get(i).id);
+    }
+
+    /**
+     * Item waiting in the queue. A new entity is made for every attempt, since a rolled back insert leaves its id
+     * on the entity.
+     */
+    private static class Submission {
+
+        private String listName;
+        private String description;
+        private Priority priority;
+        private LocalDate deadlineDate;
+        private CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        Submission(String listName, String description, Priority priority, LocalDate deadlineDate){
+            this.listName = listName;
+            this.description = description;
+            this.priority = priority;
+            this.deadlineDate = deadlineDate;
+        }
+
+        Item toItem() {
+            Item item = new Item(description, priority, deadlineDate);
+            item.listName = listName;
+            return item;
+        }
+    }
+    // endregion
+}
@@ -0,0 +1,40 @@
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import java.time.LocalDateTime;
+
+/**
+ * Data object holding the free-text note of an item.
+ *
+ * Notes can be megabytes long, so they are kept in their own table with the body as a CLOB instead of as a column of
+ * Item. Nothing maps the note from the item, so item queries never read or allocate note bodies; a note is only loaded
+ * when it is explicitly asked for by item id.
+ */
+@Entity
+public class ItemNote {
+
+    /**
+     * Id of the item the note belongs to
+     */
+    @Id
+    public int itemId;
+    @Lob
+    public String body;
+    public LocalDateTime updatedAt;
+
+    /**
+     * Constructor for a new note
+     * @param itemId Id of the item the note belongs to
+     * @param body Text of the note
+     */
+    public ItemNote(int itemId, String body){
+        this.itemId = itemId;
+        this.body = body;
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    /**
+     * Empty constructor for Hibernate/JPA
+     */
+    public ItemNote(){}
+}
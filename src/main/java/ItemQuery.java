@@ -0,0 +1,430 @@
+import org.roaringbitmap.RoaringBitmap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Filter for fetching items. Every criterion is applied by the database: the filter compiles to a parameterized
+ * JPQL query whose text depends only on which criteria are set, so Hibernate's query plan cache reuses the parsed
+ * query for every filter of the same shape.
+ * Filters on tags or excluded ids are instead evaluated on the bitmap index of the item controller, which selects
+ * the ids of the matching items before any row is fetched.
+ * Filters that can match items whose deadline has passed are also run on the cold table of archived items, and the
+ * two results are merged in the order of the filter.
+ */
+public class ItemQuery {
+
+    /**
+     * Fields items can be sorted by
+     */
+    public enum SortKey {
+        DEADLINE("deadlineDate"), PRIORITY("priority"), ID("id");
+
+        private final String field;
+
+        SortKey(String field){
+            this.field = field;
+        }
+    }
+
+    private LocalDate deadlineFrom;
+    private LocalDate deadlineBefore;
+    private Set<Priority> priorities;
+    private Boolean completed;
+    private Boolean active = true;
+    private String listName;
+    private Set<String> allTags = new LinkedHashSet<>();
+    private Set<String> anyTags = new LinkedHashSet<>();
+    private Set<String> withoutTags = new LinkedHashSet<>();
+    private RoaringBitmap withoutIds;
+    private List<SortKey> sortKeys = new ArrayList<>();
+    private List<Boolean> descending = new ArrayList<>();
+    private int limit;
+
+    /**
+     * Creates a filter matching all active items sorted by id
+     * @return New filter
+     */
+    public static ItemQuery items(){
+        return new ItemQuery();
+    }
+
+    /**
+     * Creates a filter matching active items whose deadlines are today or later, nearest deadline first
+     * @return New filter
+     */
+    public static ItemQuery futureItems(){
+        return items()
+                .deadlineFrom(LocalDate.now())
+                .orderBy(SortKey.DEADLINE, false);
+    }
+
+    /**
+     * Creates a filter matching active items whose deadlines are in the past, most recent deadline first
+     * @return New filter
+     */
+    public static ItemQuery pastItems(){
+        return items()
+                .deadlineBefore(LocalDate.now())
+                .orderBy(SortKey.DEADLINE, true);
+    }
+
+    /**
+     * Limits the items to those whose deadline is on or after the given date
+     * @param date First included deadline date
+     * @return This filter
+     */
+    public ItemQuery deadlineFrom(LocalDate date){
+        this.deadlineFrom = date;
+        return this;
+    }
+
+    /**
+     * Limits the items to those whose deadline is before the given date
+     * @param date First excluded deadline date
+     * @return This filter
+     */
+    public ItemQuery deadlineBefore(LocalDate date){
+        this.deadlineBefore = date;
+        return this;
+    }
+
+    /**
+     * Limits the items to the given priorities
+     * @param priorities Included priorities
+     * @return This filter
+     */
+    public ItemQuery priorities(Priority... priorities){
+        this.priorities = priorities.length == 0 ? null : EnumSet.of(priorities[0], priorities);
+        return this;
+    }
+
+    /**
+     * Limits the items by completion status
+     * @param completed True for completed items only, false for incomplete items only, null for both
+     * @return This filter
+     */
+    public ItemQuery completed(Boolean completed){
+        this.completed = completed;
+        return this;
+    }
+
+    /**
+     * Limits the items by deletion status. By default only active items are fetched.
+     * @param active True for active items only, false for deleted items only, null for both
+     * @return This filter
+     */
+    public ItemQuery active(Boolean active){
+        this.active = active;
+        return this;
+    }
+
+    /**
+     * Limits the items to one to-do list
+     * @param listName Name of the list
+     * @return This filter
+     */
+    public ItemQuery list(String listName){
+        this.listName = listName;
+        return this;
+    }
+
+    /**
+     * Limits the items to those having every given tag
+     * @param tags Required tags
+     * @return This filter
+     */
+    public ItemQuery allTags(String... tags){
+        allTags.addAll(Arrays.asList(tags));
+        return this;
+    }
+
+    /**
+     * Limits the items to those having at least one of the given tags
+     * @param tags Tags of which one is required
+     * @return This filter
+     */
+    public ItemQuery anyTags(String... tags){
+        anyTags.addAll(Arrays.asList(tags));
+        return this;
+    }
+
+    /**
+     * Limits the items to those having none of the given tags
+     * @param tags Excluded tags
+     * @return This filter
+     */
+    public ItemQuery withoutTags(String... tags){
+        withoutTags.addAll(Arrays.asList(tags));
+        return this;
+    }
+
+    /**
+     * Excludes items by id. Like tags, the excluded ids are applied on the bitmap index.
+     * @param ids Ids of the items to exclude, for example the blocked items of the dependency graph
+     * @return This filter
+     */
+    public ItemQuery withoutIds(RoaringBitmap ids){
+        withoutIds = withoutIds == null ? ids.clone() : RoaringBitmap.or(withoutIds, ids);
+        return this;
+    }
+
+    /**
+     * Adds a sort key. Keys are applied in the order they were added and ties are broken by id.
+     * @param key Field to sort by
+     * @param descending True to sort in descending order
+     * @return This filter
+     */
+    public ItemQuery orderBy(SortKey key, boolean descending){
+        this.sortKeys.add(key);
+        this.descending.add(descending);
+        return this;
+    }
+
+    /**
+     * Limits the number of items fetched
+     * @param limit Maximum number of items, 0 for no limit
+     * @return This filter
+     */
+    public ItemQuery limit(int limit){
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Gets the maximum number of items fetched
+     * @return Maximum number of items, 0 for no limit
+     */
+    int getLimit(){
+        return limit;
+    }
+
+    /**
+     * Builds the JPQL text of the filter. Values are never inlined, so the text only depends on the filter's shape.
+     * @return JPQL query selecting the matching items
+     */
+    String toJpql(){
+        return toJpql("Item", "");
+    }
+
+    /**
+     * Builds the JPQL text of the filter for an entity with the fields of Item
+     * @param entityName Name of the entity to select
+     * @param condition Additional condition starting with AND, or an empty string
+     * @return JPQL query selecting the matching entities
+     */
+    private String toJpql(String entityName, String condition){
+        StringBuilder jpql = new StringBuilder("SELECT i FROM ").append(entityName).append(" i WHERE 1 = 1")
+                .append(condition);
+        if (active != null)
+            jpql.append(" AND i.isActive = :active");
+        if (deadlineFrom != null)
+            jpql.append(" AND i.deadlineDate >= :deadlineFrom");
+        if (deadlineBefore != null)
+            jpql.append(" AND i.deadlineDate < :deadlineBefore");
+        if (priorities != null)
+            jpql.append(" AND i.priority IN :priorities");
+        if (completed != null)
+            jpql.append(" AND i.isCompleted = :completed");
+        if (listName != null)
+            jpql.append(" AND i.listName = :listName");
+        jpql.append(" ORDER BY ");
+        for (int i = 0; i < sortKeys.size(); i++)
+            jpql.append("i.").append(sortKeys.get(i).field).append(descending.get(i) ? " DESC" : "").append(", ");
+        jpql.append("i.id");
+        return jpql.toString();
+    }
+
+    /**
+     * Binds the parameters and limit of this filter to a query
+     * @param query Query created from the text returned by toJpql
+     * @param <T> Type of the selected entity
+     * @return The same query
+     */
+    <T> TypedQuery<T> bind(TypedQuery<T> query){
+        if (active != null)
+            query.setParameter("active", active);
+        if (deadlineFrom != null)
+            query.setParameter("deadlineFrom", deadlineFrom);
+        if (deadlineBefore != null)
+            query.setParameter("deadlineBefore", deadlineBefore);
+        if (priorities != null)
+            query.setParameter("priorities", priorities);
+        if (completed != null)
+            query.setParameter("completed", completed);
+        if (listName != null)
+            query.setParameter("listName", listName);
+        if (limit > 0)
+            query.setMaxResults(limit);
+        return query;
+    }
+
+    /**
+     * Checks whether the filter can match archived items. Only items whose deadline has passed are archived.
+     * @return True if the filter has no deadline lower bound from today on
+     */
+    boolean mayMatchArchived(){
+        return deadlineFrom == null || deadlineFrom.isBefore(LocalDate.now());
+    }
+
+    /**
+     * Runs the filter on the cold table of archived items. When the filter is ordered by deadline and limited,
+     * the monthly partitions are read one at a time in the order of the filter until the limit is reached.
+     * @param entityManager Entity manager with an active transaction
+     * @return Matching archived items in the order of the filter, at most limit items
+     */
+    List<Item> selectArchived(EntityManager entityManager){
+        List<Item> items = new ArrayList<>();
+        if (limit == 0 || sortKeys.isEmpty() || sortKeys.get(0) != SortKey.DEADLINE){
+            for (ArchivedItem archived : bind(entityManager.createQuery(toJpql("ArchivedItem", ""),
+                    ArchivedItem.class)).getResultList())
+                items.add(archived.toItem());
+            return items;
+        }
+        List<Integer> months = entityManager.createQuery("SELECT DISTINCT a.archiveMonth FROM ArchivedItem a " +
+                "WHERE a.archiveMonth >= :first AND a.archiveMonth <= :last ORDER BY a.archiveMonth" +
+                (descending.get(0) ? " DESC" : ""), Integer.class)
+                .setParameter("first", ArchivedItem.monthOf(deadlineFrom))
+                .setParameter("last", deadlineBefore == null ? Integer.MAX_VALUE : ArchivedItem.monthOf(deadlineBefore))
+                .getResultList();
+        for (int month : months){
+            for (ArchivedItem archived : bind(entityManager.createQuery(
+                    toJpql("ArchivedItem", " AND i.archiveMonth = :archiveMonth"), ArchivedItem.class))
+                    .setParameter("archiveMonth", month)
+                    .setMaxResults(limit - items.size())
+                    .getResultList())
+                items.add(archived.toItem());
+            if (items.size() == limit)
+                break;
+        }
+        return items;
+    }
+
+    /**
+     * Merges two results of this filter, for example from the hot and the cold table
+     * @param first Items in the order of the filter
+     * @param second Other items in the order of the filter
+     * @return Items of both in the order of the filter, at most limit items
+     */
+    List<Item> merge(List<Item> first, List<Item> second){
+        if (second.isEmpty())
+            return first;
+        Comparator<Item> comparator = comparator();
+        int size = limit > 0 ? Math.min(limit, first.size() + second.size()) : first.size() + second.size();
+        List<Item> items = new ArrayList<>(size);
+        int i = 0;
+        int j = 0;
+        while (items.size() < size){
+            if (j == second.size() || (i < first.size() && comparator.compare(first.get(i), second.get(j)) <= 0))
+                items.add(first.get(i++));
+            else
+                items.add(second.get(j++));
+        }
+        return items;
+    }
+
+    /**
+     * Gets the shape and parameters of the filter as a value, for keying cached results
+     * @return List of every criterion, the ordering and the limit, equal for equal filters
+     */
+    List<Object> cacheKey(){
+        return Arrays.asList(deadlineFrom, deadlineBefore, priorities, completed, active, listName,
+                new LinkedHashSet<>(allTags), new LinkedHashSet<>(anyTags), new LinkedHashSet<>(withoutTags),
+                withoutIds == null ? null : withoutIds.clone(), new ArrayList<>(sortKeys), new ArrayList<>(descending),
+                limit);
+    }
+
+    /**
+     * Checks whether the filter has tag criteria and must be evaluated on the bitmap index
+     * @return True if any tag criterion or excluded id is set
+     */
+    boolean hasTagCriteria(){
+        return !allTags.isEmpty() || !anyTags.isEmpty() || !withoutTags.isEmpty() || withoutIds != null;
+    }
+
+    /**
+     * Evaluates the filter on a bitmap index with bitmap AND, OR and ANDNOT operations. The limit is not applied,
+     * since the index may be behind the rows and the fetched items are checked again with matches.
+     * @param index Index of the items
+     * @return Ids of all matching items in the order of the filter
+     */
+    int[] selectIds(BitmapIndex index){
+        synchronized (index) {
+            RoaringBitmap ids = null;
+            for (String tag : allTags)
+                ids = and(ids, index.tag(tag));
+            if (!anyTags.isEmpty()){
+                RoaringBitmap any = new RoaringBitmap();
+                for (String tag : anyTags)
+                    any.or(index.tag(tag));
+                ids = and(ids, any);
+            }
+            if (ids == null)
+                ids = index.all().clone();
+            for (String tag : withoutTags)
+                ids.andNot(index.tag(tag));
+            if (withoutIds != null)
+                ids.andNot(withoutIds);
+            if (active != null)
+                ids = active ? RoaringBitmap.and(ids, index.active()) : RoaringBitmap.andNot(ids, index.active());
+            if (completed != null)
+                ids = completed ? RoaringBitmap.and(ids, index.completed()) : RoaringBitmap.andNot(ids, index.completed());
+            if (priorities != null){
+                RoaringBitmap any = new RoaringBitmap();
+                for (Priority priority : priorities)
+                    any.or(index.priority(priority));
+                ids.and(any);
+            }
+            if (deadlineFrom != null || deadlineBefore != null)
+                ids.and(index.deadlines(deadlineFrom, deadlineBefore));
+            if (listName != null)
+                ids.and(index.list(listName));
+            return index.orderedIds(ids, sortKeys, descending, 0);
+        }
+    }
+
+    /**
+     * Checks the criteria other than tags against the current state of an item
+     * @param item Item to check
+     * @return True if the item matches
+     */
+    boolean matches(Item item){
+        return (active == null || item.isActive == active) &&
+                (completed == null || item.isCompleted == completed) &&
+                (priorities == null || priorities.contains(item.priority)) &&
+                (deadlineFrom == null || (item.deadlineDate != null && !item.deadlineDate.isBefore(deadlineFrom))) &&
+                (deadlineBefore == null || (item.deadlineDate != null && item.deadlineDate.isBefore(deadlineBefore))) &&
+                (listName == null || Objects.equals(listName, item.listName));
+    }
+
+    /**
+     * Compares items like the ORDER BY of toJpql, with null values first in ascending order
+     */
+    private Comparator<Item> comparator(){
+        Comparator<Item> comparator = (a, b) -> 0;
+        for (int i = 0; i < sortKeys.size(); i++){
+            Comparator<Item> key;
+            if (sortKeys.get(i) == SortKey.DEADLINE)
+                key = Comparator.comparing(item -> item.deadlineDate, Comparator.nullsFirst(Comparator.naturalOrder()));
+            else if (sortKeys.get(i) == SortKey.PRIORITY)
+                key = Comparator.comparing(item -> item.priority, Comparator.nullsFirst(Comparator.naturalOrder()));
+            else
+                key = Comparator.comparingInt(item -> item.id);
+            comparator = comparator.thenComparing(descending.get(i) ? key.reversed() : key);
+        }
+        return comparator.thenComparingInt(item -> item.id);
+    }
+
+    private static RoaringBitmap and(RoaringBitmap ids, RoaringBitmap other){
+        return ids == null ? other.clone() : RoaringBitmap.and(ids, other);
+    }
+}
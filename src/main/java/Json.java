@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Minimal JSON support for the HTTP API and the audit log. Writes items and templates as JSON objects and parses the
+ * flat request bodies the API accepts.
+ */
+public class Json {
+
+    private Json(){}
+
+    /**
+     * Writes an item as a JSON object
+     * @param out Target to write to
+     * @param item Item to write
+     * @throws IOException If writing fails
+     */
+    public static void writeItem(Appendable out, Item item) throws IOException {
+        out.append("{\"id\":").append(String.valueOf(item.id));
+        out.append(",\"description\":");
+        writeString(out, item.description);
+        out.append(",\"priority\":\"").append(item.priority.name()).append('"');
+        out.append(",\"deadlineDate\":\"").append(String.valueOf(item.deadlineDate)).append('"');
+        out.append(",\"isCompleted\":").append(String.valueOf(item.isCompleted));
+        out.append('}');
+    }
+
+    /**
+     * Writes a template as a JSON object
+     * @param out Target to write to
+     * @param template Template to write
+     * @throws IOException If writing fails
+     */
+    public static void writeTemplate(Appendable out, Template template) throws IOException {
+        out.append("{\"id\":").append(String.valueOf(template.id));
+        out.append(",\"name\":");
+        writeString(out, template.name);
+        out.append(",\"description\":");
+        writeString(out, template.description);
+        out.append(",\"priority\":\"").append(template.priority.name()).append('"');
+        out.append(",\"daysToAdd\":").append(String.valueOf(template.daysToAdd));
+        out.append(",\"recurrence\":\"").append(String.valueOf(template.recurrence)).append('"');
+        out.append(",\"recurrenceInterval\":").append(String.valueOf(template.recurrenceInterval));
+        out.append('}');
+    }
+
+    /**
+     * Writes every stored field of an item as a JSON object, for recording its state in the audit log. The object
+     * stays flat: the tags are written as one string of sorted, comma separated tags when they are loaded, and left
+     * out otherwise.
+     * @param out Target to write to
+     * @param item Item to write
+     * @throws IOException If writing fails
+     */
+    public static void writeItemState(Appendable out, Item item) throws IOException {
+        out.append("{\"id\":").append(String.valueOf(item.id));
+        out.append(",\"description\":");
+        writeString(out, item.description);
+        out.append(",\"priority\":");
+        writeValue(out, item.priority);
+        out.append(",\"deadlineDate\":");
+        writeValue(out, item.deadlineDate);
+        out.append(",\"isCompleted\":").append(String.valueOf(item.isCompleted));
+        out.append(",\"isActive\":").append(String.valueOf(item.isActive));
+        out.append(",\"listName\":");
+        writeString(out, item.listName);
+        out.append(",\"createdAt\":");
+        writeValue(out, item.createdAt);
+        out.append(",\"completedAt\":");
+        writeValue(out, item.completedAt);
+        if (item.tags != null){
+            out.append(",\"tags\":");
+            writeString(out, String.join(",", new TreeSet<>(item.tags)));
+        }
+        out.append('}');
+    }
+
+    /**
+     * Writes every stored field of a template as a JSON object, for recording its state in the audit log
+     * @param out Target to write to
+     * @param template Template to write
+     * @throws IOException If writing fails
+     */
+    public static void writeTemplateState(Appendable out, Template template) throws IOException {
+        out.append("{\"id\":").append(String.valueOf(template.id));
+        out.append(",\"name\":");
+        writeString(out, template.name);
+        out.append(",\"description\":");
+        writeString(out, template.description);
+        out.append(",\"priority\":");
+        writeValue(out, template.priority);
+        out.append(",\"daysToAdd\":").append(String.valueOf(template.daysToAdd));
+        out.append(",\"isActive\":").append(String.valueOf(template.isActive));
+        out.append(",\"recurrence\":");
+        writeValue(out, template.recurrence);
+        out.append(",\"recurrenceInterval\":").append(String.valueOf(template.recurrenceInterval));
+        out.append(",\"recurrenceStart\":");
+        writeValue(out, template.recurrenceStart);
+        out.append(",\"generatedUntil\":");
+        writeValue(out, template.generatedUntil);
+        out.append('}');
+    }
+
+    /**
+     * Writes a string as a quoted and escaped JSON string
+     * @param out Target to write to
+     * @param value String to write, null is written as null
+     * @throws IOException If writing fails
+     */
+    public static void writeString(Appendable out, String value) throws IOException {
+        if (value == null){
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch (c){
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Writes a value as a JSON string of its text, or null
+     * @param out Target to write to
+     * @param value Value to write, for example an enum constant or a date
+     * @throws IOException If writing fails
+     */
+    private static void writeValue(Appendable out, Object value) throws IOException {
+        writeString(out, value == null ? null : value.toString());
+    }
+
+    /**
+     * Parses a flat JSON object whose values are strings, numbers, booleans or null
+     * @param json JSON text
+     * @return Map from field names to values as text. Null values are mapped to null.
+     * @throws IllegalArgumentException If the text is not a flat JSON object
+     */
+    public static Map<String, String> parseObject(String json) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        Parser parser = new Parser(json);
+        parser.expect('{');
+        if (!parser.consume('}')){
+            do {
+                String name = parser.readString();
+                parser.expect(':');
+                fields.put(name, parser.readValue());
+            } while (parser.consume(','));
+            parser.expect('}');
+        }
+        parser.skipWhitespace();
+        if (parser.position != json.length())
+            throw new IllegalArgumentException("Unexpected content after JSON object");
+        return fields;
+    }
+
+    /**
+     * Cursor over the JSON text being parsed
+     */
+    private static class Parser {
+
+        private String json;
+        private int position;
+
+        private Parser(String json){
+            this.json = json;
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length() && Character.isWhitespace(json.charAt(position)))
+                position++;
+        }
+
+        private boolean consume(char c) {
+            skipWhitespace();
+            if (position < json.length() && json.charAt(position) == c){
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c))
+                throw new IllegalArgumentException("Expected '" + c + "' at position " + position);
+        }
+
+        private String readValue() {
+            skipWhitespace();
+            if (position < json.length() && json.charAt(position) == '"')
+                return readString();
+            int start = position;
+            while (position < json.length() && ",}".indexOf(json.charAt(position)) < 0
+                    && !Character.isWhitespace(json.charAt(position)))
+                position++;
+            String literal = json.substring(start, position);
+            if (literal.isEmpty())
+                throw new IllegalArgumentException("Expected a value at position " + start);
+            if (!literal.matches("true|false|null|-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?"))
+                throw new IllegalArgumentException("Unsupported value " + literal);
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < json.length()){
+                char c = json.charAt(position++);
+                if (c == '"')
+                    return value.toString();
+                if (c != '\\'){
+                    value.append(c);
+                    continue;
+                }
+                if (position >= json.length())
+                    break;
+                char escaped = json.charAt(position++);
+                switch (escaped){
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (position + 4 > json.length())
+                            throw new IllegalArgumentException("Invalid unicode escape");
+                        value.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+    }
+}
@@ -3,22 +3,44 @@ import org.apache.commons.lang3.StringUtils;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Main class for the TODO-list project
  */
 public class Main {
 
+    private static final int RECURRENCE_LOOK_AHEAD_DAYS = 14;
+    private static final int PAGE_SIZE = 40;
+    private static final int API_THREADS = 16;
+    private static final int AUDIT_QUEUE_CAPACITY = 10_000;
+    private static final int INGEST_QUEUE_CAPACITY = 1_000;
+    private static final int INGEST_GROUP_SIZE = 100;
+    private static final long INGEST_LINGER_MILLIS = 2;
+    private static final int DEFAULT_REPORT_WEEKS = 12;
+    private static final int ARCHIVE_AFTER_DAYS = 30;
+    private static final long DEMO_SEED = 42;
+    private static final Duration COHERENCE_POLL_INTERVAL = Duration.ofSeconds(1);
+    private static final List<Duration> REMINDER_LEAD_TIMES = Arrays.asList(Duration.ofDays(1), Duration.ofHours(2));
+
     private static EntityManagerFactory entityManagerFactory;
     private static ItemController itemController;
     private static TemplateController templateController;
+    private static ReportController reportController;
+    private static DependencyController dependencyController;
     private static Scanner scanner;
+    private static ConsoleRenderer renderer;
+    private static AuditLog auditLog;
 
     static {
         // If you want to test using a in-memory database, uncomment this line and comment the following one
@@ -26,28 +48,80 @@ public class Main {
         // Comment this line if using in-memory database
         //entityManagerFactory = Persistence.createEntityManagerFactory( "local.h2" );
         itemController = new ItemController(entityManagerFactory);
-        templateController = new TemplateController(entityManagerFactory);
+        templateController = new TemplateController(entityManagerFactory, itemController);
+        reportController = new ReportController(entityManagerFactory);
+        dependencyController = new DependencyController(entityManagerFactory, itemController);
         scanner = new Scanner(System.in);
-        // Comment this is you don't want to generate demo data
-        createDemoData(20);
+        renderer = new ConsoleRenderer(scanner, PAGE_SIZE);
+        String userName = System.getProperty("user.name");
+        auditLog = new AuditLog(entityManagerFactory, AUDIT_QUEUE_CAPACITY,
+                () -> Thread.currentThread().getName().startsWith("api-") ? "api" : userName);
+        auditLog.listenTo(itemController);
+        auditLog.listenTo(templateController);
     }
 
     /**
      * Contains the main loop of the program
-     * @param args Not used
+     * @param args Optional --http followed by a port number for also serving the JSON API on that port and
+     *             optional --restore followed by a snapshot file for starting with the data of the snapshot
+     * @throws IOException If the JSON API server could not be started or the snapshot could not be read
+     * @throws InterruptedException If interrupted while writing the remaining history on exit
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        IdSequences.advance(entityManagerFactory);
+        int migrated = DescriptionDictionary.migrate(entityManagerFactory);
+        if (migrated > 0)
+            System.out.println("Moved the descriptions of "+migrated+" items to the description dictionary");
+        int restoreArgument = Arrays.asList(args).indexOf("--restore");
+        if (restoreArgument >= 0 && restoreArgument + 1 < args.length){
+            long start = System.nanoTime();
+            int restored = Snapshot.restore(entityManagerFactory, Paths.get(args[restoreArgument + 1]));
+            System.out.println("Restored "+restored+" items and templates in "+
+                    (System.nanoTime() - start) / 1_000_000+" ms");
+            reportController.backfill();
+        } else {
+            // Comment this is you don't want to generate demo data
+            createDemoData(20);
+        }
+        ReminderScheduler reminderScheduler = new ReminderScheduler(itemController, REMINDER_LEAD_TIMES,
+                (item, leadTime) -> System.out.println("Reminder: item "+item.id+" \""+item.description+
+                        "\" is due by the end of "+item.deadlineDate));
+        reminderScheduler.start();
+        ItemArchive itemArchive = new ItemArchive(entityManagerFactory, ARCHIVE_AFTER_DAYS);
+        itemArchive.start();
+        StorageMaintenance storageMaintenance = new StorageMaintenance(entityManagerFactory);
+        storageMaintenance.start();
+        CacheCoherence cacheCoherence = new CacheCoherence(entityManagerFactory, COHERENCE_POLL_INTERVAL);
+        cacheCoherence.listenTo(itemController);
+        cacheCoherence.listenTo(templateController);
+        cacheCoherence.listenTo(dependencyController);
+        cacheCoherence.addListener((entityType, ids) -> {
+            if ("Item".equals(entityType))
+                reminderScheduler.reload();
+        });
+        cacheCoherence.start();
+        ApiServer apiServer = null;
+        ItemIngest itemIngest = null;
+        int httpArgument = Arrays.asList(args).indexOf("--http");
+        if (httpArgument >= 0 && httpArgument + 1 < args.length){
+            itemIngest = new ItemIngest(entityManagerFactory, itemController, INGEST_QUEUE_CAPACITY,
+                    INGEST_GROUP_SIZE, INGEST_LINGER_MILLIS);
+            apiServer = new ApiServer(itemController, templateController, itemIngest);
+            apiServer.start(Integer.valueOf(args[httpArgument + 1]), API_THREADS);
+            System.out.println("Serving the JSON API on port "+apiServer.getPort());
+        }
         System.out.println("Hello!");
         printHelp();
         boolean quit = false;
         while (!quit){
             String i = scanner.nextLine();
-            if (i.matches("^1"))
-                printFutureItems();
-            else if (i.matches("^2"))
-                printPastItems();
-            else if (i.matches("^3"))
-                printTemplates();
+            CommandEvent commandEvent = CommandEvent.start(i);
+            if (ConsoleRenderer.isListingCommand(i, "1"))
+                printFutureItems(parseTags(ItemQuery.futureItems(), i), ConsoleRenderer.parseLimit(i));
+            else if (ConsoleRenderer.isListingCommand(i, "2"))
+                printPastItems(parseTags(ItemQuery.pastItems(), i), ConsoleRenderer.parseLimit(i));
+            else if (ConsoleRenderer.isListingCommand(i, "3"))
+                printTemplates(ConsoleRenderer.parseLimit(i));
             else if (i.matches("^q") ||i.matches("^x"))
                 quit = true;
             else if (i.matches("^c"))
@@ -68,6 +142,11 @@ public class Main {
                 int id = Integer.valueOf(i.split("\\s")[1]);
                 createItemFromTemplate(id);
             }
+            else if (i.matches("^ct\\s\\d+\\s\\d+$")){
+                int id = Integer.valueOf(i.split("\\s")[1]);
+                int days = Integer.valueOf(i.split("\\s")[2]);
+                createItemsFromTemplate(id, days);
+            }
             else if (i.matches("^ct"))
                 createTemplate();
             else if (i.matches("^ut\\s\\d+$")){
@@ -80,9 +159,56 @@ public class Main {
             }
             else if (i.matches("^h"))
                 printHistogram();
+            else if (i.matches("^tag\\s\\d+(\\s\\S+)?$")){
+                String[] parts = i.split("\\s");
+                tagItem(Integer.valueOf(parts[1]), parts.length > 2 ? parts[2] : null);
+            }
+            else if (i.matches("^dep\\s\\d+\\s\\d+$")){
+                String[] parts = i.split("\\s");
+                addDependency(Integer.valueOf(parts[1]), Integer.valueOf(parts[2]));
+            }
+            else if (i.matches("^undep\\s\\d+\\s\\d+$")){
+                String[] parts = i.split("\\s");
+                removeDependency(Integer.valueOf(parts[1]), Integer.valueOf(parts[2]));
+            }
+            else if (ConsoleRenderer.isListingCommand(i, "ready"))
+                printReadyItems(parseTags(ItemQuery.items().orderBy(ItemQuery.SortKey.DEADLINE, false), i),
+                        ConsoleRenderer.parseLimit(i));
+            else if (ConsoleRenderer.isListingCommand(i, "order"))
+                printWorkOrder(ConsoleRenderer.parseLimit(i));
+            else if (i.matches("^show\\s\\d+$"))
+                showItem(Integer.valueOf(i.split("\\s")[1]));
+            else if (i.matches("^note\\s\\d+$"))
+                writeNote(Integer.valueOf(i.split("\\s")[1]));
+            else if (i.matches("^history\\s\\d+$")){
+                int id = Integer.valueOf(i.split("\\s")[1]);
+                printHistory(id, false);
+            }
+            else if (i.matches("^historyt\\s\\d+$")){
+                int id = Integer.valueOf(i.split("\\s")[1]);
+                printHistory(id, true);
+            }
+            else if (i.matches("^report(\\s\\d+)?$")){
+                String[] parts = i.split("\\s");
+                printReport(parts.length > 1 ? Integer.valueOf(parts[1]) : DEFAULT_REPORT_WEEKS);
+            }
+            else if (i.matches("^snapshot\\s+\\S+$"))
+                writeSnapshot(i.split("\\s+")[1]);
+            else if (i.matches("^maintenance$"))
+                runMaintenance(storageMaintenance);
             else
                 printHelp();
+            commandEvent.finish();
+        }
+        if (apiServer != null){
+            apiServer.stop();
+            itemIngest.close();
         }
+        cacheCoherence.stop();
+        storageMaintenance.stop();
+        itemArchive.stop();
+        reminderScheduler.stop();
+        auditLog.close();
         System.out.println("Bye!");
     }
 
@@ -95,33 +221,66 @@ public class Main {
         System.out.println("(1) to read future items\n" +
                 "(2) to read past items\n" +
                 "(3) to read templates\n" +
+                "(1), (2) or (3) followed by --limit and a number to read only the first items\n" +
+                "(1) or (2) followed by --tags and comma separated tags to read items with all of them, -tag excludes\n" +
                 "(c)reate or (u)pdate, (d)elete or (s)tatus followed by id for items\n" +
                 "(ct)reate or (ut)pdate or (dt)elete followed by id for templates\n" +
                 "(ct)reate followed by id for creating an item from a template\n"+
+                "(ct)reate followed by id and number of days for creating an item for each day starting today\n"+
+                "tag followed by id and optionally comma separated tags to show or replace the tags of an item\n"+
+                "show followed by id to show an item with its note, note followed by id to write the note\n"+
+                "dep or undep followed by two ids to make the second item wait for the first one or not\n"+
+                "ready for uncompleted items that wait for nothing, order for items with dependencies in workable order\n"+
                 "(h)istogram for histogram of upcoming tasks\n"+
+                "history or historyt followed by id for the change history of an item or a template\n"+
+                "report optionally followed by a number of weeks for weekly completion statistics\n"+
+                "snapshot followed by a file name to save all data, start with --restore and the file name to load it\n"+
+                "maintenance for the sizes of the tables and the database file, then compacting the file\n"+
                 "(q)uit or e(x)it to exit");
     }
 
     /**
      * Prints all items that have deadlines starting from today
+     * @param query Filter for future items, possibly with tag criteria
+     * @param limit Maximum number of items to print, 0 for no limit
      */
-    private static void printFutureItems() {
-        List<Item> futureItems = itemController.getItems(false);
-        System.out.println("Future items:");
-        for (Item item : futureItems){
-            printItemInfo(item);
+    private static void printFutureItems(ItemQuery query, int limit) {
+        List<Item> futureItems;
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            templateController.expandRecurringTemplates(RECURRENCE_LOOK_AHEAD_DAYS);
+            futureItems = itemController.getItems(query.limit(limit));
+            unitOfWork.complete();
         }
+        renderer.printItems("Future items:", futureItems, limit);
     }
 
     /**
      * Prints all items that have deadlines in the past
+     * @param query Filter for past items, possibly with tag criteria
+     * @param limit Maximum number of items to print, 0 for no limit
      */
-    private static void printPastItems() {
-        List<Item> pastItems = itemController.getItems(true);
-        System.out.println("Past items:");
-        for (Item item : pastItems){
-            printItemInfo(item);
-        }
+    private static void printPastItems(ItemQuery query, int limit) {
+        List<Item> pastItems = itemController.getItems(query.limit(limit));
+        renderer.printItems("Past items:", pastItems, limit);
+    }
+
+    /**
+     * Prints the uncompleted items that can be started now
+     * @param query Filter for the items, possibly with tag criteria
+     * @param limit Maximum number of items to print, 0 for no limit
+     */
+    private static void printReadyItems(ItemQuery query, int limit) {
+        List<Item> readyItems = dependencyController.getReadyItems(query.limit(limit));
+        renderer.printItems("Ready items:", readyItems, limit);
+    }
+
+    /**
+     * Prints the open items with dependencies so that every item comes after the items it waits for
+     * @param limit Maximum number of items to print, 0 for no limit
+     */
+    private static void printWorkOrder(int limit) {
+        List<Item> items = dependencyController.getWorkOrder(limit);
+        renderer.printItems("Items in workable order:", items, limit);
     }
 
     /**
@@ -129,23 +288,16 @@ public class Main {
      * @param item Item whose information to print
      */
     private static void printItemInfo(Item item) {
-        System.out.println(item.deadlineDate +
-                " - Id :" + item.id +
-                " - Description: " + item.description +
-                " - Priority: " + item.priority.name() +
-                " - Completed: " + item.isCompleted
-        );
+        renderer.printItem(item);
     }
 
     /**
      * Prints all templates
+     * @param limit Maximum number of templates to print, 0 for no limit
      */
-    private static void printTemplates() {
+    private static void printTemplates(int limit) {
         List<Template> templates = templateController.getTemplates();
-        System.out.println("Templates:");
-        for (Template template : templates){
-            printTemplateInfo(template);
-        }
+        renderer.printTemplates("Templates:", templates, limit);
     }
 
     /**
@@ -153,27 +305,60 @@ public class Main {
      * @param template Template whose information to print
      */
     private static void printTemplateInfo(Template template) {
-        System.out.println("Id: "+template.id+
-                " - Name: "+template.name+
-                " - Days from today: "+template.daysToAdd+
-                " - Description: "+ template.description+
-                " - Priority: "+ template.priority.name()
-        );
+        renderer.printTemplate(template);
+    }
+
+    /**
+     * Prints the recorded changes of an item or a template
+     * @param id Id of the item or template
+     * @param template True for a template, false for an item
+     */
+    private static void printHistory(int id, boolean template) {
+        try {
+            auditLog.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<HistoryEntry> entries = template ? auditLog.getTemplateHistory(id) : auditLog.getItemHistory(id);
+        if (entries.isEmpty())
+            System.out.println("No history for "+(template ? "template" : "item")+" with id "+id+".");
+        else
+            renderer.printHistory("History of "+(template ? "template " : "item ")+id+":", entries);
+    }
+
+    /**
+     * Prints the number of created, completed and overdue items and the completion rate per week
+     * @param weeks Number of weeks to print, ending with the current week
+     */
+    private static void printReport(int weeks) {
+        LocalDate today = LocalDate.now();
+        List<DailyRollup> rows = reportController.getWeeklyRollups(today.minusWeeks(weeks - 1), today.plusDays(1));
+        System.out.println("Week of       Created  Completed  Overdue  Completion");
+        int[] total = new int[3];
+        for (int i = 0; i < rows.size(); ){
+            LocalDate week = rows.get(i).day;
+            int[] counts = new int[3];
+            for (; i < rows.size() && rows.get(i).day.equals(week); i++){
+                counts[0] += rows.get(i).created;
+                counts[1] += rows.get(i).completed;
+                counts[2] += rows.get(i).dueOpen;
+            }
+            System.out.println(String.format("%-12s %8d %10d %8d %10s", week, counts[0], counts[1], counts[2],
+                    counts[0] == 0 ? "-" : (100 * counts[1] / counts[0]) + "%"));
+            for (int j = 0; j < total.length; j++)
+                total[j] += counts[j];
+        }
+        System.out.println(String.format("%-12s %8d %10d %8d %10s", "Total", total[0], total[1], total[2],
+                total[0] == 0 ? "-" : (100 * total[1] / total[0]) + "%"));
     }
 
     /**
      * Prints a histogram about items coming in the future
      */
     private static void printHistogram() {
-        List<Item> items = itemController.getItems(false);
-        int[][] data = new int[8][3];
-        for (Item item : items){
-            // Eight buckets: 0,1,2,3,4,5,6,7+ days from now
-            int bucket = (int) LocalDate.now().until(item.deadlineDate, ChronoUnit.DAYS);
-            bucket = bucket > 7 ? 7 : bucket;
-            int priority = item.priority.ordinal();
-            data[bucket][priority]++;
-        }
+        templateController.expandRecurringTemplates(RECURRENCE_LOOK_AHEAD_DAYS);
+        // Eight buckets: 0,1,2,3,4,5,6,7+ days from now
+        int[][] data = itemController.getHistogram();
         for (int i = 0; i < 8; i++){
             if (i < 7)
                 System.out.print(LocalDate.now().plusDays(i).toString()+ "  ");
@@ -184,6 +369,37 @@ public class Main {
             System.out.print("L".repeat(data[i][2])+"\n");
         }
     }
+
+    /**
+     * Writes all items and templates to a snapshot file
+     * @param fileName Name of the file to write
+     */
+    private static void writeSnapshot(String fileName) {
+        try {
+            long start = System.nanoTime();
+            int written = Snapshot.write(entityManagerFactory, Paths.get(fileName));
+            System.out.println("Saved "+written+" items and templates to "+fileName+" in "+
+                    (System.nanoTime() - start) / 1_000_000+" ms");
+        } catch (IOException e) {
+            System.out.println("Could not write snapshot: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the storage use of the database, compacts the database file and prints how much it shrank
+     * @param storageMaintenance Maintenance of the database
+     */
+    private static void runMaintenance(StorageMaintenance storageMaintenance) {
+        try {
+            System.out.println(storageMaintenance.report());
+            long start = System.nanoTime();
+            long saved = storageMaintenance.compact();
+            System.out.println("Compacted the database file by "+saved / 1024+" kB in "+
+                    (System.nanoTime() - start) / 1_000_000+" ms");
+        } catch (IllegalStateException e) {
+            System.out.println("Maintenance was not run: "+e.getMessage()+".");
+        }
+    }
     // endregion
 
     // region Create, update and delete for items
@@ -216,6 +432,26 @@ public class Main {
         printHelp();
     }
 
+    /**
+     * Controller call for creating one item per day from a template, starting today
+     * @param id Id of the template to use for creating the items
+     * @param days Number of days to create items for
+     */
+    private static void createItemsFromTemplate(int id, int days) {
+        System.out.println("Creating items from a template...");
+        if (days < 1){
+            System.out.println("Number of days must be at least 1.");
+        } else {
+            IdRange ids = templateController.createItemsFromTemplate(id, LocalDate.now(),
+                    LocalDate.now().plusDays(days - 1));
+            if (ids == null)
+                System.out.println("Template with id "+id+" was not found.");
+            else
+                System.out.println(ids.size()+" items successfully created with ids "+ids);
+        }
+        printHelp();
+    }
+
     /**
      * UI and controller call for updating an existing item
      * @param id Id of the item to update
@@ -250,16 +486,101 @@ public class Main {
      */
     private static void toggleStatusOfItem(int id) {
         System.out.println("Toggling status of item...");
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            Item item = itemController.getItem(id);
+            if (item == null){
+                System.out.println("Item with id "+id+" was not found.");
+            } else {
+                boolean result = itemController.toggleCompleted(id);
+                System.out.println("Item status successfully toggled: "+result);
+                Item updatedItem = itemController.getItem(id);
+                printItemInfo(updatedItem);
+            }
+            unitOfWork.complete();
+        }
+        printHelp();
+    }
+
+    /**
+     * Shows or replaces the tags of an item
+     * @param id Id of the item
+     * @param tags Comma separated new tags, null to only show the current tags
+     */
+    private static void tagItem(int id, String tags) {
+        if (tags != null && !itemController.setTags(id, Arrays.asList(tags.split(",")))){
+            System.out.println("Item with id "+id+" was not found.");
+            return;
+        }
+        Set<String> currentTags = itemController.getTags(id);
+        if (currentTags == null)
+            System.out.println("Item with id "+id+" was not found.");
+        else
+            System.out.println("Tags of item "+id+": "+String.join(", ", currentTags));
+    }
+
+    /**
+     * Makes an item wait for another one
+     * @param blockerId Id of the item to complete first
+     * @param blockedId Id of the item that waits
+     */
+    private static void addDependency(int blockerId, int blockedId) {
+        try {
+            if (dependencyController.addDependency(blockerId, blockedId))
+                System.out.println("Item "+blockedId+" now waits for item "+blockerId+".");
+            else
+                System.out.println("Item with id "+blockerId+" or "+blockedId+" was not found.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Dependency was not added: "+e.getMessage()+".");
+        }
+    }
+
+    /**
+     * Removes a dependency between two items
+     * @param blockerId Id of the item waited for
+     * @param blockedId Id of the item that waits
+     */
+    private static void removeDependency(int blockerId, int blockedId) {
+        if (dependencyController.removeDependency(blockerId, blockedId))
+            System.out.println("Item "+blockedId+" no longer waits for item "+blockerId+".");
+        else
+            System.out.println("Item "+blockedId+" did not wait for item "+blockerId+".");
+    }
+
+    /**
+     * Prints an item together with its note
+     * @param id Id of the item
+     */
+    private static void showItem(int id) {
         Item item = itemController.getItem(id);
         if (item == null){
             System.out.println("Item with id "+id+" was not found.");
-        } else {
-            boolean result = itemController.toggleCompleted(id);
-            System.out.println("Item status successfully toggled: "+result);
-            Item updatedItem = itemController.getItem(id);
-            printItemInfo(updatedItem);
+            return;
         }
-        printHelp();
+        printItemInfo(item);
+        List<Item> blockers = dependencyController.getBlockers(id);
+        if (!blockers.isEmpty())
+            renderer.printItems(dependencyController.isBlocked(id) ? "Blocked by:" : "Waited for:", blockers, 0);
+        String note = itemController.getNote(id);
+        System.out.println(note == null ? "No note." : "Note:\n" + note);
+    }
+
+    /**
+     * Reads a note for an item until an empty line and replaces the old note with it
+     * @param id Id of the item
+     */
+    private static void writeNote(int id) {
+        if (itemController.getItem(id) == null){
+            System.out.println("Item with id "+id+" was not found.");
+            return;
+        }
+        System.out.println("Write the note, end with an empty line. An empty note removes the note.");
+        StringBuilder note = new StringBuilder();
+        String line;
+        while (scanner.hasNextLine() && !(line = scanner.nextLine()).isEmpty())
+            note.append(note.length() == 0 ? "" : "\n").append(line);
+        CommandEvent.inputRead();
+        boolean result = itemController.setNote(id, note.toString());
+        System.out.println("Note successfully saved: "+result);
     }
 
     /**
@@ -268,13 +589,10 @@ public class Main {
      */
     private static void deleteItem(int id) {
         System.out.println("Deleting item...");
-        Item item = itemController.getItem(id);
-        if (item == null){
+        if (itemController.deleteItem(id))
+            System.out.println("Item was successfully deleted.");
+        else
             System.out.println("Item with id "+id+" was not found.");
-        } else {
-            boolean result = itemController.deleteItem(id);
-            System.out.println("Item was successfully deleted: "+result);
-        }
         printHelp();
     }
     // endregion
@@ -287,8 +605,9 @@ public class Main {
     private static void createTemplate() {
         System.out.println("Creating new template...");
         Template template = generateTemplate(true, "", "", 2, 0);
+        scanRecurrence(template);
         boolean result = templateController.createTemplate(template.name, template.description, template.priority,
-                template.daysToAdd);
+                template.daysToAdd, template.recurrence, template.recurrenceInterval);
         System.out.println("Template successfully created: "+result);
         printHelp();
     }
@@ -306,8 +625,11 @@ public class Main {
             printTemplateInfo(template);
             Template newTemplate = generateTemplate(true, template.name, template.description,
                     template.priority.ordinal()+1, template.daysToAdd);
+            newTemplate.recurrence = template.recurrence;
+            newTemplate.recurrenceInterval = template.recurrenceInterval;
+            scanRecurrence(newTemplate);
             boolean result = templateController.updateTemplate(id, newTemplate.name, newTemplate.description,
-                    newTemplate.priority, newTemplate.daysToAdd);
+                    newTemplate.priority, newTemplate.daysToAdd, newTemplate.recurrence, newTemplate.recurrenceInterval);
             System.out.println("Template successfully updated: "+result);
         }
         printHelp();
@@ -319,12 +641,15 @@ public class Main {
      */
     private static void deleteTemplate(int id){
         System.out.println("Deleting template...");
-        Template template = templateController.getTemplate(id);
-        if (template == null){
-            System.out.println("Template with id "+id+" was not found.");
-        } else {
-            boolean result = templateController.deleteTemplate(id);
-            System.out.println("Template was successfully deleted: "+result);
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            Template template = templateController.getTemplate(id);
+            if (template == null){
+                System.out.println("Template with id "+id+" was not found.");
+            } else {
+                boolean result = templateController.deleteTemplate(id);
+                System.out.println("Template was successfully deleted: "+result);
+            }
+            unitOfWork.complete();
         }
         printHelp();
     }
@@ -360,6 +685,30 @@ public class Main {
         return new Template (name, description, priority, daysToAdd);
     }
 
+    /**
+     * Helper method for UI for prompting the recurrence rule of a template
+     * @param template Template whose current rule is used as the default and which is updated with the user's choice
+     */
+    private static void scanRecurrence(Template template) {
+        Recurrence recurrence = template.recurrence == null ? Recurrence.NONE : template.recurrence;
+        String recurrenceString = scanString("Repeats, 0 = never, 1 = daily, 2 = weekly, 3 = every N days, 4 = weekdays",
+                String.valueOf(recurrence.ordinal()));
+        if (recurrenceString.matches("^[0-4]$"))
+            recurrence = Recurrence.values()[Integer.valueOf(recurrenceString)];
+        else
+            System.out.println("Could not parse recurrence, defaulted to "+recurrence.name());
+        int interval = template.recurrenceInterval;
+        if (recurrence == Recurrence.EVERY_N_DAYS){
+            String intervalString = scanString("Days between occurrences", String.valueOf(Math.max(interval, 1)));
+            if (intervalString.matches("^[1-9]\\d*$"))
+                interval = Integer.valueOf(intervalString);
+            else
+                interval = Math.max(interval, 1);
+        }
+        template.recurrence = recurrence;
+        template.recurrenceInterval = interval;
+    }
+
     /**
      * Helper method for UI for creating a new an item
      * @param defaultDescription Value to which the priority of the item will default to if none given by user
@@ -385,11 +734,31 @@ public class Main {
         else
             System.out.println(userInstruction+", will default to "+defaultValue+":");
         String scanned = scanner.nextLine();
+        CommandEvent.inputRead();
         return StringUtils.isEmpty(scanned) ?
                 defaultValue :
                 scanned;
     }
 
+    /**
+     * Parsing the optional --tags argument of a listing command. Tags starting with - are excluded.
+     * @param query Filter to add the tag criteria to
+     * @param command Command given by the user
+     * @return The same filter
+     */
+    private static ItemQuery parseTags(ItemQuery query, String command){
+        Matcher matcher = Pattern.compile("--tags\\s+(\\S+)").matcher(command);
+        if (matcher.find()){
+            for (String tag : matcher.group(1).split(",")){
+                if (tag.startsWith("-") && tag.length() > 1)
+                    query.withoutTags(tag.substring(1));
+                else if (!tag.isEmpty())
+                    query.allTags(tag);
+            }
+        }
+        return query;
+    }
+
     /**
      * Parsing an enum value for Priority from a string
      * @param priorityString String given by the user
@@ -417,47 +786,15 @@ public class Main {
      * @param numberOfItems How many semi-randomized items to create.
      */
     private static void createDemoData(int numberOfItems) {
-
-        String[] verbs = {
-                "Review",
-                "Design",
-                "Code",
-                "Test",
-                "Develop",
-                "Refactor",
-                "Update",
-                "Build",
-                "Publish",
-                "Investigate"
-        };
-        String[] objects = {
-                "minimum viable product",
-                "work from last week",
-                "thing your boss just mentioned",
-                "database scripts",
-                "important functionality",
-                "first sprint item",
-                "demoable product"
-        };
-
-        Random random = new Random();
-        List<Priority> priorities = Arrays.asList(Priority.values());
-        for (int i = 0; i < numberOfItems; i++) {
-            String description = verbs[random.nextInt(verbs.length)] + " the " + objects[random.nextInt(objects.length)];
-            Priority priority = priorities.get(random.nextInt(priorities.size()));
-            int daysToAdd = random.nextInt(10);
-            LocalDate date;
-            if (daysToAdd < 8)
-                date = LocalDate.now().plusDays(daysToAdd);
-            else
-                date = LocalDate.now().minusDays(10 - daysToAdd);
-            itemController.createItem(description, priority, date);
-            if (random.nextInt(100) > 85)
-                itemController.updateItem(i-1, description, priority,date,  true);
-        }
+        new DataGenerator(DEMO_SEED)
+                .items(numberOfItems)
+                .threads(1)
+                .generate(entityManagerFactory, itemController, templateController);
         templateController.createTemplate("Today/High","DEADLINE TODAY!! ", Priority.HIGH, 0);
         templateController.createTemplate("Tomorrow/Medium", "Demo tomorrow", Priority.MEDIUM, 1);
         templateController.createTemplate("Upcoming", "Vacation",Priority.LOW, 5);
+        templateController.createTemplate("Weekly/Medium", "Weekly status report", Priority.MEDIUM, 0,
+                Recurrence.WEEKLY, 0);
     }
     // endregion
 
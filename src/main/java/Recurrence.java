@@ -0,0 +1,35 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Recurrence rule enumerator for templates with possible values NONE, DAILY, WEEKLY, EVERY_N_DAYS, WEEKDAYS
+ */
+public enum Recurrence {
+    NONE, DAILY, WEEKLY, EVERY_N_DAYS, WEEKDAYS;
+
+    /**
+     * Checks whether the rule produces an occurrence on a given date
+     * @param start First date of the recurrence
+     * @param date Date to check
+     * @param interval Number of days between occurrences, only used by EVERY_N_DAYS
+     * @return True if an item should be due on the given date
+     */
+    public boolean occursOn(LocalDate start, LocalDate date, int interval) {
+        if (date.isBefore(start))
+            return false;
+        long daysFromStart = start.until(date, ChronoUnit.DAYS);
+        switch (this) {
+            case DAILY:
+                return true;
+            case WEEKLY:
+                return daysFromStart % 7 == 0;
+            case EVERY_N_DAYS:
+                return interval > 0 && daysFromStart % interval == 0;
+            case WEEKDAYS:
+                return date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires reminders for approaching deadlines of uncompleted items.
+ *
+ * An item is due at the end of its deadline date, and a reminder fires for it at every configured lead time before
+ * that. Because deadlines are dates, the scheduler does not track single items: it keeps the number of pending items
+ * per deadline date, loaded with one grouped query on start and kept current by listening to the item controller.
+ * A single timer thread sleeps until the next date whose reminder time arrives and then loads the items due that
+ * date with one query. Memory use therefore grows with the number of distinct deadline dates, not with the number of
+ * items, and nothing polls the database.
+ */
+public class ReminderScheduler implements ChangeListener<Item> {
+
+    /**
+     * Callback receiving the fired reminders
+     */
+    public interface Listener {
+
+        /**
+         * Called on the timer thread when a reminder fires
+         * @param item Uncompleted item whose deadline is approaching
+         * @param leadTime Lead time of the reminder before the end of the deadline date
+         */
+        void remind(Item item, Duration leadTime);
+    }
+
+    private ItemController itemController;
+    private List<Duration> leadTimes;
+    private Listener listener;
+    private Clock clock;
+    private TreeMap<LocalDate, Integer> pendingPerDate = new TreeMap<>();
+    private Instant firedUntil;
+    private ScheduledThreadPoolExecutor timer;
+    private ScheduledFuture<?> wakeUp;
+    private Instant wakeUpAt;
+
+    /**
+     * Constructor with the system clock
+     * @param itemController Controller whose items to remind about
+     * @param leadTimes How long before the end of the deadline date reminders fire
+     * @param listener Callback receiving the reminders
+     */
+    public ReminderScheduler(ItemController itemController, List<Duration> leadTimes, Listener listener){
+        this(itemController, leadTimes, listener, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Constructor with clock injection
+     * @param itemController Controller whose items to remind about
+     * @param leadTimes How long before the end of the deadline date reminders fire
+     * @param listener Callback receiving the reminders
+     * @param clock Clock giving the current time and time zone
+     */
+    public ReminderScheduler(ItemController itemController, List<Duration> leadTimes, Listener listener, Clock clock){
+        for (Duration leadTime : leadTimes){
+            if (leadTime.isNegative())
+                throw new IllegalArgumentException("Lead times can't be negative");
+        }
+        this.itemController = itemController;
+        this.leadTimes = new ArrayList<>(leadTimes);
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    /**
+     * Loads the pending deadlines and starts the timer thread. Reminders whose time has already passed are not fired.
+     * Should be called before other threads start changing items, so no change is counted twice.
+     */
+    public synchronized void start() {
+        if (timer != null)
+            return;
+        itemController.addListener(this);
+        firedUntil = clock.instant();
+        LocalDate today = LocalDate.now(clock);
+        for (Map.Entry<LocalDate, Integer> count : itemController.countDeadlines(today).entrySet())
+            pendingPerDate.put(count.getKey(), count.getValue());
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "reminders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        scheduleWakeUp();
+    }
+
+    /**
+     * Stops the timer thread and the tracking of changes
+     */
+    public synchronized void stop() {
+        if (timer == null)
+            return;
+        itemController.removeListener(this);
+        timer.shutdownNow();
+        timer = null;
+        wakeUp = null;
+        wakeUpAt = null;
+        pendingPerDate.clear();
+    }
+
+    /**
+     * Reloads the pending deadlines from the database, for example after another process changed items. A change of
+     * this process committed during the reload may be counted twice until the next reload.
+     */
+    public synchronized void reload() {
+        if (timer == null)
+            return;
+        pendingPerDate.clear();
+        for (Map.Entry<LocalDate, Integer> count : itemController.countDeadlines(LocalDate.now(clock)).entrySet())
+            pendingPerDate.put(count.getKey(), count.getValue());
+        scheduleWakeUp();
+    }
+
+    /**
+     * Gets the number of deadline dates with pending items
+     * @return Number of tracked dates
+     */
+    public synchronized int trackedDates() {
+        return pendingPerDate.size();
+    }
+
+    @Override
+    public synchronized void changed(Item before, Item after) {
+        if (isPending(before))
+            addPending(before.deadlineDate, -1);
+        if (isPending(after))
+            addPending(after.deadlineDate, 1);
+        Instant next = nextReminder();
+        if (timer != null && next != null && (wakeUpAt == null || next.isBefore(wakeUpAt)))
+            scheduleWakeUp();
+    }
+
+    /**
+     * Fires the reminders whose time has come since the previous run and schedules the next run
+     */
+    void fireDueReminders() {
+        List<LocalDate> dates = new ArrayList<>();
+        List<Duration> dateLeadTimes = new ArrayList<>();
+        synchronized (this) {
+            Instant now = clock.instant();
+            for (Duration leadTime : leadTimes){
+                // The reminder for a date fires in (firedUntil, now] exactly when the date is in [from, to)
+                LocalDate from = LocalDate.ofInstant(firedUntil.plus(leadTime), clock.getZone());
+                LocalDate to = LocalDate.ofInstant(now.plus(leadTime), clock.getZone());
+                for (LocalDate date : pendingPerDate.subMap(from, true, to, false).keySet()){
+                    dates.add(date);
+                    dateLeadTimes.add(leadTime);
+                }
+            }
+            if (now.isAfter(firedUntil))
+                firedUntil = now;
+            LocalDate today = LocalDate.ofInstant(now, clock.getZone());
+            pendingPerDate.headMap(today, false).clear();
+        }
+        try {
+            for (int i = 0; i < dates.size(); i++){
+                List<Item> items = itemController.getItems(ItemQuery.items()
+                        .deadlineFrom(dates.get(i))
+                        .deadlineBefore(dates.get(i).plusDays(1))
+                        .completed(false));
+                for (Item item : items)
+                    listener.remind(item, dateLeadTimes.get(i));
+            }
+        } finally {
+            synchronized (this) {
+                wakeUp = null;
+                wakeUpAt = null;
+                if (timer != null)
+                    scheduleWakeUp();
+            }
+        }
+    }
+
+    // region Helper methods
+
+    private static boolean isPending(Item item) {
+        return item != null && item.isActive && !item.isCompleted && item.deadlineDate != null;
+    }
+
+    private void addPending(LocalDate date, int change) {
+        int count = pendingPerDate.getOrDefault(date, 0) + change;
+        if (count > 0)
+            pendingPerDate.put(date, count);
+        else
+            pendingPerDate.remove(date);
+    }
+
+    /**
+     * Finds the next time a reminder fires
+     * @return Time of the next reminder, null if there are no pending deadlines
+     */
+    private Instant nextReminder() {
+        Instant next = null;
+        for (Duration leadTime : leadTimes){
+            LocalDate date = pendingPerDate.ceilingKey(
+                    LocalDate.ofInstant(firedUntil.plus(leadTime), clock.getZone()));
+            if (date == null)
+                continue;
+            Instant reminder = date.plusDays(1).atStartOfDay(clock.getZone()).toInstant().minus(leadTime);
+            if (next == null || reminder.isBefore(next))
+                next = reminder;
+        }
+        return next;
+    }
+
+    private void scheduleWakeUp() {
+        if (wakeUp != null)
+            wakeUp.cancel(false);
+        wakeUpAt = nextReminder();
+        if (wakeUpAt == null){
+            wakeUp = null;
+            return;
+        }
+        long delay = Math.max(0, Duration.between(clock.instant(), wakeUpAt).toNanos());
+        wakeUp = timer.schedule(this::fireDueReminders, delay, TimeUnit.NANOSECONDS);
+    }
+    // endregion
+}
@@ -0,0 +1,229 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Controller for the daily rollup table holding created, completed and overdue counts per day and priority.
+ *
+ * The item controller updates the rollup rows in the same transaction as the change to the item, so reports over
+ * months only read a few rows per day instead of scanning the items. The backfill rebuilds the whole table from the
+ * items, for example after restoring a snapshot.
+ */
+public class ReportController {
+
+    private static final String ALL_ITEMS = "(SELECT createdAt, completedAt, deadlineDate, priority, isCompleted, " +
+            "isActive FROM Item UNION ALL SELECT createdAt, completedAt, deadlineDate, priority, isCompleted, " +
+            "isActive FROM ArchivedItem)";
+
+    private EntityManagerFactory entityManagerFactory;
+
+    /**
+     * Constructor with entityManagerFactory injection
+     * @param entityManagerFactory Injectable entityManagerFactory
+     */
+    public ReportController(EntityManagerFactory entityManagerFactory){
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Gets the rollup rows of a date range
+     * @param from First day of the range
+     * @param to Day after the last day of the range
+     * @return Rows ordered by day and priority. Days and priorities without any counts have no row.
+     */
+    public List<DailyRollup> getDailyRollups(LocalDate from, LocalDate to) {
+        return UnitOfWork.run(entityManagerFactory, entityManager -> entityManager.createQuery(
+                "SELECT r FROM DailyRollup r WHERE r.id >= :first AND r.id < :last ORDER BY r.id", DailyRollup.class)
+                .setParameter("first", DailyRollup.idOf(from, Priority.values()[0]))
+                .setParameter("last", DailyRollup.idOf(to, Priority.values()[0]))
+                .getResultList());
+    }
+
+    /**
+     * Sums the rollup rows of a date range per week and priority
+     * @param from First day of the range, moved back to the Monday of its week
+     * @param to Day after the last day of the range
+     * @return Rows whose day is the Monday of the week, ordered by week and priority. Their dueOpen is the number
+     *         of items that went overdue during the week, so only days before today are summed into it.
+     */
+    public List<DailyRollup> getWeeklyRollups(LocalDate from, LocalDate to) {
+        LocalDate today = LocalDate.now();
+        LocalDate monday = from.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        Map<Long, DailyRollup> weeks = new LinkedHashMap<>();
+        for (DailyRollup day : getDailyRollups(monday, to)){
+            LocalDate week = day.day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            DailyRollup sum = weeks.computeIfAbsent(DailyRollup.idOf(week, day.priority),
+                    id -> new DailyRollup(week, day.priority));
+            sum.created += day.created;
+            sum.completed += day.completed;
+            if (day.day.isBefore(today))
+                sum.dueOpen += day.dueOpen;
+        }
+        List<DailyRollup> rows = new ArrayList<>(weeks.values());
+        rows.sort((a, b) -> Long.compare(a.id, b.id));
+        return rows;
+    }
+
+    /**
+     * Rebuilds the rollup table from the items, including archived ones. Items without timestamps are not counted as
+     * created or completed, and deleted items are not counted as overdue.
+     * @return Number of rollup rows written
+     */
+    public int backfill() {
+        LocalDate today = LocalDate.now();
+        return UnitOfWork.run(entityManagerFactory, entityManager -> {
+            entityManager.createQuery("DELETE FROM DailyRollup").executeUpdate();
+            Map<Long, DailyRollup> rows = new HashMap<>();
+            addCounts(rows, entityManager.createNativeQuery(
+                    "SELECT CAST(createdAt AS DATE), priority, COUNT(*) FROM " + ALL_ITEMS + " " +
+                            "WHERE createdAt IS NOT NULL AND priority IS NOT NULL " +
+                            "GROUP BY CAST(createdAt AS DATE), priority")
+                    .getResultList(), 0);
+            addCounts(rows, entityManager.createNativeQuery(
+                    "SELECT CAST(completedAt AS DATE), priority, COUNT(*) FROM " + ALL_ITEMS + " " +
+                            "WHERE isCompleted AND completedAt IS NOT NULL AND priority IS NOT NULL " +
+                            "GROUP BY CAST(completedAt AS DATE), priority")
+                    .getResultList(), 1);
+            addCounts(rows, entityManager.createNativeQuery(
+                    "SELECT deadlineDate, priority, COUNT(*) FROM " + ALL_ITEMS + " " +
+                            "WHERE isActive AND deadlineDate IS NOT NULL AND priority IS NOT NULL " +
+                            "AND (NOT isCompleted OR (deadlineDate < ?1 AND CAST(completedAt AS DATE) > deadlineDate)) " +
+                            "GROUP BY deadlineDate, priority")
+                    .setParameter(1, java.sql.Date.valueOf(today))
+                    .getResultList(), 2);
+            for (DailyRollup row : rows.values())
+                entityManager.persist(row);
+            return rows.size();
+        });
+    }
+
+    /**
+     * Updates the rollup rows for a change of an item in the transaction of the given entity manager
+     * @param entityManager Entity manager with an active transaction
+     * @param before State of the item before the change, null for new items
+     * @param after State of the item after the change
+     */
+    static void record(EntityManager entityManager, Item before, Item after) {
+        Changes changes = new Changes();
+        changes.add(before, after);
+        changes.apply(entityManager);
+    }
+
+    // region Helper methods
+
+    @SuppressWarnings("unchecked")
+    private static void addCounts(Map<Long, DailyRollup> rows, List<?> results, int column) {
+        for (Object[] result : (List<Object[]>) results){
+            LocalDate day = ((java.sql.Date) result[0]).toLocalDate();
+            Priority priority = Priority.values()[((Number) result[1]).intValue()];
+            DailyRollup row = rows.computeIfAbsent(DailyRollup.idOf(day, priority), id -> new DailyRollup(day, priority));
+            int count = ((Number) result[2]).intValue();
+            if (column == 0)
+                row.created += count;
+            else if (column == 1)
+                row.completed += count;
+            else
+                row.dueOpen += count;
+        }
+    }
+
+    /**
+     * Inserts a rollup row holding the given counts in the transaction of the given entity manager. The row is
+     * detached after the insert, so later bulk updates of the same transaction don't leave a stale copy in the
+     * persistence context.
+     */
+    private static void insertRow(EntityManager entityManager, long id, int[] counts) {
+        int priorities = Priority.values().length;
+        DailyRollup row = new DailyRollup(LocalDate.ofEpochDay(Math.floorDiv(id, priorities)),
+                Priority.values()[Math.floorMod(id, priorities)]);
+        row.created = counts[0];
+        row.completed = counts[1];
+        row.dueOpen = counts[2];
+        entityManager.persist(row);
+        entityManager.flush();
+        entityManager.detach(row);
+    }
+
+    /**
+     * Count changes collected for one or more item changes and written with one update per rollup row
+     */
+    static class Changes {
+
+        private LocalDate today = LocalDate.now();
+        private Map<Long, int[]> deltas = new HashMap<>();
+
+        /**
+         * Adds the count changes caused by a change of an item
+         * @param before State of the item before the change, null for new items
+         * @param after State of the item after the change
+         */
+        void add(Item before, Item after) {
+            // Counts are kept under the current priority of the items, like the backfill computes them
+            if (before != null && before.createdAt != null && before.priority != null)
+                delta(before.createdAt.toLocalDate(), before.priority)[0]--;
+            if (after.createdAt != null && after.priority != null)
+                delta(after.createdAt.toLocalDate(), after.priority)[0]++;
+            if (completedOn(before) != null)
+                delta(completedOn(before), before.priority)[1]--;
+            if (completedOn(after) != null)
+                delta(completedOn(after), after.priority)[1]++;
+            if (isDue(before))
+                delta(before.deadlineDate, before.priority)[2]--;
+            if (isDue(after))
+                delta(after.deadlineDate, after.priority)[2]++;
+        }
+
+        /**
+         * Writes the collected changes in the transaction of the given entity manager
+         * @param entityManager Entity manager with an active transaction
+         */
+        void apply(EntityManager entityManager) {
+            for (Map.Entry<Long, int[]> delta : deltas.entrySet()){
+                int[] counts = delta.getValue();
+                if (counts[0] == 0 && counts[1] == 0 && counts[2] == 0)
+                    continue;
+                if (update(entityManager, delta.getKey(), counts) == 0)
+                    insertRow(entityManager, delta.getKey(), counts);
+            }
+            deltas.clear();
+        }
+
+        private int[] delta(LocalDate day, Priority priority) {
+            return deltas.computeIfAbsent(DailyRollup.idOf(day, priority), id -> new int[3]);
+        }
+
+        private LocalDate completedOn(Item item) {
+            return (item != null && item.isCompleted && item.completedAt != null && item.priority != null) ?
+                    item.completedAt.toLocalDate() : null;
+        }
+
+        /**
+         * Checks whether an item is counted in dueOpen under its deadline, with the same condition as the backfill:
+         * active items that are open, or that were completed only after their deadline had passed. Deleted items are
+         * not counted, even if they went overdue before they were deleted.
+         */
+        private boolean isDue(Item item) {
+            return item != null && item.isActive && item.priority != null && item.deadlineDate != null &&
+                    (!item.isCompleted || (item.deadlineDate.isBefore(today) && item.completedAt != null &&
+                            item.completedAt.toLocalDate().isAfter(item.deadlineDate)));
+        }
+
+        private static int update(EntityManager entityManager, long id, int[] counts) {
+            return entityManager.createQuery("UPDATE DailyRollup r SET r.created = r.created + :created, " +
+                    "r.completed = r.completed + :completed, r.dueOpen = r.dueOpen + :dueOpen WHERE r.id = :id")
+                    .setParameter("created", counts[0])
+                    .setParameter("completed", counts[1])
+                    .setParameter("dueOpen", counts[2])
+                    .setParameter("id", id)
+                    .executeUpdate();
+        }
+    }
+    // endregion
+}
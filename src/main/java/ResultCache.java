@@ -0,0 +1,130 @@
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the results of list and aggregate queries, valid until the next write to the database.
+ *
+ * Every database has a write version that is bumped after each committed unit of work that changed data, and after
+ * changes of other processes are polled by cache coherence. A result is cached with the version read before its query
+ * ran and served only while the version is unchanged, so repeated reads between writes cost a version check. Keys
+ * hold the operation, its parameters and today's date, so results that depend on the date become stale at midnight.
+ * Reads made in a unit of work that has uncommitted changes bypass the cache, since they must see those changes.
+ *
+ * Cached results are shared between callers and must not be changed.
+ */
+public class ResultCache {
+
+    private static final Map<EntityManagerFactory, AtomicLong> versions =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private EntityManagerFactory entityManagerFactory;
+    private Map<List<Object>, Entry> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor with entityManagerFactory injection
+     * @param entityManagerFactory Entity manager factory of the database whose write version the results follow
+     * @param capacity Maximum number of results kept, the least recently used is dropped first
+     */
+    public ResultCache(EntityManagerFactory entityManagerFactory, int capacity){
+        this.entityManagerFactory = entityManagerFactory;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets a result from the cache, running the query if it is missing or stale
+     * @param operation Name of the operation, for example ItemController.getItems
+     * @param parameters Parameters of the operation with equals and hashCode, null if none
+     * @param query Query computing the result, which must not be changed afterwards
+     * @param <T> Type of the result
+     * @return Cached or new result
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String operation, Object parameters, Supplier<T> query) {
+        if (UnitOfWork.hasChanges(entityManagerFactory))
+            return query.get();
+        long version = version(entityManagerFactory);
+        List<Object> key = Arrays.asList(operation, parameters, LocalDate.now());
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == version){
+                hits++;
+                return (T) entry.result;
+            }
+            misses++;
+        }
+        // A write committing while the query runs bumps the version past the one the result is stored with
+        T result = query.get();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.version < version)
+                entries.put(key, new Entry(version, result));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of reads served from the cache
+     * @return Number of hits since the cache was created
+     */
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of reads that ran their query
+     * @return Number of misses since the cache was created
+     */
+    public synchronized long missCount() {
+        return misses;
+    }
+
+    /**
+     * Gets the write version of a database
+     * @param entityManagerFactory Entity manager factory of the database
+     * @return Number of writes seen so far
+     */
+    public static long version(EntityManagerFactory entityManagerFactory) {
+        return versions.computeIfAbsent(entityManagerFactory, key -> new AtomicLong()).get();
+    }
+
+    /**
+     * Bumps the write version of a database, making every cached result of it stale. Called once changes are
+     * committed and visible to other transactions.
+     * @param entityManagerFactory Entity manager factory of the database
+     */
+    public static void bump(EntityManagerFactory entityManagerFactory) {
+        versions.computeIfAbsent(entityManagerFactory, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    // region Helper methods
+
+    /**
+     * Result and the write version it was read at
+     */
+    private static class Entry {
+
+        private long version;
+        private Object result;
+
+        Entry(long version, Object result){
+            this.version = version;
+            this.result = result;
+        }
+    }
+    // endregion
+}
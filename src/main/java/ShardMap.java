@@ -0,0 +1,54 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring mapping to-do list names to shard names. Every shard is placed on the ring at several
+ * points, so adding a shard only moves the lists that fall between its points and their predecessors.
+ */
+public class ShardMap {
+
+    private static final int POINTS_PER_SHARD = 64;
+
+    private TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * Adds a shard to the ring
+     * @param shardName Name of the shard
+     */
+    public synchronized void addShard(String shardName) {
+        for (int i = 0; i < POINTS_PER_SHARD; i++)
+            ring.put(hash(shardName + "#" + i), shardName);
+    }
+
+    /**
+     * Gets the shard a list belongs to
+     * @param listName Name of the to-do list, null for the default list
+     * @return Name of the shard, null if no shards have been added
+     */
+    public synchronized String shardFor(String listName) {
+        if (ring.isEmpty())
+            return null;
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(listName == null ? "" : listName));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Hashes a key to a position on the ring using the first eight bytes of its MD5 digest
+     * @param key Key to hash
+     * @return Position on the ring
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++)
+                hash = (hash << 8) | (digest[i] & 0xff);
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
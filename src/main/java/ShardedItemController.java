@@ -0,0 +1,483 @@
+import org.hibernate.ReplicationMode;
+import org.hibernate.Session;
+import org.roaringbitmap.RoaringBitmap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.LockModeType;
+import javax.persistence.Persistence;
+import javax.persistence.TypedQuery;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Controller for items on named to-do lists spread over several databases. Every list lives entirely in one shard
+ * chosen by a consistent hash of its name, so operations on a single list go to one database, while queries over
+ * all lists run on every shard in parallel and merge the results.
+ * Every shard draws new item ids from its own block of SHARD_ID_BLOCK ids, so ids are unique across shards and
+ * items keep their ids when their list moves. Single items are still addressed by list name and id.
+ *
+ * The console application in Main works on a single database and does not use sharding; this controller is for
+ * programs that embed the to-do list with several databases.
+ */
+public class ShardedItemController {
+
+    /**
+     * Number of item ids reserved for each shard, in the order the shards are added
+     */
+    static final long SHARD_ID_BLOCK = 1L << 24;
+    static final int MAX_SHARDS = (int) (Integer.MAX_VALUE / SHARD_ID_BLOCK);
+    private static final int DELETE_CHUNK_SIZE = 1000;
+
+    private ShardMap shardMap = new ShardMap();
+    private Map<String, EntityManagerFactory> factories = new LinkedHashMap<>();
+    private Map<String, ItemController> controllers = new HashMap<>();
+    private ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Opens a shard database using the settings of a persistence unit with a different JDBC url
+     * @param persistenceUnit Name of the persistence unit whose settings to use
+     * @param jdbcUrl JDBC url of the shard database
+     * @return Entity manager factory for the shard
+     */
+    public static EntityManagerFactory openShard(String persistenceUnit, String jdbcUrl) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("javax.persistence.jdbc.url", jdbcUrl);
+        return Persistence.createEntityManagerFactory(persistenceUnit, properties);
+    }
+
+    /**
+     * Adds a shard. Lists that the hash ring now assigns to the new shard are moved to it from the shards that held
+     * them; all other lists stay where they are. Moved items keep their ids, and archived items stay archived.
+     * Shards must be added in the same order every time the same databases are opened, since the position of a shard
+     * decides the block its ids are drawn from.
+     * Each list is moved in its own pair of transactions: the items are copied into the new shard and committed,
+     * then deleted from the old shard. If the delete fails, the copies are deleted again. A list left in both shards
+     * by a failure is moved again by calling addShard again with the same shard.
+     * @param shardName Name of the shard, or of a shard already added to resume moving lists to it
+     * @param entityManagerFactory Entity manager factory of the shard database
+     * @return Number of items moved to the new shard
+     */
+    public synchronized int addShard(String shardName, EntityManagerFactory entityManagerFactory) {
+        if (!factories.containsKey(shardName)){
+            if (factories.size() >= MAX_SHARDS)
+                throw new IllegalStateException("At most " + MAX_SHARDS + " shards are supported");
+            reserveIds(entityManagerFactory, factories.size());
+            shardMap.addShard(shardName);
+            factories.put(shardName, entityManagerFactory);
+            controllers.put(shardName, new ItemController(entityManagerFactory));
+        } else if (factories.get(shardName) != entityManagerFactory)
+            throw new IllegalArgumentException("Shard " + shardName + " was added with another database");
+        int moved = 0;
+        for (Map.Entry<String, EntityManagerFactory> shard : factories.entrySet()){
+            if (shard.getKey().equals(shardName))
+                continue;
+            Set<String> listNames = UnitOfWork.run(shard.getValue(), entityManager -> {
+                Set<String> names = new LinkedHashSet<>(entityManager.createQuery(
+                        "SELECT DISTINCT i.listName FROM Item i", String.class)
+                        .getResultList());
+                names.addAll(entityManager.createQuery("SELECT DISTINCT a.listName FROM ArchivedItem a", String.class)
+                        .getResultList());
+                return names;
+            });
+            for (String listName : listNames){
+                if (shardName.equals(shardMap.shardFor(listName)))
+                    moved += moveList(listName, shard.getKey(), shardName);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Creates a new todo item on a list
+     * @param listName Name of the to-do list
+     * @param description Description of the item
+     * @param priority Priority of the item
+     * @param deadlineDate Deadline date of the item
+     * @return True if item created successfully
+     */
+    public boolean createItem(String listName, String description, Priority priority, LocalDate deadlineDate) {
+        return controllerFor(listName).createItem(listName, description, priority, deadlineDate);
+    }
+
+    /**
+     * Gets an item of a list by id
+     * @param listName Name of the to-do list
+     * @param id Id of the item to get
+     * @return Item if found on the list, null if not found or deleted
+     */
+    public Item getItem(String listName, int id) {
+        Item item = controllerFor(listName).getItem(id);
+        return (item != null && sameList(listName, item.listName)) ? item : null;
+    }
+
+    /**
+     * Gets the items of one list matching a filter
+     * @param listName Name of the to-do list
+     * @param query Filter to apply to the items of the list
+     * @return List of items matching the filter
+     */
+    public List<Item> getItems(String listName, ItemQuery query) {
+        return controllerFor(listName).getItems(query.list(listName));
+    }
+
+    /**
+     * Gets the items of all lists, querying every shard in parallel
+     * @param getExpiredItems If true, fetches items whose deadlines are in the past.
+     *                        If false, fetches items whose deadlines are in the future.
+     * @return Items of every list in the same order as ItemController.getItems
+     */
+    public List<Item> getItems(boolean getExpiredItems) {
+        // Like the ORDER BY of ItemQuery.futureItems and pastItems: by deadline, then by id
+        Comparator<Item> byDeadline = Comparator.comparing((Item item) -> item.deadlineDate);
+        Comparator<Item> order = (getExpiredItems ? byDeadline.reversed() : byDeadline)
+                .thenComparingInt(item -> item.id);
+        List<Item> items = new ArrayList<>();
+        for (List<Item> shardItems : fanOut(controller -> controller.getItems(getExpiredItems)))
+            items.addAll(shardItems);
+        items.sort(order);
+        return items;
+    }
+
+    /**
+     * Counts upcoming items of all lists per day and priority, querying every shard in parallel
+     * @return Counts indexed by days from today and priority ordinal, as in ItemController.getHistogram
+     */
+    public int[][] getHistogram() {
+        int[][] histogram = new int[8][Priority.values().length];
+        for (int[][] shardHistogram : fanOut(ItemController::getHistogram)){
+            for (int day = 0; day < histogram.length; day++)
+                for (int priority = 0; priority < histogram[day].length; priority++)
+                    histogram[day][priority] += shardHistogram[day][priority];
+        }
+        return histogram;
+    }
+
+    /**
+     * Updates an item of a list with new values
+     * @param listName Name of the to-do list
+     * @param id Id of the item to update
+     * @param description New description of the item
+     * @param priority New priority of the item
+     * @param deadlineDate New deadline date of the item
+     * @param isCompleted New completion status of the item
+     * @return True if the item was updated. False if the item was not found on the list or it was deleted.
+     */
+    public boolean updateItem(String listName, int id, String description, Priority priority, LocalDate deadlineDate,
+                              boolean isCompleted) {
+        return getItem(listName, id) != null &&
+                controllerFor(listName).updateItem(id, description, priority, deadlineDate, isCompleted);
+    }
+
+    /**
+     * Toggles the completion status of an item of a list
+     * @param listName Name of the to-do list
+     * @param id Id of the item whose status to toggle
+     * @return True if the status was toggled. False if the item was not found on the list or was deleted.
+     */
+    public boolean toggleCompleted(String listName, int id) {
+        return getItem(listName, id) != null && controllerFor(listName).toggleCompleted(id);
+    }
+
+    /**
+     * Soft deletes an item of a list
+     * @param listName Name of the to-do list
+     * @param id Id of the item to delete
+     * @return True if the item was deleted. False if the item was not found on the list or it was already deleted.
+     */
+    public boolean deleteItem(String listName, int id) {
+        return getItem(listName, id) != null && controllerFor(listName).deleteItem(id);
+    }
+
+    /**
+     * Gets the tags of an item of a list
+     * @param listName Name of the to-do list
+     * @param id Id of the item
+     * @return Tags of the item, null if the item was not found on the list or was deleted
+     */
+    public Set<String> getTags(String listName, int id) {
+        return getItem(listName, id) != null ? controllerFor(listName).getTags(id) : null;
+    }
+
+    /**
+     * Replaces the tags of an item of a list
+     * @param listName Name of the to-do list
+     * @param id Id of the item
+     * @param tags New tags of the item
+     * @return True if the tags were set. False if the item was not found on the list or it was deleted.
+     */
+    public boolean setTags(String listName, int id, Collection<String> tags) {
+        return getItem(listName, id) != null && controllerFor(listName).setTags(id, tags);
+    }
+
+    /**
+     * Gets the note of an item of a list
+     * @param listName Name of the to-do list
+     * @param id Id of the item
+     * @return Text of the note, null if the item has no note or was not found on the list or was deleted
+     */
+    public String getNote(String listName, int id) {
+        return getItem(listName, id) != null ? controllerFor(listName).getNote(id) : null;
+    }
+
+    /**
+     * Replaces the note of an item of a list
+     * @param listName Name of the to-do list
+     * @param id Id of the item
+     * @param body New text of the note, null or blank to remove the note
+     * @return True if the note was set. False if the item was not found on the list or it was deleted.
+     */
+    public boolean setNote(String listName, int id, String body) {
+        return getItem(listName, id) != null && controllerFor(listName).setNote(id, body);
+    }
+
+    /**
+     * Gets the name of the shard holding a list
+     * @param listName Name of the to-do list
+     * @return Name of the shard
+     */
+    public String shardFor(String listName) {
+        return shardMap.shardFor(listName);
+    }
+
+    /**
+     * Stops the threads used for querying shards. The shard entity manager factories are left open.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    // region Helper methods
+
+    private synchronized ItemController controllerFor(String listName) {
+        String shardName = shardMap.shardFor(listName);
+        if (shardName == null)
+            throw new IllegalStateException("No shards have been added");
+        return controllers.get(shardName);
+    }
+
+    private static boolean sameList(String listName, String otherListName) {
+        return listName == null ? otherListName == null : listName.equals(otherListName);
+    }
+
+    /**
+     * Runs an operation on every shard in parallel
+     * @param operation Operation to run on the controller of each shard
+     * @param <T> Type of the result of the operation
+     * @return Results of every shard
+     */
+    private <T> List<T> fanOut(Function<ItemController, T> operation) {
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        synchronized (this) {
+            for (ItemController controller : controllers.values())
+                futures.add(CompletableFuture.supplyAsync(() -> operation.apply(controller), executor));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures)
+            results.add(future.join());
+        return results;
+    }
+
+    /**
+     * Moves the item ids the sequence of a shard hands out next to the block of the shard
+     * @param entityManagerFactory Entity manager factory of the shard database
+     * @param shardIndex Position of the shard in the order the shards are added
+     */
+    private static void reserveIds(EntityManagerFactory entityManagerFactory, int shardIndex) {
+        IdSequences.advance(entityManagerFactory);
+        UnitOfWork.run(entityManagerFactory, entityManager -> {
+            entityManager.unwrap(Session.class).doWork(connection ->
+                    IdSequences.advance(connection, IdSequences.ITEM, shardIndex * SHARD_ID_BLOCK));
+            return null;
+        });
+    }
+
+    /**
+     * Moves the items of a list, archived or not, and their notes to another shard keeping their ids and state. The
+     * copies are committed in the target shard before the items are deleted from the source shard, and deleted again
+     * if that fails, so a failure leaves the list in the source shard and possibly also in the target shard, from
+     * where the next move replaces it.
+     * @param listName Name of the to-do list
+     * @param sourceName Name of the shard holding the list
+     * @param targetName Name of the shard to move the list to
+     * @return Number of items moved
+     */
+    private int moveList(String listName, String sourceName, String targetName) {
+        EntityManagerFactory sourceFactory = factories.get(sourceName);
+        EntityManagerFactory targetFactory = factories.get(targetName);
+        List<Integer> ids = new ArrayList<>();
+        boolean copied = false;
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(sourceFactory)) {
+            EntityManager source = unitOfWork.getEntityManager();
+            TypedQuery<Item> select = source.createQuery("SELECT i FROM Item i WHERE " +
+                    (listName == null ? "i.listName IS NULL" : "i.listName = :listName") + " ORDER BY i.id", Item.class)
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE);
+            if (listName != null)
+                select.setParameter("listName", listName);
+            List<Item> items = select.getResultList();
+            TypedQuery<ArchivedItem> selectArchived = source.createQuery("SELECT a FROM ArchivedItem a WHERE " +
+                    (listName == null ? "a.listName IS NULL" : "a.listName = :listName") + " ORDER BY a.id",
+                    ArchivedItem.class)
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE);
+            if (listName != null)
+                selectArchived.setParameter("listName", listName);
+            List<ArchivedItem> archivedItems = selectArchived.getResultList();
+            if (items.isEmpty() && archivedItems.isEmpty())
+                return 0;
+            List<Item> copies = new ArrayList<>(items.size());
+            for (Item item : items){
+                ids.add(item.id);
+                copies.add(copyOf(item));
+            }
+            List<ArchivedItem> archivedCopies = new ArrayList<>(archivedItems.size());
+            for (ArchivedItem archivedItem : archivedItems){
+                ids.add(archivedItem.id);
+                archivedCopies.add(copyOf(archivedItem));
+            }
+            ids.sort(Comparator.naturalOrder());
+            List<ItemNote> notes = source.createQuery("SELECT n FROM ItemNote n WHERE n.itemId IN :ids", ItemNote.class)
+                    .setParameter("ids", ids)
+                    .getResultList();
+            UnitOfWork.run(targetFactory, target -> {
+                // Copies left by an earlier failed move may have notes the items no longer have
+                deleteItems(target, ids);
+                DescriptionDictionary.resolve(target, copies);
+                resolveDescriptions(target, archivedCopies);
+                Session session = target.unwrap(Session.class);
+                // Replicating keeps the ids
+                for (Item copy : copies)
+                    session.replicate(copy, ReplicationMode.OVERWRITE);
+                for (ArchivedItem copy : archivedCopies)
+                    session.replicate(copy, ReplicationMode.OVERWRITE);
+                for (ItemNote note : notes){
+                    ItemNote copy = new ItemNote(note.itemId, note.body);
+                    copy.updatedAt = note.updatedAt;
+                    session.replicate(copy, ReplicationMode.OVERWRITE);
+                }
+                CacheCoherence.record(target, CacheCoherence.ITEM, ids.get(0), ids.get(ids.size() - 1));
+                return null;
+            });
+            copied = true;
+            deleteItems(source, ids);
+            CacheCoherence.record(source, CacheCoherence.ITEM, ids.get(0), ids.get(ids.size() - 1));
+            unitOfWork.complete();
+        } catch (RuntimeException e) {
+            if (copied){
+                try {
+                    UnitOfWork.run(targetFactory, target -> {
+                        deleteItems(target, ids);
+                        CacheCoherence.record(target, CacheCoherence.ITEM, ids.get(0), ids.get(ids.size() - 1));
+                        return null;
+                    });
+                } catch (RuntimeException undoFailure) {
+                    e.addSuppressed(undoFailure);
+                }
+            }
+            throw e;
+        }
+        RoaringBitmap movedIds = new RoaringBitmap();
+        for (int id : ids)
+            movedIds.add(id);
+        controllers.get(sourceName).invalidate(movedIds);
+        controllers.get(targetName).invalidate(movedIds);
+        return ids.size();
+    }
+
+    /**
+     * Creates an unmanaged copy of an item with the same id and state for writing to another shard
+     * @param item Item loaded by an open entity manager
+     * @return Copy of the item
+     */
+    private static Item copyOf(Item item) {
+        Item copy = new Item(item.description, item.priority, item.deadlineDate);
+        copy.id = item.id;
+        copy.listName = item.listName;
+        copy.isCompleted = item.isCompleted;
+        copy.isActive = item.isActive;
+        copy.createdAt = item.createdAt;
+        copy.completedAt = item.completedAt;
+        copy.tags = new HashSet<>(item.tags);
+        return copy;
+    }
+
+    /**
+     * Creates an unmanaged copy of an archived item with the same id and state for writing to another shard
+     * @param archivedItem Archived item loaded by an open entity manager
+     * @return Copy of the archived item
+     */
+    private static ArchivedItem copyOf(ArchivedItem archivedItem) {
+        ArchivedItem copy = new ArchivedItem();
+        copy.id = archivedItem.id;
+        copy.archiveMonth = archivedItem.archiveMonth;
+        copy.description = archivedItem.description;
+        copy.priority = archivedItem.priority;
+        copy.deadlineDate = archivedItem.deadlineDate;
+        copy.isCompleted = archivedItem.isCompleted;
+        copy.isActive = archivedItem.isActive;
+        copy.listName = archivedItem.listName;
+        copy.createdAt = archivedItem.createdAt;
+        copy.completedAt = archivedItem.completedAt;
+        copy.tags = new HashSet<>(archivedItem.tags);
+        return copy;
+    }
+
+    /**
+     * Sets the description ids of archived items from the dictionary of the database they are written to
+     * @param entityManager Entity manager of the target database
+     * @param archivedItems Archived items whose descriptionId is set from their description
+     */
+    private static void resolveDescriptions(EntityManager entityManager, List<ArchivedItem> archivedItems) {
+        List<Item> items = new ArrayList<>(archivedItems.size());
+        for (ArchivedItem archivedItem : archivedItems)
+            items.add(new Item(archivedItem.description, archivedItem.priority, archivedItem.deadlineDate));
+        DescriptionDictionary.resolve(entityManager, items);
+        for (int i = 0; i < archivedItems.size(); i++)
+            archivedItems.get(i).descriptionId = items.get(i).descriptionId;
+    }
+
+    /**
+     * Deletes items with their tags and notes by id in the transaction of the given entity manager, from the archive
+     * as well as from the hot table
+     * @param entityManager Entity manager with an active transaction
+     * @param ids Ids of the items to delete
+     */
+    private static void deleteItems(EntityManager entityManager, List<Integer> ids) {
+        for (int i = 0; i < ids.size(); i += DELETE_CHUNK_SIZE){
+            List<Integer> chunk = ids.subList(i, Math.min(i + DELETE_CHUNK_SIZE, ids.size()));
+            entityManager.createQuery("DELETE FROM ItemNote n WHERE n.itemId IN :ids")
+                    .setParameter("ids", chunk)
+                    .executeUpdate();
+            // Bulk deletes skip the tag collection, whose rows reference the items
+            entityManager.createNativeQuery("DELETE FROM ItemTag WHERE itemId IN (:ids)")
+                    .setParameter("ids", chunk)
+                    .executeUpdate();
+            entityManager.createQuery("DELETE FROM Item i WHERE i.id IN :ids")
+                    .setParameter("ids", chunk)
+                    .executeUpdate();
+            entityManager.createNativeQuery("DELETE FROM ArchivedItemTag WHERE itemId IN (:ids)")
+                    .setParameter("ids", chunk)
+                    .executeUpdate();
+            entityManager.createQuery("DELETE FROM ArchivedItem a WHERE a.id IN :ids")
+                    .setParameter("ids", chunk)
+                    .executeUpdate();
+        }
+    }
+    // endregion
+}
@@ -0,0 +1,627 @@
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of all items and templates for restarting with the same data.
+ *
+ * The file starts with a magic number and a format version, followed by the items and templates sorted by id. Ids are
+ * stored as varint deltas, strings as varint dictionary indexes and dates as fixed-width epoch days, so a typical item
+ * takes a couple of dozen bytes. Version 2 added the creation and completion times of items, version 3 the tags of
+ * items after the templates and version 4 the notes of items after the tags, stored as length-prefixed UTF-8 outside
+ * the dictionary. Up to version 4 the dictionary of every distinct string came first and each section started with a
+ * varint count; since version 5 a string follows its index where it is first used, the counts are fixed-width ints
+ * filled in after each section and note bodies are split into length-prefixed chunks, so the file is written in one
+ * streaming pass without holding a whole note in memory. Version 5 also added the dependencies between items after
+ * the notes, as pairs of a varint blocker id delta and a varint blocked id. Older files can still be restored.
+ * Archived items are written like the other items and restored into the hot table, from which the archive moves them
+ * again.
+ * Both directions use plain JDBC with streaming reads and batched inserts instead of loading entities.
+ */
+public class Snapshot {
+
+    private static final int MAGIC = 0x54445331;
+    private static final int VERSION = 5;
+    private static final int BATCH_SIZE = 1000;
+    private static final int NULL_DATE = Integer.MIN_VALUE;
+    private static final long NULL_TIME = Long.MIN_VALUE;
+    private static final int NULL_ENUM = 0xFF;
+
+    private Snapshot(){}
+
+    /**
+     * Writes all items and templates, including deleted ones, to a snapshot file. The snapshot is written to a
+     * temporary file in the same directory that then replaces the file, so an existing snapshot is only replaced by a
+     * complete one.
+     * @param entityManagerFactory Entity manager factory of the database to snapshot
+     * @param file File to write
+     * @return Number of items and templates written
+     * @throws IOException If the file could not be written
+     */
+    public static int write(EntityManagerFactory entityManagerFactory, Path file) throws IOException {
+        try {
+            return writeFile(entityManagerFactory, file);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static int writeFile(EntityManagerFactory entityManagerFactory, Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            int count;
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                SnapshotOutput out = new SnapshotOutput(channel);
+                count = UnitOfWork.run(entityManagerFactory, entityManager ->
+                        entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                            try {
+                                return writeRows(connection, out);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }));
+                out.flush();
+                channel.force(true);
+            }
+            // Readers of the file never see a partly written snapshot
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Streams the rows of every section to the file in one transaction
+     * @return Number of items and templates written
+     */
+    private static int writeRows(Connection connection, SnapshotOutput out) throws SQLException, IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        try (Statement statement = connection.createStatement()) {
+            long section = out.beginSection();
+            int itemCount = 0;
+            int previousId = 0;
+            try (ResultSet rs = statement.executeQuery("SELECT i.id, d.text, i.priority, i.deadlineDate, " +
+                    "i.isCompleted, i.isActive, i.listName, i.createdAt, i.completedAt FROM Item i " +
+                    "LEFT JOIN ItemDescription d ON d.id = i.descriptionId UNION ALL " +
+                    "SELECT a.id, d.text, a.priority, a.deadlineDate, a.isCompleted, a.isActive, a.listName, " +
+                    "a.createdAt, a.completedAt FROM ArchivedItem a " +
+                    "LEFT JOIN ItemDescription d ON d.id = a.descriptionId ORDER BY 1")) {
+                while (rs.next()){
+                    int id = rs.getInt(1);
+                    writeVarInt(out, id - previousId);
+                    previousId = id;
+                    out.writeString(rs.getString(2));
+                    out.writeByte(enumOrdinal(rs, 3));
+                    out.writeInt(epochDay(rs.getDate(4)));
+                    out.writeByte((rs.getBoolean(5) ? 1 : 0) | (rs.getBoolean(6) ? 2 : 0));
+                    out.writeString(rs.getString(7));
+                    out.writeLong(epochMillis(rs.getTimestamp(8)));
+                    out.writeLong(epochMillis(rs.getTimestamp(9)));
+                    itemCount++;
+                }
+            }
+            out.endSection(section, itemCount);
+
+            section = out.beginSection();
+            int templateCount = 0;
+            previousId = 0;
+            try (ResultSet rs = statement.executeQuery("SELECT id, name, description, priority, daysToAdd, " +
+                    "isActive, recurrence, recurrenceInterval, recurrenceStart, generatedUntil " +
+                    "FROM Template ORDER BY id")) {
+                while (rs.next()){
+                    int id = rs.getInt(1);
+                    writeVarInt(out, id - previousId);
+                    previousId = id;
+                    out.writeString(rs.getString(2));
+                    out.writeString(rs.getString(3));
+                    out.writeByte(enumOrdinal(rs, 4));
+                    out.writeLong(rs.getLong(5));
+                    out.writeByte(rs.getBoolean(6) ? 2 : 0);
+                    out.writeByte(enumOrdinal(rs, 7));
+                    out.writeInt(rs.getInt(8));
+                    out.writeInt(epochDay(rs.getDate(9)));
+                    out.writeInt(epochDay(rs.getDate(10)));
+                    templateCount++;
+                }
+            }
+            out.endSection(section, templateCount);
+
+            section = out.beginSection();
+            int tagCount = 0;
+            previousId = 0;
+            try (ResultSet rs = statement.executeQuery("SELECT itemId, tag FROM ItemTag UNION ALL " +
+                    "SELECT itemId, tag FROM ArchivedItemTag ORDER BY itemId")) {
+                while (rs.next()){
+                    int id = rs.getInt(1);
+                    writeVarInt(out, id - previousId);
+                    previousId = id;
+                    out.writeString(rs.getString(2));
+                    tagCount++;
+                }
+            }
+            out.endSection(section, tagCount);
+
+            section = out.beginSection();
+            int noteCount = 0;
+            previousId = 0;
+            try (ResultSet rs = statement.executeQuery("SELECT itemId, body, updatedAt FROM ItemNote ORDER BY itemId")) {
+                while (rs.next()){
+                    int id = rs.getInt(1);
+                    writeVarInt(out, id - previousId);
+                    previousId = id;
+                    // Notes can be megabytes long, so the body is copied in chunks instead of as one string
+                    try (Reader body = rs.getCharacterStream(2);
+                         Writer chunks = new OutputStreamWriter(new ChunkOutputStream(out), StandardCharsets.UTF_8)) {
+                        body.transferTo(chunks);
+                    }
+                    out.writeLong(epochMillis(rs.getTimestamp(3)));
+                    noteCount++;
+                }
+            }
+            out.endSection(section, noteCount);
+
+            section = out.beginSection();
+            int dependencyCount = 0;
+            previousId = 0;
+            try (ResultSet rs = statement.executeQuery("SELECT blockerId, blockedId FROM ItemDependency " +
+                    "ORDER BY blockerId, blockedId")) {
+                while (rs.next()){
+                    int id = rs.getInt(1);
+                    writeVarInt(out, id - previousId);
+                    previousId = id;
+                    writeVarInt(out, rs.getInt(2));
+                    dependencyCount++;
+                }
+            }
+            out.endSection(section, dependencyCount);
+            return itemCount + templateCount;
+        }
+    }
+
+    /**
+     * Loads a snapshot file into an empty database. The rows keep their ids and the id sequences are then moved past
+     * them, so this must be called before any item or template is created through the entity manager factory.
+     * @param entityManagerFactory Entity manager factory of the database to restore into
+     * @param file Snapshot file to read
+     * @return Number of items and templates restored
+     * @throws IOException If the file could not be read or is not a snapshot
+     * @throws IllegalStateException If the database already contains items or templates
+     */
+    public static int restore(EntityManagerFactory entityManagerFactory, Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a snapshot file");
+            int version = in.readInt();
+            if (version < 1 || version > VERSION)
+                throw new IOException("Unsupported snapshot version " + version);
+            List<String> strings = new ArrayList<>();
+            strings.add(null);
+            if (version < 5){
+                int stringCount = readVarInt(in);
+                for (int i = 0; i < stringCount; i++)
+                    strings.add(readUtf8(in));
+            }
+            int[] count = new int[1];
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            entityManager.getTransaction().begin();
+            try {
+                entityManager.unwrap(Session.class).doWork(connection -> {
+                    try (Statement statement = connection.createStatement();
+                         ResultSet rs = statement.executeQuery(
+                                 "SELECT (SELECT COUNT(*) FROM Item) + (SELECT COUNT(*) FROM ArchivedItem) + " +
+                                 "(SELECT COUNT(*) FROM Template)")) {
+                        rs.next();
+                        if (rs.getLong(1) > 0)
+                            throw new IllegalStateException("Snapshots can only be restored into an empty database");
+                    }
+                    try {
+                        count[0] = restoreItems(connection, in, strings, version) +
+                                restoreTemplates(connection, in, strings, version);
+                        if (version > 2)
+                            restoreTags(connection, in, strings, version);
+                        if (version > 3)
+                            restoreNotes(connection, in, version);
+                        if (version > 4)
+                            restoreDependencies(connection, in, version);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                entityManager.getTransaction().commit();
+                ResultCache.bump(entityManagerFactory);
+                IdSequences.advance(entityManagerFactory);
+            } finally {
+                if (entityManager.getTransaction().isActive())
+                    entityManager.getTransaction().rollback();
+                entityManager.close();
+            }
+            return count[0];
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Buffered output to the snapshot file that fills in the count of each section once its rows are written and
+     * writes every string the first time it is used, so the rows are streamed to the file as they are read
+     */
+    private static class SnapshotOutput extends DataOutputStream {
+
+        private FileChannel channel;
+        private Map<String, Integer> dictionary = new HashMap<>();
+
+        private SnapshotOutput(FileChannel channel) {
+            super(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            this.channel = channel;
+        }
+
+        /**
+         * Writes a placeholder for the count of a section
+         * @return Position of the placeholder in the file
+         */
+        private long beginSection() throws IOException {
+            flush();
+            long position = channel.position();
+            writeInt(0);
+            return position;
+        }
+
+        private void endSection(long position, int count) throws IOException {
+            flush();
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).putInt(0, count);
+            while (buffer.hasRemaining())
+                channel.write(buffer, position + buffer.position());
+        }
+
+        /**
+         * Writes the dictionary index of a string, 0 for null, followed by the string if it is new
+         */
+        private void writeString(String value) throws IOException {
+            if (value == null){
+                writeVarInt(this, 0);
+                return;
+            }
+            Integer index = dictionary.get(value);
+            if (index != null){
+                writeVarInt(this, index);
+                return;
+            }
+            index = dictionary.size() + 1;
+            dictionary.put(value, index);
+            writeVarInt(this, index);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(this, bytes.length);
+            write(bytes);
+        }
+    }
+
+    /**
+     * Writes the bytes of a note body as varint-length-prefixed chunks ended by an empty chunk, so the body is copied
+     * to the file without knowing its length first. Closing ends the body without closing the snapshot.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+
+        private OutputStream out;
+
+        private ChunkOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0)
+                return;
+            writeVarInt(out, length);
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeVarInt(out, 0);
+        }
+    }
+
+    /**
+     * Reads a note body written by ChunkOutputStream, ending at its empty chunk
+     */
+    private static class ChunkInputStream extends InputStream {
+
+        private InputStream in;
+        private int remaining;
+        private boolean ended;
+
+        private ChunkInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] bytes = new byte[1];
+            return read(bytes, 0, 1) < 0 ? -1 : bytes[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            while (remaining == 0){
+                if (ended)
+                    return -1;
+                remaining = readVarInt(in);
+                ended = remaining == 0;
+            }
+            int read = in.read(bytes, offset, Math.min(length, remaining));
+            if (read < 0)
+                throw new IOException("Unexpected end of snapshot");
+            remaining -= read;
+            return read;
+        }
+
+        /**
+         * Skips what the reader of the body left unread, so the snapshot continues after the body
+         */
+        private void skipToEnd() throws IOException {
+            byte[] bytes = new byte[8192];
+            while (read(bytes, 0, bytes.length) >= 0){
+                // Discard
+            }
+        }
+    }
+
+    // region Helper methods
+
+    private static int restoreItems(Connection connection, DataInputStream in, List<String> strings, int version)
+            throws SQLException, IOException {
+        int count = readCount(in, version);
+        int id = 0;
+        Map<Integer, Integer> descriptionIds = new HashMap<>();
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO Item (id, descriptionId, priority, " +
+                "deadlineDate, isCompleted, isActive, listName, createdAt, completedAt) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < count; i++){
+                id += readVarInt(in);
+                insert.setInt(1, id);
+                int description = readStringIndex(in, strings);
+                if (!descriptionIds.containsKey(description))
+                    descriptionIds.put(description, DescriptionDictionary.idOf(connection, strings.get(description)));
+                insert.setObject(2, descriptionIds.get(description), Types.INTEGER);
+                setEnumOrdinal(insert, 3, in.readUnsignedByte());
+                setDate(insert, 4, in.readInt());
+                int flags = in.readUnsignedByte();
+                insert.setBoolean(5, (flags & 1) != 0);
+                insert.setBoolean(6, (flags & 2) != 0);
+                insert.setString(7, readString(in, strings));
+                setTimestamp(insert, 8, version > 1 ? in.readLong() : NULL_TIME);
+                setTimestamp(insert, 9, version > 1 ? in.readLong() : NULL_TIME);
+                insert.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0)
+                    insert.executeBatch();
+            }
+            insert.executeBatch();
+        }
+        return count;
+    }
+
+    private static int restoreTemplates(Connection connection, DataInputStream in, List<String> strings, int version)
+            throws SQLException, IOException {
+        int count = readCount(in, version);
+        int id = 0;
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO Template (id, name, description, " +
+                "priority, daysToAdd, isActive, recurrence, recurrenceInterval, recurrenceStart, generatedUntil) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < count; i++){
+                id += readVarInt(in);
+                insert.setInt(1, id);
+                insert.setString(2, readString(in, strings));
+                insert.setString(3, readString(in, strings));
+                setEnumOrdinal(insert, 4, in.readUnsignedByte());
+                insert.setLong(5, in.readLong());
+                insert.setBoolean(6, (in.readUnsignedByte() & 2) != 0);
+                setEnumOrdinal(insert, 7, in.readUnsignedByte());
+                insert.setInt(8, in.readInt());
+                setDate(insert, 9, in.readInt());
+                setDate(insert, 10, in.readInt());
+                insert.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0)
+                    insert.executeBatch();
+            }
+            insert.executeBatch();
+        }
+        return count;
+    }
+
+    private static void restoreTags(Connection connection, DataInputStream in, List<String> strings, int version)
+            throws SQLException, IOException {
+        int count = readCount(in, version);
+        int id = 0;
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO ItemTag (itemId, tag) VALUES (?, ?)")) {
+            for (int i = 0; i < count; i++){
+                id += readVarInt(in);
+                insert.setInt(1, id);
+                insert.setString(2, readString(in, strings));
+                insert.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0)
+                    insert.executeBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private static void restoreNotes(Connection connection, DataInputStream in, int version)
+            throws SQLException, IOException {
+        int count = readCount(in, version);
+        int id = 0;
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO ItemNote (itemId, body, updatedAt) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < count; i++){
+                id += readVarInt(in);
+                insert.setInt(1, id);
+                if (version < 5){
+                    insert.setString(2, readUtf8(in));
+                } else {
+                    ChunkInputStream chunks = new ChunkInputStream(in);
+                    insert.setCharacterStream(2, new InputStreamReader(chunks, StandardCharsets.UTF_8));
+                    chunks.skipToEnd();
+                }
+                setTimestamp(insert, 3, in.readLong());
+                insert.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0)
+                    insert.executeBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private static void restoreDependencies(Connection connection, DataInputStream in, int version)
+            throws SQLException, IOException {
+        int count = readCount(in, version);
+        int blockerId = 0;
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO ItemDependency (id, blockerId, blockedId) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < count; i++){
+                blockerId += readVarInt(in);
+                int blockedId = readVarInt(in);
+                insert.setLong(1, ItemDependency.idOf(blockerId, blockedId));
+                insert.setInt(2, blockerId);
+                insert.setInt(3, blockedId);
+                insert.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0)
+                    insert.executeBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Reads the count of a section, a varint before version 5 and since then a fixed-width int
+     */
+    private static int readCount(DataInputStream in, int version) throws IOException {
+        return version < 5 ? readVarInt(in) : in.readInt();
+    }
+
+    /**
+     * Reads the dictionary index of a string. An index one past the strings read so far is followed by the string
+     * itself, which is added to the dictionary; files before version 5 hold the whole dictionary up front.
+     * @param strings Strings of the dictionary, with null at index 0
+     * @return Index of the string in strings
+     */
+    private static int readStringIndex(DataInputStream in, List<String> strings) throws IOException {
+        int index = readVarInt(in);
+        if (index == strings.size())
+            strings.add(readUtf8(in));
+        else if (index > strings.size())
+            throw new IOException("Malformed string index in snapshot");
+        return index;
+    }
+
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        return strings.get(readStringIndex(in, strings));
+    }
+
+    private static String readUtf8(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int enumOrdinal(ResultSet rs, int column) throws SQLException {
+        int ordinal = rs.getInt(column);
+        return rs.wasNull() ? NULL_ENUM : ordinal;
+    }
+
+    private static void setEnumOrdinal(PreparedStatement statement, int column, int ordinal) throws SQLException {
+        if (ordinal == NULL_ENUM)
+            statement.setNull(column, Types.INTEGER);
+        else
+            statement.setInt(column, ordinal);
+    }
+
+    private static int epochDay(Date date) {
+        return date == null ? NULL_DATE : (int) date.toLocalDate().toEpochDay();
+    }
+
+    private static void setDate(PreparedStatement statement, int column, int epochDay) throws SQLException {
+        if (epochDay == NULL_DATE)
+            statement.setNull(column, Types.DATE);
+        else
+            statement.setDate(column, Date.valueOf(LocalDate.ofEpochDay(epochDay)));
+    }
+
+    private static long epochMillis(Timestamp timestamp) {
+        return timestamp == null ? NULL_TIME : timestamp.getTime();
+    }
+
+    private static void setTimestamp(PreparedStatement statement, int column, long epochMillis) throws SQLException {
+        if (epochMillis == NULL_TIME)
+            statement.setNull(column, Types.TIMESTAMP);
+        else
+            statement.setTimestamp(column, new Timestamp(epochMillis));
+    }
+
+    /**
+     * Writes a non-negative int using seven bits per byte
+     */
+    static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0){
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7){
+            int b = in.read();
+            if (b < 0)
+                throw new IOException("Unexpected end of snapshot");
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint in snapshot");
+    }
+    // endregion
+}
@@ -0,0 +1,321 @@
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.ServiceRegistryAwareService;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Stoppable;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Connection provider that counts the SQL statements, round trips and rows of each thread and logs slow statements.
+ *
+ * It implements Hibernate's ConnectionProvider SPI over an H2 connection pool and hands out the pooled connections
+ * wrapped in proxies, so every statement is counted, including plain JDBC run with Session.doWork. The pool is opened
+ * with the javax.persistence.jdbc url, user and password of the persistence unit and holds at most
+ * hibernate.connection.pool_size connections, 20 by default. A statement is one execution of SQL, a round trip is one call
+ * that goes to the database, so a batch of 50 inserts is 50 statements but one round trip, and rows are the rows read
+ * from result sets plus the rows changed by updates. Statements that take longer than todo.slow_statement_ms
+ * milliseconds, 100 by default, are printed to standard error with their bound parameters.
+ *
+ * Registered with the hibernate.connection.provider_class property.
+ */
+public class StatementCounter implements ConnectionProvider, ServiceRegistryAwareService, Stoppable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Name of the property holding the slow statement threshold in milliseconds, negative to disable the log
+     */
+    public static final String SLOW_STATEMENT_MS = "todo.slow_statement_ms";
+
+    private static final int MAX_PARAMETER_LENGTH = 100;
+    private static final int DEFAULT_POOL_SIZE = 20;
+    private static final ThreadLocal<Counts> counts = ThreadLocal.withInitial(Counts::new);
+
+    private long slowStatementNanos = 100_000_000L;
+    private transient JdbcConnectionPool pool;
+
+    @Override
+    public void injectServices(ServiceRegistryImplementor serviceRegistry) {
+        ConfigurationService settings = serviceRegistry.getService(ConfigurationService.class);
+        long millis = Long.parseLong(settings.getSetting(SLOW_STATEMENT_MS, String.class, "100"));
+        slowStatementNanos = millis < 0 ? Long.MAX_VALUE : millis * 1_000_000L;
+        pool = JdbcConnectionPool.create(settings.getSetting("javax.persistence.jdbc.url", String.class, null),
+                settings.getSetting("javax.persistence.jdbc.user", String.class, ""),
+                settings.getSetting("javax.persistence.jdbc.password", String.class, ""));
+        pool.setMaxConnections(Integer.parseInt(settings.getSetting("hibernate.connection.pool_size", String.class,
+                String.valueOf(DEFAULT_POOL_SIZE))));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return (Connection) proxy(Connection.class, pool.getConnection(), null);
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        // Closing a pooled connection returns it to the pool
+        unwrapProxy(connection).close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // Declared with a raw type by the Wrapped SPI
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return unwrapType.isInstance(this) || DataSource.class.isAssignableFrom(unwrapType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isInstance(this))
+            return (T) this;
+        if (DataSource.class.isAssignableFrom(unwrapType))
+            return (T) pool;
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    @Override
+    public void stop() {
+        if (pool != null)
+            pool.dispose();
+    }
+
+    /**
+     * Gets the counts of the current thread so far
+     * @return Copy of the running counts, to be subtracted from a later copy
+     */
+    static Counts current() {
+        return counts.get().copy();
+    }
+
+    /**
+     * Runs an operation and counts the statements it runs on the current thread
+     * @param operation Operation to measure
+     * @return Counts of the operation, including the SQL of its statements
+     */
+    public static Counts measure(Runnable operation) {
+        Counts running = counts.get();
+        List<String> outerSql = running.sql;
+        running.sql = new ArrayList<>();
+        Counts before = running.copy();
+        try {
+            operation.run();
+            return running.since(before);
+        } finally {
+            if (outerSql != null)
+                outerSql.addAll(running.sql);
+            running.sql = outerSql;
+        }
+    }
+
+    /**
+     * Numbers of statements, round trips and rows, either running for a thread or for one operation
+     */
+    public static class Counts {
+
+        /**
+         * SQL statements executed, counting every statement of a batch
+         */
+        public long statements;
+        /**
+         * Calls that went to the database, counting a batch once
+         */
+        public long roundTrips;
+        /**
+         * Rows read from result sets and rows changed by updates
+         */
+        public long rows;
+        /**
+         * SQL of the statements executed while measuring, null when not measuring
+         */
+        public List<String> sql;
+
+        Counts copy() {
+            Counts copy = new Counts();
+            copy.statements = statements;
+            copy.roundTrips = roundTrips;
+            copy.rows = rows;
+            copy.sql = sql == null ? null : new ArrayList<>(sql);
+            return copy;
+        }
+
+        /**
+         * Subtracts earlier counts of the same thread
+         * @param earlier Counts copied before
+         * @return Counts since the earlier ones
+         */
+        Counts since(Counts earlier) {
+            Counts difference = new Counts();
+            difference.statements = statements - earlier.statements;
+            difference.roundTrips = roundTrips - earlier.roundTrips;
+            difference.rows = rows - earlier.rows;
+            if (sql != null)
+                difference.sql = new ArrayList<>(sql.subList(earlier.sql == null ? 0 : earlier.sql.size(), sql.size()));
+            return difference;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(statements + " statements, " + roundTrips + " round trips, " +
+                    rows + " rows");
+            if (sql != null){
+                for (String statement : sql)
+                    builder.append(System.lineSeparator()).append("  ").append(statement);
+            }
+            return builder.toString();
+        }
+    }
+
+    // region Helper methods
+
+    private Object proxy(Class<?> type, Object target, String sql) {
+        return Proxy.newProxyInstance(StatementCounter.class.getClassLoader(), new Class<?>[]{type},
+                new Handler(target, sql));
+    }
+
+    private static Connection unwrapProxy(Connection connection) {
+        if (Proxy.isProxyClass(connection.getClass()) && Proxy.getInvocationHandler(connection) instanceof Handler)
+            return (Connection) ((Handler) Proxy.getInvocationHandler(connection)).target;
+        return connection;
+    }
+
+    private static void count(String sql, int statements, long rows) {
+        Counts running = counts.get();
+        running.statements += statements;
+        running.roundTrips++;
+        running.rows += rows;
+        if (running.sql != null && sql != null)
+            running.sql.add(sql);
+    }
+
+    private static String describe(Object value) {
+        if (value == null)
+            return "null";
+        if (value instanceof Number || value instanceof Boolean || value instanceof Date ||
+                value instanceof Temporal){
+            return value.toString();
+        }
+        if (value instanceof String){
+            String string = (String) value;
+            return "'" + (string.length() > MAX_PARAMETER_LENGTH ?
+                    string.substring(0, MAX_PARAMETER_LENGTH) + "..." : string) + "'";
+        }
+        return value.getClass().getSimpleName();
+    }
+
+    /**
+     * Forwards calls to a connection, statement or result set, wrapping the statements and result sets it returns
+     */
+    private class Handler implements InvocationHandler {
+
+        private Object target;
+        private String sql;
+        private Map<Integer, Object> parameters = new TreeMap<>();
+        private int batched;
+
+        Handler(Object target, String sql) {
+            this.target = target;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals") && args != null && args.length == 1)
+                return proxy == args[0];
+            if (name.equals("hashCode") && args == null)
+                return System.identityHashCode(proxy);
+            if (target instanceof Statement){
+                if (name.startsWith("execute"))
+                    return execute(method, args);
+                if (name.equals("addBatch")){
+                    batched++;
+                    if (args != null && args.length == 1)
+                        sql = (String) args[0];
+                } else if (name.equals("clearBatch"))
+                    batched = 0;
+                else if (name.equals("clearParameters"))
+                    parameters.clear();
+                else if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer)
+                    parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (target instanceof ResultSet && name.equals("next")){
+                boolean hasRow = (Boolean) invokeTarget(method, args);
+                if (hasRow)
+                    counts.get().rows++;
+                return hasRow;
+            }
+            return wrap(invokeTarget(method, args), method, args);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            String statementSql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+            long start = System.nanoTime();
+            Object result = invokeTarget(method, args);
+            long nanos = System.nanoTime() - start;
+            long rows = 0;
+            int statements = 1;
+            if (result instanceof int[]){
+                statements = Math.max(batched, 1);
+                for (int updated : (int[]) result)
+                    rows += Math.max(updated, 0);
+                batched = 0;
+            } else if (result instanceof Integer || result instanceof Long)
+                rows = Math.max(((Number) result).longValue(), 0);
+            count(statementSql, statements, rows);
+            if (nanos > slowStatementNanos){
+                StringBuilder parameterList = new StringBuilder();
+                for (Map.Entry<Integer, Object> parameter : parameters.entrySet())
+                    parameterList.append(parameterList.length() == 0 ? "" : ", ").append(parameter.getKey())
+                            .append("=").append(describe(parameter.getValue()));
+                System.err.println("Slow statement took " + nanos / 1_000_000 + " ms: " + statementSql +
+                        (parameters.isEmpty() ? "" : " [" + parameterList + "]") +
+                        (statements > 1 ? " (batch of " + statements + ")" : ""));
+            }
+            return wrap(result, method, args);
+        }
+
+        private Object invokeTarget(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Object wrap(Object result, Method method, Object[] args) {
+            Class<?> type = method.getReturnType();
+            String resultSql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+            if (result == null || Proxy.isProxyClass(result.getClass()))
+                return result;
+            if (type == PreparedStatement.class || type == CallableStatement.class)
+                return proxy(type, result, resultSql);
+            if (type == Statement.class || type == ResultSet.class)
+                return proxy(type, result, null);
+            return result;
+        }
+    }
+    // endregion
+}
@@ -0,0 +1,327 @@
+import org.h2.engine.Session;
+import org.h2.engine.SessionInterface;
+import org.h2.index.Index;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.FileStore;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.Page;
+import org.h2.mvstore.db.MVPrimaryIndex;
+import org.h2.mvstore.db.MVSecondaryIndex;
+import org.h2.mvstore.db.MVTable;
+import org.h2.mvstore.db.MVTableEngine;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the storage use of the H2 database and compacts its file while the program runs.
+ *
+ * The report lists the rows of every table, with the inactive rows of soft deleting tables, the disk space of every
+ * table and index, the size and fill rate of the file and the statistics of the page cache. H2 appends changed pages
+ * to the end of its file and reclaims the space of old pages only when their chunks are rewritten, so soft deletes
+ * and updates leave the file growing. Compaction rewrites the live pages of sparsely filled chunks in small steps with
+ * a pause after each step, so other transactions keep running, and then moves the chunks to the start of the file and
+ * truncates it. Moving locks the store, so a run moves at most MAX_MOVE_BYTES and larger files are moved over several
+ * runs. In-memory databases have no file and are only reported. The storage is only reachable in the process that
+ * opened the database, not over a connection to a database served by another process.
+ *
+ * Apart from the MVStore API, the storage is reached through H2's internal engine classes, which change between H2
+ * versions. Only the nested H2Engine class uses them.
+ */
+public class StorageMaintenance {
+
+    private static final Duration MAINTENANCE_INTERVAL = Duration.ofHours(6);
+    private static final int TARGET_FILL_RATE = 90;
+    private static final int STEP_BYTES = 4 << 20;
+    private static final Duration STEP_PAUSE = Duration.ofMillis(100);
+    private static final Duration MAX_COMPACT_TIME = Duration.ofMinutes(1);
+    private static final long MAX_MOVE_BYTES = 64 << 20;
+
+    private EntityManagerFactory entityManagerFactory;
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Constructor with entityManagerFactory injection
+     * @param entityManagerFactory Entity manager factory of an H2 database
+     */
+    public StorageMaintenance(EntityManagerFactory entityManagerFactory){
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Starts compacting on a background thread every six hours, the first time after six hours
+     */
+    public synchronized void start() {
+        if (timer != null)
+            return;
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "maintenance");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (RuntimeException e) {
+                // Retried on the next run
+                System.err.println("Compacting the database file failed: " + e.getMessage());
+            }
+        }, MAINTENANCE_INTERVAL.toMillis(), MAINTENANCE_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops compacting
+     */
+    public synchronized void stop() {
+        if (timer == null)
+            return;
+        timer.shutdownNow();
+        timer = null;
+    }
+
+    /**
+     * Collects the storage use of the database. Sizing the tables reads all of their pages, so the report is meant
+     * to be asked for, not to run on a schedule.
+     * @return Report of the tables, the file and the page cache
+     * @throws IllegalStateException If the database is opened by another process
+     */
+    public Report report() {
+        return UnitOfWork.run(entityManagerFactory, entityManager -> {
+            Report report = new Report();
+            entityManager.unwrap(org.hibernate.Session.class).doWork(connection -> {
+                MVStore store = H2Engine.store(connection);
+                try (Statement statement = connection.createStatement()) {
+                    for (H2Engine.TableMaps table : H2Engine.tables(connection)){
+                        TableReport tableReport = new TableReport();
+                        tableReport.name = table.name;
+                        tableReport.rows = count(statement, "SELECT COUNT(*) FROM " + table.name);
+                        if (table.softDeletes)
+                            tableReport.inactiveRows = count(statement,
+                                    "SELECT COUNT(*) FROM " + table.name + " WHERE isActive = FALSE");
+                        for (String mapName : table.rowMaps)
+                            tableReport.tableBytes += diskSpaceUsed(store, mapName);
+                        for (String mapName : table.indexMaps)
+                            tableReport.indexBytes += diskSpaceUsed(store, mapName);
+                        report.tables.add(tableReport);
+                    }
+                }
+                report.tables.sort(Comparator.comparingLong((TableReport table) -> table.tableBytes + table.indexBytes)
+                        .reversed().thenComparing(table -> table.name));
+                FileStore fileStore = store.getFileStore();
+                if (fileStore != null){
+                    report.fileBytes = fileStore.size();
+                    report.fillRate = fileStore.getFillRate();
+                    report.fileReads = fileStore.getReadCount();
+                    report.fileWrites = fileStore.getWriteCount();
+                }
+                report.cacheUsedMegabytes = store.getCacheSizeUsed();
+                report.cacheMegabytes = store.getCacheSize();
+                if (store.getCache() != null){
+                    report.cacheHits = store.getCache().getHits();
+                    report.cacheMisses = store.getCache().getMisses();
+                }
+            });
+            return report;
+        });
+    }
+
+    /**
+     * Compacts the database file. Sparse chunks are rewritten in throttled steps until the live pages fill the target
+     * share of the file or the time limit is reached, then at most MAX_MOVE_BYTES of chunks are moved to the start of
+     * the file and it is truncated. Stops early if the thread is interrupted.
+     * @return Number of bytes the file shrank by, 0 for in-memory databases
+     * @throws IllegalStateException If the database is opened by another process
+     */
+    public long compact() {
+        MVStore store = UnitOfWork.run(entityManagerFactory, entityManager ->
+                entityManager.unwrap(org.hibernate.Session.class).doReturningWork(H2Engine::store));
+        FileStore fileStore = store.getFileStore();
+        if (fileStore == null)
+            return 0;
+        long sizeBefore = fileStore.size();
+        long deadline = System.nanoTime() + MAX_COMPACT_TIME.toNanos();
+        try {
+            // Rewrite the live pages of sparse chunks at the end of the file, then move the chunks to the start.
+            // MVStore.compact keeps rewriting the newest chunk once the file is full, so the fill rate ends the loop
+            while (System.nanoTime() < deadline && fileStore.getFillRate() < TARGET_FILL_RATE &&
+                    store.compact(TARGET_FILL_RATE, STEP_BYTES))
+                Thread.sleep(STEP_PAUSE.toMillis());
+            store.sync();
+            // Moving the chunks locks the store, so the amount copied while it is locked is bounded
+            store.compactMoveChunks(TARGET_FILL_RATE, MAX_MOVE_BYTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Math.max(0, sizeBefore - fileStore.size());
+    }
+
+    /**
+     * Storage use of the database
+     */
+    public static class Report {
+
+        /**
+         * Tables with the largest first
+         */
+        public List<TableReport> tables = new ArrayList<>();
+        /**
+         * Size of the database file, 0 for in-memory databases
+         */
+        public long fileBytes;
+        /**
+         * Percentage of the file used by live pages
+         */
+        public int fillRate;
+        /**
+         * Read and write operations on the file since the database was opened
+         */
+        public long fileReads;
+        public long fileWrites;
+        /**
+         * Used and maximum size of the page cache
+         */
+        public long cacheUsedMegabytes;
+        public long cacheMegabytes;
+        /**
+         * Page reads served by the cache and from the file since the database was opened
+         */
+        public long cacheHits;
+        public long cacheMisses;
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format("%-20s %10s %10s %10s %10s", "Table", "Rows",
+                    "Inactive", "Table kB", "Index kB"));
+            for (TableReport table : tables){
+                builder.append(System.lineSeparator()).append(String.format("%-20s %10d %10s %10d %10d", table.name,
+                        table.rows, table.inactiveRows < 0 ? "" : String.valueOf(table.inactiveRows),
+                        table.tableBytes / 1024, table.indexBytes / 1024));
+            }
+            long lookups = cacheHits + cacheMisses;
+            builder.append(System.lineSeparator()).append(fileBytes == 0 ? "In-memory database" :
+                    String.format("File %.1f MB, %d%% live, %d reads and %d writes since opened",
+                            fileBytes / 1e6, fillRate, fileReads, fileWrites));
+            if (cacheMegabytes > 0)
+                builder.append(System.lineSeparator()).append(String.format("Cache %d of %d MB used, %d hits, %d misses",
+                        cacheUsedMegabytes, cacheMegabytes, cacheHits, cacheMisses));
+            if (cacheMegabytes > 0 && lookups > 0)
+                builder.append(String.format(", %.1f%% hit rate", 100.0 * cacheHits / lookups));
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Storage use of one table
+     */
+    public static class TableReport {
+
+        public String name;
+        public long rows;
+        /**
+         * Soft deleted rows, -1 for tables without soft deletes
+         */
+        public long inactiveRows = -1;
+        /**
+         * Disk space of the rows and of the secondary indexes, estimated from the maximum lengths of their pages
+         */
+        public long tableBytes;
+        public long indexBytes;
+    }
+
+    /**
+     * The only code using H2's internal engine classes, which are not a public API and change between H2 versions.
+     * It finds the MVStore of a connection's database and the maps holding each table's rows and indexes.
+     */
+    private static class H2Engine {
+
+        /**
+         * Names of the MVStore maps of a table
+         */
+        private static class TableMaps {
+
+            private String name;
+            /**
+             * True if the table has an isActive column for soft deletes
+             */
+            private boolean softDeletes;
+            private List<String> rowMaps = new ArrayList<>();
+            private List<String> indexMaps = new ArrayList<>();
+        }
+
+        private static MVStore store(Connection connection) throws SQLException {
+            MVTableEngine.Store store = session(connection).getDatabase().getMvStore();
+            if (store == null)
+                throw new IllegalStateException("The database does not use the MVStore storage engine");
+            return store.getStore();
+        }
+
+        private static List<TableMaps> tables(Connection connection) throws SQLException {
+            List<TableMaps> tables = new ArrayList<>();
+            for (MVTable table : session(connection).getDatabase().getMvStore().getTables().values()){
+                if (!table.getSchema().getName().equals("PUBLIC") || table.isHidden())
+                    continue;
+                TableMaps maps = new TableMaps();
+                maps.name = table.getName();
+                maps.softDeletes = table.doesColumnExist("ISACTIVE");
+                for (Index index : table.getIndexes()){
+                    if (index instanceof MVPrimaryIndex)
+                        maps.rowMaps.add(((MVPrimaryIndex) index).getMapName());
+                    else if (index instanceof MVSecondaryIndex)
+                        maps.indexMaps.add("index." + index.getId());
+                }
+                tables.add(maps);
+            }
+            return tables;
+        }
+
+        /**
+         * Finds the engine session of a connection. Connections to a database opened by another process, for example
+         * through AUTO_SERVER, only have a remote session without access to the storage.
+         */
+        private static Session session(Connection connection) throws SQLException {
+            SessionInterface session = connection.unwrap(JdbcConnection.class).getSession();
+            if (!(session instanceof Session))
+                throw new IllegalStateException("Maintenance only runs in the process that owns the database file");
+            return (Session) session;
+        }
+    }
+
+    // region Helper methods
+
+    private static long count(Statement statement, String sql) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Sums the maximum lengths of the stored pages of a map, reading the pages that are not cached
+     */
+    private static long diskSpaceUsed(MVStore store, String mapName) {
+        if (!store.hasMap(mapName))
+            return 0;
+        return diskSpaceUsed(store.openMap(mapName).getRoot());
+    }
+
+    private static long diskSpaceUsed(Page page) {
+        long bytes = page.getPos() == 0 ? 0 : DataUtils.getPageMaxLength(page.getPos());
+        if (!page.isLeaf()){
+            for (int i = 0; i < page.getRawChildPageCount(); i++)
+                bytes += diskSpaceUsed(page.getChildPage(i));
+        }
+        return bytes;
+    }
+    // endregion
+}
@@ -1,8 +1,10 @@
-import org.hibernate.annotations.GenericGenerator;
-
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import java.time.LocalDate;
 
 /**
  * Data object representing a template for creating todo items
@@ -11,14 +13,23 @@ import javax.persistence.Id;
 public class Template {
 
     @Id
-    @GeneratedValue(generator = "increment")
-    @GenericGenerator(name="increment", strategy="increment")
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "templateSequence")
+    @SequenceGenerator(name = "templateSequence", sequenceName = IdSequences.TEMPLATE,
+            allocationSize = IdSequences.ALLOCATION_SIZE)
     public int id;
     public String name;
     public String description;
     public Priority priority;
     public long daysToAdd;
     public boolean isActive;
+    public Recurrence recurrence;
+    /**
+     * Has a default in the database, so the column can be added to a table of templates stored before recurrence
+     */
+    @Column(columnDefinition = "integer default 0 not null")
+    public int recurrenceInterval;
+    public LocalDate recurrenceStart;
+    public LocalDate generatedUntil;
 
     /**
      * Constructor for creating templates for todo items inside the program
@@ -33,10 +44,51 @@ public class Template {
         this.priority = priority;
         this.daysToAdd = daysToAdd;
         this.isActive = true;
+        this.recurrence = Recurrence.NONE;
+    }
+
+    /**
+     * Constructor for creating recurring templates for todo items inside the program
+     * @param name Name of the template
+     * @param description Description of the todo items provided by the template
+     * @param priority Priority of the todo items provided by the template
+     * @param daysToAdd Days from today until the first occurrence
+     * @param recurrence Recurrence rule of the template
+     * @param recurrenceInterval Number of days between occurrences, used with Recurrence.EVERY_N_DAYS
+     */
+    public Template(String name, String description, Priority priority, long daysToAdd,
+                    Recurrence recurrence, int recurrenceInterval){
+        this(name, description, priority, daysToAdd);
+        this.recurrence = recurrence;
+        this.recurrenceInterval = recurrenceInterval;
+        this.recurrenceStart = LocalDate.now().plusDays(daysToAdd);
+    }
+
+    /**
+     * Checks whether items are generated automatically from this template
+     * @return True if the template has a recurrence rule
+     */
+    public boolean isRecurring(){
+        return recurrence != null && recurrence != Recurrence.NONE;
     }
 
     /**
      * Empty constructor for Hibernate/JPA
      */
     public Template(){}
+
+    /**
+     * Copies the current state of the template, for example for change notifications
+     * @return Unmanaged copy of the template with the same id and values
+     */
+    public Template copy(){
+        Template copy = new Template(name, description, priority, daysToAdd);
+        copy.id = id;
+        copy.isActive = isActive;
+        copy.recurrence = recurrence;
+        copy.recurrenceInterval = recurrenceInterval;
+        copy.recurrenceStart = recurrenceStart;
+        copy.generatedUntil = generatedUntil;
+        return copy;
+    }
 }
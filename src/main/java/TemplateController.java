@@ -1,21 +1,67 @@
+import org.roaringbitmap.RoaringBitmap;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Controller for handling persistence of templates
  */
 public class TemplateController {
 
+    private static final int BATCH_SIZE = 50;
+    private static final int RESULT_CACHE_SIZE = 8;
+    /**
+     * Lowest generatedUntil stored for the recurring templates of each database, as last read or written by any
+     * controller of this process. Windows ending on or before it need no expansion.
+     */
+    private static final Map<EntityManagerFactory, LocalDate> expandedUntil =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
     private EntityManagerFactory entityManagerFactory;
+    private ItemController itemController;
+    private List<ChangeListener<Template>> listeners = new CopyOnWriteArrayList<>();
+    private ResultCache resultCache;
 
     /**
      * Constructor with entityManagerFactory injection
      * @param entityManagerFactory Injectable entityManagerFactory
      */
     public TemplateController(EntityManagerFactory entityManagerFactory){
+        this(entityManagerFactory, new ItemController(entityManagerFactory));
+    }
+
+    /**
+     * Constructor with entityManagerFactory and itemController injection
+     * @param entityManagerFactory Injectable entityManagerFactory
+     * @param itemController Controller used for creating the items provided by templates
+     */
+    public TemplateController(EntityManagerFactory entityManagerFactory, ItemController itemController){
         this.entityManagerFactory = entityManagerFactory;
+        this.itemController = itemController;
+        this.resultCache = new ResultCache(entityManagerFactory, RESULT_CACHE_SIZE);
+    }
+
+    /**
+     * Registers a listener notified after templates are created, updated or deleted through this controller
+     * @param listener Listener to add
+     */
+    public void addListener(ChangeListener<Template> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener
+     * @param listener Listener to remove
+     */
+    public void removeListener(ChangeListener<Template> listener) {
+        listeners.remove(listener);
     }
 
     /**
@@ -27,27 +73,71 @@ public class TemplateController {
      * @return True if template created successfully
      */
     public boolean createTemplate(String name, String description, Priority priority, long daysToAdd) {
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        entityManager.persist(new Template(name, description, priority, daysToAdd));
-        entityManager.getTransaction().commit();
-        entityManager.close();
+        return createTemplate(name, description, priority, daysToAdd, Recurrence.NONE, 0);
+    }
+
+    /**
+     * Creates a new recurring template for todo items
+     * @param name Name of the template
+     * @param description Default description of the todo items provided by the template
+     * @param priority Default priority of the todo items provided by the template
+     * @param daysToAdd Number of days from today until the first occurrence
+     * @param recurrence Recurrence rule of the template
+     * @param recurrenceInterval Number of days between occurrences, used with Recurrence.EVERY_N_DAYS
+     * @return True if template created successfully
+     */
+    public boolean createTemplate(String name, String description, Priority priority, long daysToAdd,
+                                  Recurrence recurrence, int recurrenceInterval) {
+        Template template = new Template(name, description, priority, daysToAdd, recurrence, recurrenceInterval);
+        UnitOfWork.run(entityManagerFactory, "TemplateController.createTemplate", 0, entityManager -> {
+            entityManager.persist(template);
+            CacheCoherence.record(entityManager, CacheCoherence.TEMPLATE, template.id, template.id);
+            notifyChanged(null, template.copy());
+            return template;
+        });
+        forgetExpansion();
         return true;
     }
 
     /**
-     * Gets all available templates
-     * @return List of templates in the database
+     * Persists new templates in the transaction of the given entity manager, flushing them as JDBC batches
+     * @param entityManager Entity manager with an active transaction
+     * @param templates New templates to persist
+     * @return Ids given to the templates, null if the list was empty
+     */
+    IdRange insertTemplates(EntityManager entityManager, List<Template> templates) {
+        if (templates.isEmpty())
+            return null;
+        for (int i = 0; i < templates.size(); i++){
+            entityManager.persist(templates.get(i));
+            notifyChanged(null, templates.get(i).copy());
+            if ((i + 1) % BATCH_SIZE == 0 || i == templates.size() - 1){
+                entityManager.flush();
+                for (int j = i - i % BATCH_SIZE; j <= i; j++)
+                    entityManager.detach(templates.get(j));
+            }
+        }
+        int first = templates.stream().mapToInt(template -> template.id).min().getAsInt();
+        int last = templates.stream().mapToInt(template -> template.id).max().getAsInt();
+        CacheCoherence.record(entityManager, CacheCoherence.TEMPLATE, first, last);
+        forgetExpansion();
+        return new IdRange(first, last, templates.size());
+    }
+
+    /**
+     * Gets all available templates. Results are cached until the next write.
+     * @return Unmodifiable list of detached templates in the database, which must not be changed
      */
     public List<Template> getTemplates() {
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        List<Template> templates = entityManager.createQuery(
+        return resultCache.get("TemplateController.getTemplates", null, () -> UnitOfWork.run(
+                entityManagerFactory, "TemplateController.getTemplates", 0, entityManager -> {
+            List<Template> templates = entityManager.createQuery(
                     "SELECT t FROM Template t WHERE isActive = 'true'", Template.class)
                     .getResultList();
-        entityManager.getTransaction().commit();
-        entityManager.close();
-        return templates;
+            for (Template template : templates)
+                entityManager.detach(template);
+            return Collections.unmodifiableList(templates);
+        }));
     }
 
     /**
@@ -56,16 +146,23 @@ public class TemplateController {
      * @return Template if found. Null if no template with that id or if it has been deleted.
      */
     public Template getTemplate(int id) {
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        Template template = entityManager.find(Template.class, id);
-        entityManager.getTransaction().commit();
-        entityManager.close();
+        Template template = UnitOfWork.run(entityManagerFactory, "TemplateController.getTemplate", id,
+                entityManager -> entityManager.find(Template.class, id));
         return (template != null && template.isActive) ? template : null;
     }
 
     /**
-     * Updates template with new values
+     * Drops the cached state of templates changed by another process sharing the database, so recurring templates
+     * are expanded again on the next call
+     * @param ids Ids of the changed templates, null if any template may have changed
+     */
+    public void invalidate(RoaringBitmap ids) {
+        forgetExpansion();
+    }
+
+    /**
+     * Updates template with new values. Changing the days to add of a recurring template moves its recurrence to
+     * start that many days from today; occurrences that have already been generated are kept.
      * @param id Id of the template to update
      * @param name Updated name of the template
      * @param description Updated default description of the todo item provided by the template
@@ -74,18 +171,74 @@ public class TemplateController {
      * @return True if successfully updated. False if template with given id doesn't exist or has been deleted.
      */
     public boolean updateTemplate(int id, String name, String description, Priority priority, long daysToAdd){
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        Template template = entityManager.find(Template.class, id);
-        boolean existsAndIsActive = (template != null && template.isActive);
-        if (existsAndIsActive){
-            template.name = name;
-            template.description = description;
-            template.priority = priority;
-            template.daysToAdd = daysToAdd;
+        boolean existsAndIsActive = UnitOfWork.run(entityManagerFactory, "TemplateController.updateTemplate", id,
+                entityManager -> {
+            Template template = entityManager.find(Template.class, id);
+            boolean active = (template != null && template.isActive);
+            if (active){
+                Template before = template.copy();
+                template.name = name;
+                template.description = description;
+                template.priority = priority;
+                if (template.isRecurring() && template.daysToAdd != daysToAdd)
+                    template.recurrenceStart = LocalDate.now().plusDays(daysToAdd);
+                template.daysToAdd = daysToAdd;
+                CacheCoherence.record(entityManager, CacheCoherence.TEMPLATE, id, id);
+                notifyChanged(before, template.copy());
+            }
+            return active;
+        });
+        forgetExpansion();
+        return existsAndIsActive;
+    }
+
+    /**
+     * Updates template with new values and a new recurrence rule in one transaction
+     * @param id Id of the template to update
+     * @param name Updated name of the template
+     * @param description Updated default description of the todo items provided by the template
+     * @param priority Updated default priority of the todo items provided by the template
+     * @param daysToAdd Updated number of days until the deadline of the todo item provided by the template
+     * @param recurrence Updated recurrence rule of the template
+     * @param recurrenceInterval Updated number of days between occurrences, used with Recurrence.EVERY_N_DAYS
+     * @return True if successfully updated. False if template with given id doesn't exist or has been deleted.
+     */
+    public boolean updateTemplate(int id, String name, String description, Priority priority, long daysToAdd,
+                                  Recurrence recurrence, int recurrenceInterval){
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            Template template = getTemplate(id);
+            boolean result = template != null && updateTemplate(id, name, description, priority, daysToAdd);
+            if (result && (template.recurrence != recurrence || template.recurrenceInterval != recurrenceInterval))
+                result = updateRecurrence(id, recurrence, recurrenceInterval);
+            unitOfWork.complete();
+            return result;
         }
-        entityManager.getTransaction().commit();
-        entityManager.close();
+    }
+
+    /**
+     * Updates the recurrence rule of a template. Occurrences that have already been generated are kept.
+     * @param id Id of the template to update
+     * @param recurrence Updated recurrence rule of the template
+     * @param recurrenceInterval Updated number of days between occurrences, used with Recurrence.EVERY_N_DAYS
+     * @return True if successfully updated. False if template with given id doesn't exist or has been deleted.
+     */
+    public boolean updateRecurrence(int id, Recurrence recurrence, int recurrenceInterval){
+        boolean existsAndIsActive = UnitOfWork.run(entityManagerFactory, "TemplateController.updateRecurrence", id,
+                entityManager -> {
+            Template template = entityManager.find(Template.class, id);
+            boolean active = (template != null && template.isActive);
+            if (active){
+                Template before = template.copy();
+                if (!template.isRecurring())
+                    template.recurrenceStart = LocalDate.now().plusDays(template.daysToAdd);
+                template.recurrence = recurrence;
+                template.recurrenceInterval = recurrenceInterval;
+                CacheCoherence.record(entityManager, CacheCoherence.TEMPLATE, id, id);
+                notifyChanged(before, template.copy());
+            }
+            return active;
+        });
+        forgetExpansion();
         return existsAndIsActive;
     }
 
@@ -95,15 +248,119 @@ public class TemplateController {
      * @return True if successfully deleted. False if template with given id doesn't exist or has been deleted.
      */
     public boolean deleteTemplate(int id){
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
-        Template template = entityManager.find(Template.class, id);
-        boolean existsAndIsActive = (template != null && template.isActive);
-        if (existsAndIsActive){
-            template.isActive = false;
-        }
-        entityManager.getTransaction().commit();
-        entityManager.close();
-        return existsAndIsActive;
+        return UnitOfWork.run(entityManagerFactory, "TemplateController.deleteTemplate", id, entityManager -> {
+            Template template = entityManager.find(Template.class, id);
+            boolean existsAndIsActive = (template != null && template.isActive);
+            if (existsAndIsActive){
+                Template before = template.copy();
+                template.isActive = false;
+                CacheCoherence.record(entityManager, CacheCoherence.TEMPLATE, id, id);
+                notifyChanged(before, template.copy());
+            }
+            return existsAndIsActive;
+        });
+    }
+
+    /**
+     * Creates an item from the template for every day in a date range in a single transaction
+     * @param id Id of the template to use
+     * @param firstDate Deadline date of the first item
+     * @param lastDate Deadline date of the last item, included in the range
+     * @return Range of ids of the created items. Null if the template doesn't exist, has been deleted or the range is empty.
+     */
+    public IdRange createItemsFromTemplate(int id, LocalDate firstDate, LocalDate lastDate) {
+        List<LocalDate> deadlineDates = new ArrayList<>();
+        for (LocalDate date = firstDate; !date.isAfter(lastDate); date = date.plusDays(1))
+            deadlineDates.add(date);
+        return createItemsFromTemplate(id, deadlineDates);
+    }
+
+    /**
+     * Creates an item from the template for every given deadline date in a single transaction
+     * @param id Id of the template to use
+     * @param deadlineDates Deadline dates of the items, one item is created per date
+     * @return Range of ids of the created items. Null if the template doesn't exist, has been deleted or no dates were given.
+     */
+    public IdRange createItemsFromTemplate(int id, List<LocalDate> deadlineDates) {
+        return UnitOfWork.run(entityManagerFactory, "TemplateController.createItemsFromTemplate", id, entityManager -> {
+            Template template = entityManager.find(Template.class, id);
+            if (template == null || !template.isActive)
+                return null;
+            List<Item> items = new ArrayList<>(deadlineDates.size());
+            for (LocalDate deadlineDate : deadlineDates)
+                items.add(new Item(template.description, template.priority, deadlineDate));
+            return itemController.insertItems(entityManager, items);
+        });
+    }
+
+    /**
+     * Generates the items of recurring templates that fall inside the look-ahead window.
+     * Every template remembers how far it has been generated, so each occurrence is created only once. The lowest of
+     * these dates is remembered for the database, so calls for a window it already covers do not touch the database,
+     * whichever controller or process generated it. All new items are written in one transaction using batched
+     * inserts.
+     * @param lookAheadDays Number of days after today to generate occurrences for
+     * @return Number of items created
+     */
+    public int expandRecurringTemplates(int lookAheadDays) {
+        LocalDate today = LocalDate.now();
+        LocalDate windowEnd = today.plusDays(lookAheadDays);
+        LocalDate covered = expandedUntil.get(entityManagerFactory);
+        if (covered != null && !windowEnd.isAfter(covered))
+            return 0;
+        int created = UnitOfWork.run(entityManagerFactory, "TemplateController.expandRecurringTemplates", 0,
+                entityManager -> {
+            List<Template> templates = entityManager.createQuery(
+                    "SELECT t FROM Template t WHERE isActive = 'true' AND recurrence <> :none " +
+                            "AND (generatedUntil IS NULL OR generatedUntil < :windowEnd)", Template.class)
+                    .setParameter("none", Recurrence.NONE)
+                    .setParameter("windowEnd", windowEnd)
+                    .getResultList();
+            List<Item> items = new ArrayList<>();
+            for (Template template : templates){
+                LocalDate date = template.generatedUntil == null ?
+                        template.recurrenceStart :
+                        template.generatedUntil.plusDays(1);
+                if (date.isBefore(today))
+                    date = today;
+                for (; !date.isAfter(windowEnd); date = date.plusDays(1)){
+                    if (template.recurrence.occursOn(template.recurrenceStart, date, template.recurrenceInterval))
+                        items.add(new Item(template.description, template.priority, date));
+                }
+                template.generatedUntil = windowEnd;
+            }
+            itemController.insertItems(entityManager, items);
+            LocalDate horizon = entityManager.createQuery("SELECT MIN(t.generatedUntil) FROM Template t " +
+                    "WHERE isActive = 'true' AND recurrence <> :none", LocalDate.class)
+                    .setParameter("none", Recurrence.NONE)
+                    .getSingleResult();
+            LocalDate expanded = horizon == null || horizon.isBefore(windowEnd) ? windowEnd : horizon;
+            UnitOfWork.afterCommit(entityManagerFactory, () -> expandedUntil.put(entityManagerFactory, expanded));
+            return items.size();
+        });
+        return created;
+    }
+
+    /**
+     * Forgets how far the recurring templates were expanded, now and again once the unit of work commits, so an
+     * expansion reading the database before the commit cannot put back a date the change made stale
+     */
+    private void forgetExpansion() {
+        expandedUntil.remove(entityManagerFactory);
+        UnitOfWork.afterCommit(entityManagerFactory, () -> expandedUntil.remove(entityManagerFactory));
+    }
+
+    /**
+     * Notifies the listeners of a change once the unit of work it was made in commits
+     * @param before State before the change, null for new templates
+     * @param after State after the change
+     */
+    private void notifyChanged(Template before, Template after) {
+        if (listeners.isEmpty())
+            return;
+        UnitOfWork.afterCommit(entityManagerFactory, () -> {
+            for (ChangeListener<Template> listener : listeners)
+                listener.changed(before, after);
+        });
     }
 }
@@ -0,0 +1,224 @@
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Scope sharing one entity manager and one transaction between controller calls on the same thread.
+ *
+ * Controllers run every operation through a unit of work. When a caller has opened one for a command or request,
+ * the controller calls inside it join it, so repeated reads of the same entity are served from the first-level cache
+ * and all changes are committed together when the outermost scope closes. Without an open unit of work every
+ * controller call gets its own entity manager and transaction, as before.
+ *
+ * Usage:
+ * <pre>
+ * try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+ *     ...controller calls...
+ *     unitOfWork.complete();
+ * }
+ * </pre>
+ * A unit of work that is closed without being completed, or in which a controller call failed, is rolled back.
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private UnitOfWork previous;
+    private int depth = 1;
+    private boolean completed;
+    private boolean rollbackOnly;
+    private boolean changed;
+    private List<Runnable> afterCommit = new ArrayList<>();
+    private List<Runnable> afterRollback = new ArrayList<>();
+
+    private UnitOfWork(EntityManagerFactory entityManagerFactory, UnitOfWork previous){
+        this.entityManagerFactory = entityManagerFactory;
+        this.previous = previous;
+        this.entityManager = entityManagerFactory.createEntityManager();
+        this.entityManager.getTransaction().begin();
+    }
+
+    /**
+     * Opens a unit of work on the current thread, or joins the one already open for the same database
+     * @param entityManagerFactory Entity manager factory of the database
+     * @return Unit of work that must be closed by the caller
+     */
+    public static UnitOfWork begin(EntityManagerFactory entityManagerFactory) {
+        UnitOfWork unitOfWork = current.get();
+        if (unitOfWork != null && unitOfWork.entityManagerFactory == entityManagerFactory){
+            unitOfWork.depth++;
+            return unitOfWork;
+        }
+        unitOfWork = new UnitOfWork(entityManagerFactory, unitOfWork);
+        current.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    /**
+     * Runs work with the entity manager of the current unit of work, opening one for just this work if none is open.
+     * If the work throws, the whole unit of work is rolled back.
+     * @param entityManagerFactory Entity manager factory of the database
+     * @param work Work to run inside the transaction
+     * @param <T> Type of the result of the work
+     * @return Result of the work
+     */
+    static <T> T run(EntityManagerFactory entityManagerFactory, Function<EntityManager, T> work) {
+        UnitOfWork unitOfWork = begin(entityManagerFactory);
+        try {
+            T result = work.apply(unitOfWork.entityManager);
+            unitOfWork.complete();
+            return result;
+        } catch (RuntimeException e) {
+            unitOfWork.setRollbackOnly();
+            throw e;
+        } finally {
+            unitOfWork.close();
+        }
+    }
+
+    /**
+     * Runs the work of a controller call like run, recording it as a flight recorder event
+     * @param entityManagerFactory Entity manager factory of the database
+     * @param operation Name of the call, for example ItemController.toggleCompleted
+     * @param id Id of the item or template the call is for, 0 if none
+     * @param work Work to run inside the transaction
+     * @param <T> Type of the result of the work
+     * @return Result of the work
+     */
+    static <T> T run(EntityManagerFactory entityManagerFactory, String operation, int id,
+                     Function<EntityManager, T> work) {
+        return ControllerEvent.record(operation, id, () -> run(entityManagerFactory, work));
+    }
+
+    /**
+     * Runs an action once the unit of work open for the database commits, or right away if none is open.
+     * Actions of a unit of work that is rolled back are discarded.
+     * @param entityManagerFactory Entity manager factory of the database
+     * @param action Action to run after the commit
+     */
+    static void afterCommit(EntityManagerFactory entityManagerFactory, Runnable action) {
+        UnitOfWork unitOfWork = find(entityManagerFactory);
+        if (unitOfWork == null)
+            action.run();
+        else
+            unitOfWork.afterCommit.add(action);
+    }
+
+    /**
+     * Runs an action if the unit of work open for the database is rolled back, or its commit fails. Does nothing if
+     * none is open.
+     * @param entityManagerFactory Entity manager factory of the database
+     * @param action Action undoing in-memory changes made for the unit of work
+     */
+    static void afterRollback(EntityManagerFactory entityManagerFactory, Runnable action) {
+        UnitOfWork unitOfWork = find(entityManagerFactory);
+        if (unitOfWork != null)
+            unitOfWork.afterRollback.add(action);
+    }
+
+    /**
+     * Records that the unit of work open for the database changes data, so the write version of the result cache is
+     * bumped once it commits, after its commit actions. Bumps the version right away if none is open.
+     * @param entityManagerFactory Entity manager factory of the database
+     */
+    static void markChanged(EntityManagerFactory entityManagerFactory) {
+        UnitOfWork unitOfWork = find(entityManagerFactory);
+        if (unitOfWork == null)
+            ResultCache.bump(entityManagerFactory);
+        else
+            unitOfWork.changed = true;
+    }
+
+    /**
+     * Checks whether the current thread has uncommitted changes to the database
+     * @param entityManagerFactory Entity manager factory of the database
+     * @return True if the unit of work open for the database changes data
+     */
+    static boolean hasChanges(EntityManagerFactory entityManagerFactory) {
+        UnitOfWork unitOfWork = find(entityManagerFactory);
+        return unitOfWork != null && unitOfWork.changed;
+    }
+
+    /**
+     * Gets the shared entity manager
+     * @return Entity manager with an active transaction
+     */
+    public EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * Marks the outermost scope as successful, so its transaction is committed when it closes.
+     * Has no effect when called from a joined scope.
+     */
+    public void complete() {
+        if (depth == 1)
+            completed = true;
+    }
+
+    /**
+     * Marks the unit of work to be rolled back when the outermost scope closes
+     */
+    public void setRollbackOnly() {
+        rollbackOnly = true;
+    }
+
+    /**
+     * Leaves the scope. Closing the outermost scope commits or rolls back the transaction and closes the entity
+     * manager. Once the transaction is committed, close does not throw: a failing commit action is reported on
+     * standard error and the remaining actions still run.
+     */
+    @Override
+    public void close() {
+        if (--depth > 0)
+            return;
+        if (previous != null)
+            current.set(previous);
+        else
+            current.remove();
+        boolean committed = false;
+        try {
+            if (completed && !rollbackOnly){
+                entityManager.getTransaction().commit();
+                committed = true;
+            } else if (entityManager.getTransaction().isActive())
+                entityManager.getTransaction().rollback();
+        } finally {
+            entityManager.close();
+            if (!committed){
+                for (Runnable action : afterRollback)
+                    action.run();
+            }
+        }
+        if (committed){
+            try {
+                // The changes are committed, so a failing action must neither stop the others nor reach the caller
+                for (Runnable action : afterCommit){
+                    try {
+                        action.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("Action after commit failed: " + e);
+                    }
+                }
+            } finally {
+                // After the listeners, so results cached at the new version are read from updated indexes
+                if (changed)
+                    ResultCache.bump(entityManagerFactory);
+            }
+        }
+    }
+
+    // region Helper methods
+
+    private static UnitOfWork find(EntityManagerFactory entityManagerFactory) {
+        UnitOfWork unitOfWork = current.get();
+        while (unitOfWork != null && unitOfWork.entityManagerFactory != entityManagerFactory)
+            unitOfWork = unitOfWork.previous;
+        return unitOfWork;
+    }
+    // endregion
+}
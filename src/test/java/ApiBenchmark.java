@@ -0,0 +1,105 @@
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local load test for the JSON API. Starts the server on the in-memory database, seeds it with items and lets a
+ * number of keep-alive clients send a mix of single item reads, list reads and creates for a fixed time.
+ * Prints requests per second and latency percentiles per request type.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=ApiBenchmark -Dexec.classpathScope=test
+ * -Dexec.args="clients seconds serverThreads items"
+ */
+public class ApiBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int serverThreads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int items = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+
+        EntityManagerFactory entityManagerFactory = Persistence.createEntityManagerFactory("test.inmemory.database");
+        ItemController itemController = new ItemController(entityManagerFactory);
+        TemplateController templateController = new TemplateController(entityManagerFactory, itemController);
+        List<LocalDate> dates = new ArrayList<>();
+        for (int i = 0; i < items; i++)
+            dates.add(LocalDate.now().plusDays(i % 365));
+        itemController.createItems("Benchmark item", Priority.MEDIUM, dates);
+
+        ApiServer server = new ApiServer(itemController, templateController);
+        server.start(0, serverThreads);
+        String base = "http://localhost:" + server.getPort();
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newFixedThreadPool(4))
+                .build();
+
+        LatencyHistogram getLatency = new LatencyHistogram();
+        LatencyHistogram listLatency = new LatencyHistogram();
+        LatencyHistogram createLatency = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.min(5, seconds / 4));
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        for (int c = 0; c < clients; c++){
+            pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end){
+                    int operation = random.nextInt(100);
+                    HttpRequest request;
+                    LatencyHistogram histogram;
+                    if (operation < 70){
+                        request = HttpRequest.newBuilder(URI.create(base + "/items/" + (1 + random.nextInt(items)))).build();
+                        histogram = getLatency;
+                    } else if (operation < 90){
+                        request = HttpRequest.newBuilder(URI.create(base + "/items?limit=50")).build();
+                        histogram = listLatency;
+                    } else {
+                        request = HttpRequest.newBuilder(URI.create(base + "/items"))
+                                .POST(HttpRequest.BodyPublishers.ofString("{\"description\":\"Created\"," +
+                                        "\"priority\":\"LOW\",\"deadlineDate\":\"" + LocalDate.now() + "\"}"))
+                                .build();
+                        histogram = createLatency;
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() >= 300)
+                            errors.incrementAndGet();
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    long finish = System.nanoTime();
+                    if (start >= warmupEnd)
+                        histogram.record(finish - start);
+                }
+                return null;
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        server.stop();
+        entityManagerFactory.close();
+
+        long total = getLatency.count() + listLatency.count() + createLatency.count();
+        System.out.printf("clients=%d serverThreads=%d seconds=%d requests=%d errors=%d%n",
+                clients, serverThreads, seconds, total, errors.get());
+        System.out.printf("throughput: %.0f requests/s%n", total / (double) seconds);
+        System.out.println("GET /items/{id}  " + getLatency.summary());
+        System.out.println("GET /items       " + listLatency.summary());
+        System.out.println("POST /items      " + createLatency.summary());
+        System.exit(0);
+    }
+}
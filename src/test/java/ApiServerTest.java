@@ -0,0 +1,150 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiServerTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static ApiServer apiServer;
+    private static HttpClient client;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() throws IOException {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        apiServer = new ApiServer(itemController, new TemplateController(entityManagerFactory, itemController));
+        apiServer.start(0, 2);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        apiServer.stop();
+        entityManagerFactory.close();
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + apiServer.getPort() + path))
+                .method(method, body == null ?
+                        HttpRequest.BodyPublishers.noBody() :
+                        HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void postAndGetItems_shouldCreateAndStreamItems() throws Exception {
+        // Arrange
+        String body = "{\"description\":\"First \\\"item\\\"\",\"priority\":\"HIGH\",\"deadlineDate\":\"" +
+                LocalDate.now() + "\"}";
+        // Act
+        HttpResponse<String> created = send("POST", "/items", body);
+        HttpResponse<String> list = send("GET", "/items", null);
+        // Assert
+        assertEquals(201, created.statusCode());
+        assertEquals(200, list.statusCode());
+        assertEquals("[{\"id\":1,\"description\":\"First \\\"item\\\"\",\"priority\":\"HIGH\",\"deadlineDate\":\"" +
+                LocalDate.now() + "\",\"isCompleted\":false}]", list.body());
+    }
+
+    @Test
+    public void toggleAndDeleteItem_shouldUpdateItem() throws Exception {
+        // Arrange
+        itemController.createItem("Item", Priority.LOW, LocalDate.now());
+        // Act
+        HttpResponse<String> toggled = send("POST", "/items/1/toggle", null);
+        boolean isCompleted = itemController.getItem(1).isCompleted;
+        HttpResponse<String> deleted = send("DELETE", "/items/1", null);
+        HttpResponse<String> get = send("GET", "/items/1", null);
+        // Assert
+        assertEquals(200, toggled.statusCode());
+        assertTrue(isCompleted);
+        assertEquals(200, deleted.statusCode());
+        assertEquals(404, get.statusCode());
+    }
+
+    @Test
+    public void postItem_missingField_shouldReturnBadRequest() throws Exception {
+        // Act
+        HttpResponse<String> response = send("POST", "/items", "{\"description\":\"Item\"}");
+        // Assert
+        assertEquals(400, response.statusCode());
+        assertEquals("Missing field priority", Json.parseObject(response.body()).get("error"));
+    }
+
+    @Test
+    public void getItem_databaseClosed_shouldReturnInternalServerError() throws Exception {
+        // Arrange
+        entityManagerFactory.close();
+        // Act
+        HttpResponse<String> response = send("GET", "/items/1", null);
+        // Assert
+        assertEquals(500, response.statusCode());
+        assertEquals("Internal server error", Json.parseObject(response.body()).get("error"));
+    }
+
+    @Test
+    public void postTemplateItems_shouldCreateItemsForRange() throws Exception {
+        // Arrange
+        send("POST", "/templates", "{\"name\":\"name\",\"description\":\"description\",\"priority\":\"LOW\"}");
+        // Act
+        HttpResponse<String> response = send("POST", "/templates/1/items", "{\"firstDate\":\"" + LocalDate.now() +
+                "\",\"lastDate\":\"" + LocalDate.now().plusDays(9) + "\"}");
+        Map<String, String> ids = Json.parseObject(response.body());
+        // Assert
+        assertEquals(201, response.statusCode());
+        assertEquals("1", ids.get("first"));
+        assertEquals("10", ids.get("last"));
+    }
+
+    @Test
+    public void postTemplateItems_rangeTooLong_shouldReturnBadRequest() throws Exception {
+        // Arrange
+        send("POST", "/templates", "{\"name\":\"name\",\"description\":\"description\",\"priority\":\"LOW\"}");
+        // Act
+        HttpResponse<String> response = send("POST", "/templates/1/items", "{\"firstDate\":\"" + LocalDate.now() +
+                "\",\"lastDate\":\"" + LocalDate.now().plusYears(1000) + "\"}");
+        // Assert
+        assertEquals(400, response.statusCode());
+        assertEquals(0, itemController.getItems(false).size());
+    }
+
+    @Test
+    public void putTemplate_shouldUpdateRecurrenceAndKeepMissingFields() throws Exception {
+        // Arrange
+        send("POST", "/templates", "{\"name\":\"name\",\"description\":\"description\",\"priority\":\"LOW\"," +
+                "\"daysToAdd\":\"5\",\"recurrence\":\"DAILY\"}");
+        // Act
+        HttpResponse<String> renamed = send("PUT", "/templates/1",
+                "{\"name\":\"new name\",\"description\":\"description\",\"priority\":\"HIGH\"}");
+        HttpResponse<String> missing = send("PUT", "/templates/2",
+                "{\"name\":\"name\",\"description\":\"description\",\"priority\":\"LOW\"}");
+        HttpResponse<String> everyThreeDays = send("PUT", "/templates/1",
+                "{\"name\":\"new name\",\"description\":\"description\",\"priority\":\"HIGH\"," +
+                "\"recurrence\":\"EVERY_N_DAYS\",\"recurrenceInterval\":\"3\"}");
+        Template template = new TemplateController(entityManagerFactory).getTemplate(1);
+        // Assert
+        assertAll(
+                () -> assertEquals(200, renamed.statusCode()),
+                () -> assertEquals(404, missing.statusCode()),
+                () -> assertEquals(200, everyThreeDays.statusCode()),
+                () -> assertEquals("new name", template.name),
+                () -> assertEquals(Priority.HIGH, template.priority),
+                () -> assertEquals(5, template.daysToAdd),
+                () -> assertEquals(LocalDate.now().plusDays(5), template.recurrenceStart),
+                () -> assertEquals(Recurrence.EVERY_N_DAYS, template.recurrence),
+                () -> assertEquals(3, template.recurrenceInterval)
+        );
+    }
+}
@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditLogTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static TemplateController templateController;
+    private static AuditLog auditLog;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        templateController = new TemplateController(entityManagerFactory, itemController);
+        auditLog = new AuditLog(entityManagerFactory, 16, () -> "tester");
+        auditLog.listenTo(itemController);
+        auditLog.listenTo(templateController);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() throws InterruptedException {
+        auditLog.close();
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void itemChanges_shouldBeRecordedWithBeforeAndAfterValues() throws InterruptedException {
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        itemController.updateItem(1, "Updated item", Priority.LOW, LocalDate.now().plusDays(1), false);
+        itemController.deleteItem(1);
+        // Act
+        auditLog.flush();
+        List<HistoryEntry> history = auditLog.getItemHistory(1);
+        // Assert
+        assertEquals(3, history.size());
+        HistoryEntry update = history.get(1);
+        assertAll(
+                () -> assertEquals(ChangeType.CREATED, history.get(0).changeType),
+                () -> assertNull(history.get(0).beforeValue),
+                () -> assertEquals(ChangeType.UPDATED, update.changeType),
+                () -> assertEquals("tester", update.changedBy),
+                () -> assertEquals("First item", Json.parseObject(update.beforeValue).get("description")),
+                () -> assertEquals("Updated item", Json.parseObject(update.afterValue).get("description")),
+                () -> assertEquals(ChangeType.DELETED, history.get(2).changeType),
+                () -> assertEquals("true", Json.parseObject(history.get(2).beforeValue).get("isActive")),
+                () -> assertEquals("false", Json.parseObject(history.get(2).afterValue).get("isActive"))
+        );
+    }
+
+    @Test
+    public void templateChanges_shouldBeRecordedSeparatelyFromItems() throws InterruptedException {
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        templateController.createTemplate("Template", "Description", Priority.MEDIUM, 1);
+        templateController.updateRecurrence(1, Recurrence.DAILY, 0);
+        // Act
+        auditLog.flush();
+        List<HistoryEntry> history = auditLog.getTemplateHistory(1);
+        // Assert
+        assertAll(
+                () -> assertEquals(2, history.size()),
+                () -> assertEquals("DAILY", Json.parseObject(history.get(1).afterValue).get("recurrence")),
+                () -> assertEquals(1, auditLog.getItemHistory(1).size())
+        );
+    }
+
+    @Test
+    public void changesBeyondQueueCapacity_shouldAllBeWritten() throws InterruptedException {
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        // Act
+        for (int i = 0; i < 200; i++)
+            itemController.toggleCompleted(1);
+        auditLog.flush();
+        // Assert
+        assertAll(
+                () -> assertEquals(201, auditLog.getItemHistory(1).size()),
+                () -> assertEquals(0, auditLog.failedEntries())
+        );
+    }
+
+    @Test
+    public void rolledBackChanges_shouldNotBeRecorded() throws InterruptedException {
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        // Act
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            itemController.toggleCompleted(1);
+            unitOfWork.setRollbackOnly();
+        }
+        auditLog.flush();
+        // Assert
+        assertEquals(1, auditLog.getItemHistory(1).size());
+    }
+
+    @Test
+    public void tagChanges_shouldBeRecordedInItemState() throws InterruptedException {
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        itemController.setTags(1, List.of("work", "home"));
+        // Act
+        auditLog.flush();
+        List<HistoryEntry> history = auditLog.getItemHistory(1);
+        // Assert
+        HistoryEntry update = history.get(1);
+        assertAll(
+                () -> assertEquals("", Json.parseObject(update.beforeValue).get("tags")),
+                () -> assertEquals("home,work", Json.parseObject(update.afterValue).get("tags")),
+                () -> assertEquals("HIGH", Json.parseObject(update.afterValue).get("priority"))
+        );
+    }
+}
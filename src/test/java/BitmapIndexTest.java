@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BitmapIndexTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void getItems_withTags_shouldCombineTagAndDeadlineFilters(){
+        // Arrange
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 6; i++)
+            itemController.createItem("Item " + i, Priority.MEDIUM, today.plusDays(i * 2));
+        itemController.setTags(1, Arrays.asList("work", "urgent"));
+        itemController.setTags(2, Arrays.asList("work"));
+        itemController.setTags(3, Arrays.asList("work", "home"));
+        itemController.setTags(4, Arrays.asList("work"));
+        itemController.setTags(5, Arrays.asList("work"));
+        itemController.toggleCompleted(2);
+        // Act
+        List<Item> items = itemController.getItems(ItemQuery.items()
+                .allTags("work").withoutTags("home").completed(false)
+                .deadlineFrom(today).deadlineBefore(today.plusDays(7)));
+        // Assert
+        assertEquals(Arrays.asList(1, 4), ids(items));
+    }
+
+    @Test
+    public void getItems_withTags_shouldOrderLikeDatabaseQuery(){
+        // Arrange
+        LocalDate today = LocalDate.now();
+        Priority[] priorities = {Priority.LOW, Priority.HIGH, null, Priority.MEDIUM};
+        for (int i = 0; i < 12; i++){
+            itemController.createItem("Item " + i, priorities[i % 4], i % 5 == 0 ? null : today.plusDays(i % 3));
+            itemController.setTags(i + 1, Arrays.asList("all"));
+        }
+        ItemQuery expected = ItemQuery.items().orderBy(ItemQuery.SortKey.DEADLINE, true)
+                .orderBy(ItemQuery.SortKey.PRIORITY, false).limit(8);
+        ItemQuery tagged = ItemQuery.items().orderBy(ItemQuery.SortKey.DEADLINE, true)
+                .orderBy(ItemQuery.SortKey.PRIORITY, false).limit(8).anyTags("all");
+        // Act
+        List<Item> items = itemController.getItems(tagged);
+        // Assert
+        assertEquals(ids(itemController.getItems(expected)), ids(items));
+    }
+
+    @Test
+    public void bitmapIndex_shouldFollowTagChangesAndDeletes(){
+        // Arrange
+        itemController.createItem("First item", Priority.LOW, LocalDate.now());
+        itemController.createItem("Second item", Priority.LOW, LocalDate.now());
+        itemController.setTags(1, Arrays.asList("a", " b ", ""));
+        itemController.setTags(2, Arrays.asList("b"));
+        BitmapIndex index = itemController.getBitmapIndex();
+        // Act
+        itemController.setTags(1, Arrays.asList("c"));
+        itemController.deleteItem(2);
+        // Assert
+        assertAll(
+                () -> assertEquals(Arrays.asList(1), ids(itemController.getItems(ItemQuery.items().allTags("c")))),
+                () -> assertTrue(itemController.getItems(ItemQuery.items().anyTags("a", "b")).isEmpty()),
+                () -> assertEquals(Arrays.asList(2), ids(itemController.getItems(ItemQuery.items().active(false)
+                        .allTags("b")))),
+                () -> assertEquals(2, index.tagCount())
+        );
+    }
+
+    private static List<Integer> ids(List<Item> items) {
+        List<Integer> ids = new ArrayList<>();
+        for (Item item : items)
+            ids.add(item.id);
+        return ids;
+    }
+}
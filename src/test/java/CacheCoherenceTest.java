@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheCoherenceTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static EntityManagerFactory peerEntityManagerFactory;
+    private static ItemController itemController;
+    private static ItemController peerItemController;
+    private static CacheCoherence coherence;
+    private static CacheCoherence peerCoherence;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        // Second process on the same database, which must not recreate the schema
+        peerEntityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database",
+                Collections.singletonMap("hibernate.hbm2ddl.auto", "none"));
+        itemController = new ItemController(entityManagerFactory);
+        peerItemController = new ItemController(peerEntityManagerFactory);
+        coherence = new CacheCoherence(entityManagerFactory, Duration.ofHours(1));
+        peerCoherence = new CacheCoherence(peerEntityManagerFactory, Duration.ofHours(1));
+        peerCoherence.listenTo(peerItemController);
+        coherence.start();
+        peerCoherence.start();
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        coherence.stop();
+        peerCoherence.stop();
+        peerEntityManagerFactory.close();
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void poll_shouldReloadItemsChangedByAnotherProcess(){
+        // Arrange
+        peerItemController.getBitmapIndex();
+        itemController.createItem("First item", Priority.LOW, LocalDate.now());
+        itemController.createItem("Second item", Priority.LOW, LocalDate.now());
+        itemController.setTags(1, Arrays.asList("work"));
+        itemController.setTags(2, Arrays.asList("work"));
+        itemController.deleteItem(2);
+        List<Item> stale = peerItemController.getItems(ItemQuery.items().allTags("work"));
+        // Act
+        int ownChanges = coherence.poll();
+        int peerChanges = peerCoherence.poll();
+        // Assert
+        assertAll(
+                () -> assertTrue(stale.isEmpty()),
+                () -> assertEquals(0, ownChanges),
+                () -> assertEquals(5, peerChanges),
+                () -> assertEquals(1, peerItemController.getItems(ItemQuery.items().allTags("work")).size()),
+                () -> assertEquals(0, peerCoherence.poll())
+        );
+    }
+
+    @Test
+    public void createItems_twoProcesses_shouldNotReuseIds(){
+        // Act
+        IdRange ids = itemController.createItems("Item", Priority.LOW, Collections.nCopies(3, LocalDate.now()));
+        IdRange peerIds = peerItemController.createItems("Peer item", Priority.LOW,
+                Collections.nCopies(3, LocalDate.now()));
+        IdRange moreIds = itemController.createItems("Item", Priority.LOW, Collections.nCopies(3, LocalDate.now()));
+        // Assert
+        assertAll(
+                () -> assertEquals(9, itemController.getItems(ItemQuery.items()).size()),
+                () -> assertTrue(peerIds.last < ids.first || peerIds.first > ids.last),
+                () -> assertTrue(peerIds.last < moreIds.first || peerIds.first > moreIds.last),
+                () -> assertEquals(3, moreIds.size())
+        );
+    }
+
+    @Test
+    public void poll_shouldPickUpChangesCommittedOutOfOrder() throws InterruptedException {
+        // Arrange
+        peerItemController.getBitmapIndex();
+        itemController.createItem("First item", Priority.LOW, LocalDate.now());
+        itemController.createItem("Second item", Priority.LOW, LocalDate.now());
+        peerCoherence.poll();
+        int[] polled = new int[2];
+        // Act
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            itemController.setTags(1, Arrays.asList("first"));
+            Thread other = new Thread(() -> itemController.setTags(2, Arrays.asList("second")));
+            other.start();
+            other.join();
+            polled[0] = peerCoherence.poll();
+            unitOfWork.complete();
+        }
+        polled[1] = peerCoherence.poll();
+        // Assert
+        assertAll(
+                () -> assertEquals(1, polled[0]),
+                () -> assertEquals(1, polled[1]),
+                () -> assertEquals(1, peerItemController.getItems(ItemQuery.items().allTags("first")).size()),
+                () -> assertEquals(1, peerItemController.getItems(ItemQuery.items().allTags("second")).size())
+        );
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsoleRendererTest {
+
+    private static List<Item> createItems(int count){
+        List<Item> items = new ArrayList<>();
+        for (int i = 1; i <= count; i++){
+            Item item = new Item("Item " + i, Priority.LOW, LocalDate.of(2019, 6, 1));
+            item.id = i;
+            items.add(item);
+        }
+        return items;
+    }
+
+    @Test
+    public void printItems_shouldFormatEveryRow(){
+        // Arrange
+        StringWriter out = new StringWriter();
+        ConsoleRenderer renderer = new ConsoleRenderer(out, null, 0);
+        // Act
+        renderer.printItems("Items:", createItems(2), 0);
+        // Assert
+        assertEquals("Items:\n" +
+                "2019-06-01 - Id :1 - Description: Item 1 - Priority: LOW - Completed: false\n" +
+                "2019-06-01 - Id :2 - Description: Item 2 - Priority: LOW - Completed: false\n", out.toString());
+    }
+
+    @Test
+    public void printItems_limit_shouldPrintOnlyFirstItems(){
+        // Arrange
+        StringWriter out = new StringWriter();
+        ConsoleRenderer renderer = new ConsoleRenderer(out, null, 0);
+        // Act
+        renderer.printItems("Items:", createItems(5), 2);
+        // Assert
+        assertEquals(3, out.toString().split("\n").length);
+    }
+
+    @Test
+    public void printItems_pagerQuit_shouldStopAfterPage(){
+        // Arrange
+        StringWriter out = new StringWriter();
+        ConsoleRenderer renderer = new ConsoleRenderer(out, new Scanner("\nq\n"), 3);
+        // Act
+        renderer.printItems("Items:", createItems(10), 0);
+        // Assert
+        String printed = out.toString();
+        assertAll(
+                () -> assertTrue(printed.contains("Item 6 ")),
+                () -> assertFalse(printed.contains("Item 7 ")),
+                () -> assertTrue(printed.contains("-- 6/10, enter for more, (q)uit --"))
+        );
+    }
+
+    @Test
+    public void isListingCommandAndParseLimit_shouldAcceptOptions(){
+        // Act & Assert
+        assertAll(
+                () -> assertTrue(ConsoleRenderer.isListingCommand("1", "1")),
+                () -> assertTrue(ConsoleRenderer.isListingCommand("1 --limit 5", "1")),
+                () -> assertTrue(ConsoleRenderer.isListingCommand("ready --tags home", "ready")),
+                () -> assertFalse(ConsoleRenderer.isListingCommand("12", "1")),
+                () -> assertFalse(ConsoleRenderer.isListingCommand("1--limit 5", "1")),
+                () -> assertEquals(5, ConsoleRenderer.parseLimit("1 --limit 5")),
+                () -> assertEquals(0, ConsoleRenderer.parseLimit("1"))
+        );
+    }
+}
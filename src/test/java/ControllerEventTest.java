@@ -0,0 +1,120 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControllerEventTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void controllerCalls_shouldBeRecordedWithIdsRowsAndStatements() throws IOException {
+        // Arrange
+        itemController.createItem("First item", Priority.LOW, LocalDate.now());
+        itemController.createItem("Second item", Priority.LOW, LocalDate.now());
+        Path file = Files.createTempFile("controller", ".jfr");
+        // Act
+        try (Recording recording = new Recording()) {
+            recording.enable("todo.ControllerCall").withThreshold(Duration.ZERO);
+            recording.start();
+            itemController.toggleCompleted(2);
+            itemController.getItems(ItemQuery.futureItems());
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)){
+            if (event.getEventType().getName().equals("todo.ControllerCall"))
+                events.add(event);
+        }
+        Files.delete(file);
+        // Assert
+        assertEquals(2, events.size());
+        assertAll(
+                () -> assertEquals("ItemController.toggleCompleted", events.get(0).getString("operation")),
+                () -> assertEquals(2, events.get(0).getInt("id")),
+                () -> assertEquals(1, events.get(0).getInt("rows")),
+                () -> assertTrue(events.get(0).getLong("statements") >= 2),
+                () -> assertFalse(events.get(0).getBoolean("failed")),
+                () -> assertEquals("ItemController.getItems", events.get(1).getString("operation")),
+                () -> assertEquals(2, events.get(1).getInt("rows")),
+                () -> assertEquals(1, events.get(1).getLong("statements"))
+        );
+    }
+
+    @Test
+    public void controllerCalls_shouldNotBeRecordedBelowThreshold() throws IOException {
+        // Arrange
+        itemController.createItem("First item", Priority.LOW, LocalDate.now());
+        Path file = Files.createTempFile("controller", ".jfr");
+        // Act
+        try (Recording recording = new Recording()) {
+            recording.enable("todo.ControllerCall").withThreshold(Duration.ofHours(1));
+            recording.start();
+            itemController.getItem(1);
+            recording.stop();
+            recording.dump(file);
+        }
+        long recorded = RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals("todo.ControllerCall"))
+                .count();
+        Files.delete(file);
+        // Assert
+        assertEquals(0, recorded);
+    }
+
+    @Test
+    public void commandWithPrompt_shouldNotIncludeTimeWaitingForInput() throws IOException, InterruptedException {
+        // Arrange
+        Path file = Files.createTempFile("command", ".jfr");
+        // Act
+        try (Recording recording = new Recording()) {
+            recording.enable("todo.Command").withThreshold(Duration.ZERO);
+            recording.start();
+            CommandEvent commandEvent = CommandEvent.start("c");
+            Thread.sleep(500);
+            CommandEvent.inputRead();
+            itemController.createItem("First item", Priority.LOW, LocalDate.now());
+            commandEvent.finish();
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)){
+            if (event.getEventType().getName().equals("todo.Command"))
+                events.add(event);
+        }
+        Files.delete(file);
+        // Assert
+        assertEquals(1, events.size());
+        assertAll(
+                () -> assertEquals("c", events.get(0).getString("command")),
+                () -> assertTrue(events.get(0).getDuration().toMillis() < 500),
+                () -> assertTrue(events.get(0).getLong("statements") >= 1)
+        );
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataGeneratorTest {
+
+    private static final LocalDate BASE_DATE = LocalDate.of(2026, 3, 2);
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static TemplateController templateController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        templateController = new TemplateController(entityManagerFactory, itemController);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void sameSeed_shouldGenerateSameRowsWithAnyNumberOfThreads(){
+        // Arrange
+        new DataGenerator(7).items(12_000).templates(30).baseDate(BASE_DATE).deletionRate(0.1).threads(4)
+                .generate(entityManagerFactory, itemController, templateController);
+        List<String> parallelRows = describeRows();
+        entityManagerFactory.close();
+        setUp();
+        // Act
+        int inserted = new DataGenerator(7).items(12_000).templates(30).baseDate(BASE_DATE).deletionRate(0.1)
+                .threads(1)
+                .generate(entityManagerFactory, itemController, templateController);
+        // Assert
+        assertAll(
+                () -> assertEquals(12_030, inserted),
+                () -> assertEquals(12_030, parallelRows.size()),
+                () -> assertEquals(parallelRows, describeRows())
+        );
+    }
+
+    @Test
+    public void generate_shouldFollowConfiguredDistributions(){
+        // Act
+        new DataGenerator(1).items(4000).baseDate(BASE_DATE).priorityWeights(3, 1, 0).deadlineSpread(10, 20)
+                .completionRate(0.5).deletionRate(0.25)
+                .generate(entityManagerFactory, itemController, templateController);
+        // Assert
+        List<Object[]> counts = UnitOfWork.run(entityManagerFactory, entityManager -> entityManager.createQuery(
+                "SELECT COUNT(i), SUM(CASE WHEN i.isCompleted = 'true' THEN 1 ELSE 0 END), " +
+                        "SUM(CASE WHEN i.isActive = 'false' THEN 1 ELSE 0 END), " +
+                        "SUM(CASE WHEN i.priority = :high THEN 1 ELSE 0 END), " +
+                        "SUM(CASE WHEN i.priority = :low THEN 1 ELSE 0 END), MIN(i.deadlineDate), " +
+                        "MAX(i.deadlineDate), MAX(i.createdAt), MAX(i.completedAt) FROM Item i", Object[].class)
+                .setParameter("high", Priority.HIGH)
+                .setParameter("low", Priority.LOW)
+                .getResultList());
+        Object[] row = counts.get(0);
+        assertAll(
+                () -> assertEquals(4000L, row[0]),
+                () -> assertEquals(2000, ((Number) row[1]).intValue(), 150),
+                () -> assertEquals(1000, ((Number) row[2]).intValue(), 150),
+                () -> assertEquals(3000, ((Number) row[3]).intValue(), 150),
+                () -> assertEquals(0, ((Number) row[4]).intValue()),
+                () -> assertEquals(BASE_DATE.minusDays(10), row[5]),
+                () -> assertEquals(BASE_DATE.plusDays(20), row[6]),
+                () -> assertFalse(((LocalDateTime) row[7]).isAfter(BASE_DATE.atStartOfDay())),
+                () -> assertFalse(((LocalDateTime) row[8]).isAfter(BASE_DATE.atStartOfDay()))
+        );
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> describeRows() {
+        return UnitOfWork.run(entityManagerFactory, entityManager -> {
+            List<String> rows = new ArrayList<>();
+            for (Object[] row : (List<Object[]>) entityManager.createNativeQuery(
+                    "SELECT id, name, description, priority, daysToAdd, isActive FROM Template ORDER BY id")
+                    .getResultList())
+                rows.add(Arrays.toString(row));
+            for (Object[] row : (List<Object[]>) entityManager.createNativeQuery(
+                    "SELECT i.id, d.text, i.priority, i.deadlineDate, i.isCompleted, i.isActive, i.createdAt, " +
+                            "i.completedAt FROM Item i LEFT JOIN ItemDescription d ON d.id = i.descriptionId ORDER BY i.id")
+                    .getResultList())
+                rows.add(Arrays.toString(row));
+            return rows;
+        });
+    }
+}
@@ -0,0 +1,144 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DependencyControllerTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static DependencyController dependencyController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        dependencyController = new DependencyController(entityManagerFactory, itemController);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void addDependency_shouldRejectCycles(){
+        // Arrange
+        itemController.createItems("Item", Priority.LOW, Collections.nCopies(3, LocalDate.now()));
+        dependencyController.addDependency(1, 2);
+        dependencyController.addDependency(2, 3);
+        // Act
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> dependencyController.addDependency(3, 1));
+        // Assert
+        assertAll(
+                () -> assertEquals("Item 1 already blocks item 3", exception.getMessage()),
+                () -> assertThrows(IllegalArgumentException.class, () -> dependencyController.addDependency(2, 2)),
+                () -> assertFalse(dependencyController.addDependency(1, 9)),
+                () -> assertEquals(2, dependencyController.getGraph().edgeCount()),
+                () -> assertFalse(dependencyController.getGraph().addEdge(3, 1)),
+                () -> assertEquals(-1, dependencyController.getGraph().positionOf(9))
+        );
+    }
+
+    @Test
+    public void completingBlocker_shouldMakeBlockedItemReady(){
+        // Arrange
+        itemController.createItems("Item", Priority.LOW, Collections.nCopies(4, LocalDate.now()));
+        dependencyController.addDependency(1, 3);
+        dependencyController.addDependency(2, 3);
+        dependencyController.addDependency(3, 4);
+        List<Integer> readyBefore = ids(dependencyController.getReadyItems(ItemQuery.items()));
+        // Act
+        itemController.toggleCompleted(1);
+        itemController.deleteItem(2);
+        List<Integer> readyAfter = ids(dependencyController.getReadyItems(ItemQuery.items()));
+        // Assert
+        assertAll(
+                () -> assertEquals(List.of(1, 2), readyBefore),
+                () -> assertEquals(List.of(3), readyAfter),
+                () -> assertTrue(dependencyController.isBlocked(4)),
+                () -> assertEquals(List.of(3, 4), ids(dependencyController.getWorkOrder(0))),
+                () -> assertEquals(List.of(1), ids(dependencyController.getBlockers(3)))
+        );
+    }
+
+    @Test
+    public void loadedGraph_shouldMatchGraphBuiltIncrementally(){
+        // Arrange
+        itemController.createItems("Item", Priority.LOW, Collections.nCopies(5, LocalDate.now()));
+        dependencyController.addDependency(5, 4);
+        dependencyController.addDependency(4, 3);
+        dependencyController.addDependency(5, 1);
+        itemController.toggleCompleted(5);
+        dependencyController.removeDependency(4, 3);
+        // Act
+        DependencyController reloaded = new DependencyController(entityManagerFactory, itemController);
+        // Assert
+        assertAll(
+                () -> assertEquals(2, reloaded.getGraph().edgeCount()),
+                () -> assertEquals(dependencyController.getGraph().blocked(), reloaded.getGraph().blocked()),
+                () -> assertEquals(ids(dependencyController.getReadyItems(ItemQuery.items())),
+                        ids(reloaded.getReadyItems(ItemQuery.items()))),
+                () -> assertEquals(List.of(1, 4), ids(reloaded.getWorkOrder(0)))
+        );
+    }
+
+    @Test
+    public void dependencyGraph_shouldKeepTopologicalOrderUnderRandomChanges(){
+        // Arrange
+        DependencyGraph graph = new DependencyGraph();
+        Set<Long> edges = new HashSet<>();
+        Random random = new Random(42);
+        // Act
+        for (int i = 0; i < 3000; i++){
+            int blocker = random.nextInt(200);
+            int blocked = random.nextInt(200);
+            if (random.nextInt(4) == 0 && !edges.isEmpty()){
+                long edge = new ArrayList<>(edges).get(random.nextInt(edges.size()));
+                assertTrue(graph.removeEdge((int) (edge >> 32), (int) edge));
+                edges.remove(edge);
+            } else if (graph.addEdge(blocker, blocked))
+                edges.add(ItemDependency.idOf(blocker, blocked));
+            else
+                assertTrue(blocker == blocked || reaches(edges, blocked, blocker), "Rejected " + blocker + "->" + blocked);
+        }
+        // Assert
+        assertEquals(edges.size(), graph.edgeCount());
+        for (long edge : edges)
+            assertTrue(graph.positionOf((int) (edge >> 32)) < graph.positionOf((int) edge));
+    }
+
+    private static boolean reaches(Set<Long> edges, int from, int to) {
+        Set<Integer> seen = new HashSet<>();
+        List<Integer> stack = new ArrayList<>(List.of(from));
+        while (!stack.isEmpty()){
+            int node = stack.remove(stack.size() - 1);
+            if (node == to)
+                return true;
+            if (!seen.add(node))
+                continue;
+            for (long edge : edges){
+                if ((int) (edge >> 32) == node)
+                    stack.add((int) edge);
+            }
+        }
+        return false;
+    }
+
+    private static List<Integer> ids(List<Item> items) {
+        List<Integer> ids = new ArrayList<>();
+        for (Item item : items)
+            ids.add(item.id);
+        return ids;
+    }
+}
@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DescriptionDictionaryTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void repeatedDescriptions_shouldBeStoredAndLoadedOnce(){
+        // Arrange
+        itemController.createItems("Water the plants", Priority.LOW, Collections.nCopies(20, LocalDate.now()));
+        itemController.createItem("Pay the rent", Priority.HIGH, LocalDate.now());
+        itemController.updateItem(2, "Pay the rent", Priority.HIGH, LocalDate.now(), false);
+        // Act
+        List<Item> items = itemController.getItems(ItemQuery.items());
+        long stored = UnitOfWork.run(entityManagerFactory, entityManager -> entityManager.createQuery(
+                "SELECT COUNT(d) FROM ItemDescription d", Long.class).getSingleResult());
+        // Assert
+        assertAll(
+                () -> assertEquals(21, items.size()),
+                () -> assertEquals(2, stored),
+                () -> assertEquals("Pay the rent", items.get(1).description),
+                () -> assertSame(items.get(0).description, items.get(19).description),
+                () -> assertSame(items.get(1).description, items.get(20).description)
+        );
+    }
+
+    @Test
+    public void migrate_shouldMoveOldDescriptionColumn(){
+        // Arrange
+        UnitOfWork.run(entityManagerFactory, entityManager -> {
+            entityManager.createNativeQuery("ALTER TABLE Item ADD COLUMN description VARCHAR(255)").executeUpdate();
+            entityManager.createNativeQuery("INSERT INTO Item (id, description, isActive, isCompleted) " +
+                    "VALUES (1, 'Old item', TRUE, FALSE), (2, 'Old item', TRUE, FALSE)").executeUpdate();
+            return null;
+        });
+        // Act
+        int migrated = DescriptionDictionary.migrate(entityManagerFactory);
+        // Assert
+        assertAll(
+                () -> assertEquals(2, migrated),
+                () -> assertEquals("Old item", itemController.getItem(2).description),
+                () -> assertEquals(0, DescriptionDictionary.migrate(entityManagerFactory))
+        );
+    }
+}
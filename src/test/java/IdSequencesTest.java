@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdSequencesTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void advance_rowsWrittenWithoutSequence_shouldContinueAfterHighestId(){
+        // Arrange
+        UnitOfWork.run(entityManagerFactory, entityManager -> entityManager.createNativeQuery(
+                "INSERT INTO Item (id, isActive, isCompleted) VALUES (7, TRUE, FALSE)").executeUpdate());
+        UnitOfWork.run(entityManagerFactory, entityManager -> entityManager.createNativeQuery(
+                "INSERT INTO ArchivedItem (id, archiveMonth, isActive, isCompleted) VALUES (120, 0, TRUE, FALSE)")
+                .executeUpdate());
+        // Act
+        IdSequences.advance(entityManagerFactory);
+        IdRange ids = itemController.createItems("New item", Priority.LOW, Collections.nCopies(2, LocalDate.now()));
+        // Assert
+        assertAll(
+                () -> assertTrue(ids.first > 120),
+                () -> assertEquals(2, ids.size())
+        );
+    }
+}
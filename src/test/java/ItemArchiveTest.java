@@ -0,0 +1,113 @@
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ItemArchiveTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static ItemArchive itemArchive;
+    private static Statistics statistics;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database",
+                Collections.singletonMap("hibernate.generate_statistics", "true"));
+        itemController = new ItemController(entityManagerFactory);
+        itemArchive = new ItemArchive(entityManagerFactory, 30);
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void archive_shouldMoveOnlyColdItemsAndKeepPastQueryResults(){
+        // Arrange
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 200; i++)
+            itemController.createItem("Item " + i, Priority.values()[i % 3], today.plusDays(5 - i * 3));
+        for (int i = 1; i <= 200; i += 7)
+            itemController.toggleCompleted(i);
+        itemController.setTags(150, Arrays.asList("old"));
+        List<Integer> pastBefore = ids(itemController.getItems(ItemQuery.pastItems()));
+        List<Integer> limitedBefore = ids(itemController.getItems(ItemQuery.pastItems().limit(25)));
+        List<Integer> oldestBefore = ids(itemController.getItems(ItemQuery.items()
+                .orderBy(ItemQuery.SortKey.DEADLINE, false).limit(25)));
+        // Act
+        int archived = itemArchive.archive();
+        // Assert
+        int hot = UnitOfWork.run(entityManagerFactory, entityManager -> entityManager.createQuery(
+                "SELECT COUNT(i) FROM Item i", Long.class).getSingleResult().intValue());
+        assertAll(
+                () -> assertEquals(200 - 11, archived),
+                () -> assertEquals(11, hot),
+                () -> assertEquals(pastBefore, ids(itemController.getItems(ItemQuery.pastItems()))),
+                () -> assertEquals(limitedBefore, ids(itemController.getItems(ItemQuery.pastItems().limit(25)))),
+                () -> assertEquals(oldestBefore, ids(itemController.getItems(ItemQuery.items()
+                        .orderBy(ItemQuery.SortKey.DEADLINE, false).limit(25)))),
+                () -> assertEquals(Arrays.asList(150), ids(itemController.getItems(ItemQuery.items().allTags("old"))))
+        );
+    }
+
+    @Test
+    public void futureQueries_shouldNotReadTheArchive(){
+        // Arrange
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 10; i++)
+            itemController.createItem("Item " + i, Priority.LOW, today.plusDays(20 - i * 10));
+        itemArchive.archive();
+        statistics.clear();
+        // Act
+        List<Item> futureItems = itemController.getItems(ItemQuery.futureItems());
+        itemController.getHistogram();
+        itemController.countDeadlines(today);
+        // Assert
+        assertEquals(3, futureItems.size());
+        for (String query : statistics.getQueries())
+            assertFalse(query.contains("ArchivedItem"), query);
+    }
+
+    @Test
+    public void changingArchivedItem_shouldMoveItBack(){
+        // Arrange
+        LocalDate longAgo = LocalDate.now().minusDays(100);
+        itemController.createItem("Old item", Priority.HIGH, longAgo);
+        itemController.setTags(1, Arrays.asList("old"));
+        itemController.setNote(1, "Old note");
+        itemArchive.archive();
+        Item archived = itemController.getItem(1);
+        // Act
+        boolean updated = itemController.updateItem(1, "Renewed item", Priority.HIGH, LocalDate.now(), false);
+        itemController.createItem("New item", Priority.LOW, LocalDate.now());
+        // Assert
+        assertAll(
+                () -> assertEquals("Old item", archived.description),
+                () -> assertTrue(updated),
+                () -> assertEquals("Renewed item", itemController.getItem(1).description),
+                () -> assertEquals(Collections.singleton("old"), itemController.getTags(1)),
+                () -> assertEquals("Old note", itemController.getNote(1)),
+                () -> assertEquals(0, itemArchive.archive()),
+                () -> assertEquals("New item", itemController.getItem(2).description)
+        );
+    }
+
+    private static List<Integer> ids(List<Item> items) {
+        List<Integer> ids = new ArrayList<>();
+        for (Item item : items)
+            ids.add(item.id);
+        return ids;
+    }
+}
@@ -272,4 +272,77 @@ class ItemControllerTest {
         assertFalse(result);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void createItems_shouldCreateItemPerDateInOneRange(){
+        // Arrange
+        itemController.createItem("Existing item", Priority.LOW, LocalDate.now());
+        List<LocalDate> dates = List.of(LocalDate.now(), LocalDate.now().plusDays(7), LocalDate.now().plusDays(14));
+        // Act
+        IdRange ids = itemController.createItems("Weekly item", Priority.MEDIUM, dates);
+        List<Item> items = itemController.getItems(false);
+        // Assert
+        assertAll(
+                () -> assertEquals(2, ids.first),
+                () -> assertEquals(4, ids.last),
+                () -> assertEquals(4, items.size()),
+                () -> assertEquals(LocalDate.now().plusDays(14), itemController.getItem(4).deadlineDate)
+        );
+    }
+
+    @Test
+    public void getItemsWithQuery_deadlineRangeAndPriorities_shouldFilterAndSort(){
+        // Arrange
+        itemController.createItem("High today", Priority.HIGH, LocalDate.now());
+        itemController.createItem("Low today", Priority.LOW, LocalDate.now());
+        itemController.createItem("Medium in three days", Priority.MEDIUM, LocalDate.now().plusDays(3));
+        itemController.createItem("High next week", Priority.HIGH, LocalDate.now().plusDays(7));
+        itemController.createItem("High yesterday", Priority.HIGH, LocalDate.now().minusDays(1));
+        // Act
+        List<Item> items = itemController.getItems(ItemQuery.items()
+                .deadlineFrom(LocalDate.now())
+                .deadlineBefore(LocalDate.now().plusDays(7))
+                .priorities(Priority.HIGH, Priority.MEDIUM)
+                .orderBy(ItemQuery.SortKey.DEADLINE, true));
+        // Assert
+        assertEquals(2, items.size());
+        assertAll(
+                () -> assertEquals("Medium in three days", items.get(0).description),
+                () -> assertEquals("High today", items.get(1).description)
+        );
+    }
+
+    @Test
+    public void getItemsWithQuery_completedAndLimit_shouldFilterAndLimit(){
+        // Arrange
+        itemController.createItem("First", Priority.LOW, LocalDate.now());
+        itemController.createItem("Second", Priority.HIGH, LocalDate.now());
+        itemController.createItem("Third", Priority.MEDIUM, LocalDate.now());
+        itemController.createItem("Completed", Priority.HIGH, LocalDate.now());
+        itemController.toggleCompleted(4);
+        // Act
+        List<Item> items = itemController.getItems(ItemQuery.items()
+                .completed(false)
+                .orderBy(ItemQuery.SortKey.PRIORITY, false)
+                .limit(2));
+        // Assert
+        assertEquals(2, items.size());
+        assertAll(
+                () -> assertEquals("Second", items.get(0).description),
+                () -> assertEquals("Third", items.get(1).description)
+        );
+    }
+
+    @Test
+    public void getItemsWithQuery_inactiveOnly_shouldGetDeletedItems(){
+        // Arrange
+        itemController.createItem("Kept", Priority.LOW, LocalDate.now());
+        itemController.createItem("Deleted", Priority.LOW, LocalDate.now());
+        itemController.deleteItem(2);
+        // Act
+        List<Item> items = itemController.getItems(ItemQuery.items().active(false));
+        // Assert
+        assertEquals(1, items.size());
+        assertEquals("Deleted", items.get(0).description);
+    }
+
+}
@@ -0,0 +1,130 @@
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ItemIngestTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void concurrentSubmissions_shouldShareCommits() throws Exception {
+        // Arrange
+        ItemIngest itemIngest = new ItemIngest(entityManagerFactory, itemController, 64, 50, 5);
+        ExecutorService producers = Executors.newFixedThreadPool(8);
+        List<Future<List<Integer>>> results = new ArrayList<>();
+        // Act
+        for (int producer = 0; producer < 8; producer++){
+            results.add(producers.submit(() -> {
+                List<CompletableFuture<Integer>> futures = new ArrayList<>();
+                for (int i = 0; i < 50; i++)
+                    futures.add(itemIngest.submit(null, "Ingested item", Priority.LOW, LocalDate.now()));
+                List<Integer> ids = new ArrayList<>();
+                for (CompletableFuture<Integer> future : futures)
+                    ids.add(future.join());
+                return ids;
+            }));
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (Future<List<Integer>> result : results)
+            ids.addAll(result.get());
+        producers.shutdown();
+        itemIngest.close();
+        // Assert
+        assertAll(
+                () -> assertEquals(400, ids.size()),
+                () -> assertEquals(400, itemController.getItems(ItemQuery.items()).size()),
+                () -> assertTrue(itemIngest.groupCount() < 400, "Groups: " + itemIngest.groupCount())
+        );
+    }
+
+    @Test
+    public void failingItem_shouldOnlyFailItsOwnFuture() throws InterruptedException {
+        // Arrange
+        ItemIngest itemIngest = new ItemIngest(entityManagerFactory, itemController, 64, 50, 500);
+        // Act
+        CompletableFuture<Integer> good = itemIngest.submit(null, "Good item", Priority.LOW, LocalDate.now());
+        CompletableFuture<Integer> bad = itemIngest.submit(null, StringUtils.repeat("x", 1000), Priority.LOW,
+                LocalDate.now());
+        itemIngest.close();
+        // Assert
+        assertAll(
+                () -> assertEquals("Good item", itemController.getItem(good.join()).description),
+                () -> assertThrows(CompletionException.class, bad::join),
+                () -> assertEquals(1, itemController.getItems(ItemQuery.items()).size())
+        );
+    }
+
+    @Test
+    public void submit_shouldFailAfterClose() throws InterruptedException {
+        // Arrange
+        ItemIngest itemIngest = new ItemIngest(entityManagerFactory, itemController, 64, 50, 5);
+        itemIngest.close();
+        // Act
+        CompletableFuture<Integer> result = itemIngest.submit(null, "Late item", Priority.LOW, LocalDate.now());
+        // Assert
+        assertThrows(CompletionException.class, result::join);
+    }
+
+    @Test
+    public void submit_racingWithClose_shouldCompleteEveryFuture() throws Exception {
+        // Arrange
+        ItemIngest itemIngest = new ItemIngest(entityManagerFactory, itemController, 4, 2, 0);
+        ExecutorService producers = Executors.newFixedThreadPool(8);
+        List<Future<List<CompletableFuture<Integer>>>> results = new ArrayList<>();
+        for (int producer = 0; producer < 8; producer++){
+            results.add(producers.submit(() -> {
+                List<CompletableFuture<Integer>> futures = new ArrayList<>();
+                for (int i = 0; i < 200; i++)
+                    futures.add(itemIngest.submit(null, "Ingested item", Priority.LOW, LocalDate.now()));
+                return futures;
+            }));
+        }
+        // Act
+        Thread.sleep(50);
+        itemIngest.close();
+        int created = 0;
+        int failed = 0;
+        for (Future<List<CompletableFuture<Integer>>> result : results){
+            for (CompletableFuture<Integer> future : result.get(10, TimeUnit.SECONDS)){
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                    created++;
+                } catch (ExecutionException e) {
+                    failed++;
+                }
+            }
+        }
+        producers.shutdown();
+        // Assert
+        assertEquals(1600, created + failed);
+        assertEquals(created, itemController.getItems(ItemQuery.items()).size());
+    }
+}
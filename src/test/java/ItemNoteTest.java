@@ -0,0 +1,89 @@
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ItemNoteTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static Statistics statistics;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database",
+                Collections.singletonMap("hibernate.generate_statistics", "true"));
+        itemController = new ItemController(entityManagerFactory);
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void listQueries_shouldNotLoadNotes(){
+        // Arrange
+        String note = String.join("", Collections.nCopies(1 << 20, "x"));
+        for (int i = 0; i < 5; i++){
+            itemController.createItem("Item " + i, Priority.MEDIUM, LocalDate.now().plusDays(i));
+            itemController.setNote(i + 1, note);
+        }
+        statistics.clear();
+        // Act
+        List<Item> items = itemController.getItems(ItemQuery.futureItems());
+        itemController.getItems(ItemQuery.futureItems().allTags("none"));
+        itemController.getHistogram();
+        itemController.getItem(1);
+        // Assert
+        assertAll(
+                () -> assertEquals(5, items.size()),
+                () -> assertEquals(0, statistics.getEntityStatistics(ItemNote.class.getName()).getLoadCount()),
+                () -> assertEquals(0, statistics.getEntityStatistics(ItemNote.class.getName()).getFetchCount())
+        );
+    }
+
+    @Test
+    public void getNote_shouldLoadOnlyTheNoteOfTheItem(){
+        // Arrange
+        itemController.createItem("First item", Priority.MEDIUM, LocalDate.now());
+        itemController.createItem("Second item", Priority.MEDIUM, LocalDate.now());
+        itemController.setNote(1, "First note");
+        itemController.setNote(2, "Second note");
+        itemController.setNote(2, "Replaced note");
+        statistics.clear();
+        // Act
+        String note = itemController.getNote(2);
+        // Assert
+        assertAll(
+                () -> assertEquals("Replaced note", note),
+                () -> assertEquals(1, statistics.getEntityStatistics(ItemNote.class.getName()).getLoadCount())
+        );
+    }
+
+    @Test
+    public void setNote_shouldRemoveBlankNotesAndRejectDeletedItems(){
+        // Arrange
+        itemController.createItem("First item", Priority.MEDIUM, LocalDate.now());
+        itemController.createItem("Second item", Priority.MEDIUM, LocalDate.now());
+        itemController.setNote(1, "Note");
+        itemController.deleteItem(2);
+        // Act
+        boolean removed = itemController.setNote(1, " ");
+        boolean setOnDeleted = itemController.setNote(2, "Note");
+        // Assert
+        assertAll(
+                () -> assertTrue(removed),
+                () -> assertNull(itemController.getNote(1)),
+                () -> assertFalse(setOnDeleted)
+        );
+    }
+}
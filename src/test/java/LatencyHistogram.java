@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe latency histogram for the load tools, in the style of HdrHistogram: values are counted in buckets
+ * whose width doubles with every power of two, each split into 32 linear sub-buckets, so every recorded value is
+ * kept with a relative error of at most about 3% regardless of magnitude.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one latency
+     * @param nanos Latency in nanoseconds
+     */
+    void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    long count() {
+        return count.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Gets the latency below which the given share of recorded latencies fall
+     * @param percentile Percentile between 0 and 100
+     * @return Latency in nanoseconds, rounded up to the bucket's upper bound
+     */
+    long percentile(double percentile) {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++){
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Formats the usual percentiles in milliseconds
+     * @return Summary line
+     */
+    String summary() {
+        return String.format("n=%d p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+                count(), percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6,
+                percentile(99.9) / 1e6, max() / 1e6);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> magnitude) - SUB_BUCKETS / 2;
+        return magnitude * SUB_BUCKETS / 2 + SUB_BUCKETS / 2 + subBucket;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int magnitude = (index - SUB_BUCKETS / 2) / (SUB_BUCKETS / 2);
+        long subBucket = (index - SUB_BUCKETS / 2) % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+}
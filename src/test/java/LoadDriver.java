@@ -0,0 +1,241 @@
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load driver simulating many concurrent users of the item controller.
+ *
+ * In closed-loop mode every user runs one operation after another, optionally pausing for a think time. In open-loop
+ * mode operations arrive at a fixed total rate regardless of how fast earlier ones finish, and latency is measured
+ * from the intended start time so queueing delay is not hidden. For each operation the driver reports throughput,
+ * latency percentiles and the number of H2 lock timeouts, deadlocks and other errors.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=LoadDriver -Dexec.classpathScope=test
+ * -Dexec.args="--unit test.inmemory.database --users 16 --seconds 30 --mode closed
+ * --mix create=10,get=40,list=20,toggle=10,update=10,delete=10 --rate 500 --think-ms 0 --items 1000"
+ */
+public class LoadDriver {
+
+    private static final int H2_LOCK_TIMEOUT = 50200;
+    private static final int H2_DEADLOCK = 40001;
+    private static final String[] OPERATIONS = {"create", "get", "list", "toggle", "update", "delete"};
+
+    private ItemController itemController;
+    private int[] cumulativeWeights = new int[OPERATIONS.length];
+    private AtomicInteger highestId = new AtomicInteger();
+    private Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private Map<String, AtomicLong> lockTimeouts = new LinkedHashMap<>();
+    private Map<String, AtomicLong> deadlocks = new LinkedHashMap<>();
+    private Map<String, AtomicLong> errors = new LinkedHashMap<>();
+
+    private LoadDriver(ItemController itemController, Map<String, Integer> mix){
+        this.itemController = itemController;
+        int total = 0;
+        for (int i = 0; i < OPERATIONS.length; i++){
+            total += mix.getOrDefault(OPERATIONS[i], 0);
+            cumulativeWeights[i] = total;
+            latencies.put(OPERATIONS[i], new LatencyHistogram());
+            lockTimeouts.put(OPERATIONS[i], new AtomicLong());
+            deadlocks.put(OPERATIONS[i], new AtomicLong());
+            errors.put(OPERATIONS[i], new AtomicLong());
+        }
+        if (total == 0)
+            throw new IllegalArgumentException("The operation mix is empty");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String unit = options.getOrDefault("unit", "test.inmemory.database");
+        int users = Integer.parseInt(options.getOrDefault("users", "16"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        int warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        boolean openLoop = options.getOrDefault("mode", "closed").equals("open");
+        int rate = Integer.parseInt(options.getOrDefault("rate", "500"));
+        long thinkMillis = Long.parseLong(options.getOrDefault("think-ms", "0"));
+        int items = Integer.parseInt(options.getOrDefault("items", "1000"));
+        Map<String, Integer> mix = parseMix(options.getOrDefault("mix",
+                "create=10,get=40,list=20,toggle=10,update=10,delete=10"));
+
+        EntityManagerFactory entityManagerFactory = Persistence.createEntityManagerFactory(unit);
+        ItemController itemController = new ItemController(entityManagerFactory);
+        LoadDriver driver = new LoadDriver(itemController, mix);
+        List<LocalDate> dates = new ArrayList<>();
+        for (int i = 0; i < items; i++)
+            dates.add(LocalDate.now().plusDays(i % 30 - 10));
+        IdRange seeded = itemController.createItems("Load test item", Priority.MEDIUM, dates);
+        driver.highestId.set(seeded == null ? 0 : seeded.last);
+
+        System.out.printf("unit=%s users=%d mode=%s%s seconds=%d mix=%s%n", unit, users, openLoop ? "open" : "closed",
+                openLoop ? " rate=" + rate + "/s" : "", seconds, mix);
+        long measured = openLoop ?
+                driver.runOpenLoop(users, rate, warmupSeconds, seconds) :
+                driver.runClosedLoop(users, thinkMillis, warmupSeconds, seconds);
+        driver.report(measured);
+        entityManagerFactory.close();
+        System.exit(0);
+    }
+
+    /**
+     * Runs every user in its own thread, each starting the next operation when the previous one finishes
+     * @return Measured duration in nanoseconds
+     */
+    private long runClosedLoop(int users, long thinkMillis, int warmupSeconds, int seconds) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(users);
+        for (int user = 0; user < users; user++){
+            pool.submit(() -> {
+                while (System.nanoTime() < end){
+                    long operationStart = System.nanoTime();
+                    runOperation(operationStart, operationStart >= measureStart);
+                    if (thinkMillis > 0)
+                        Thread.sleep(thinkMillis);
+                }
+                return null;
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(warmupSeconds + seconds + 60, TimeUnit.SECONDS);
+        return end - measureStart;
+    }
+
+    /**
+     * Schedules operations at a fixed total rate onto a pool of users. Latency includes the time an operation waited
+     * for a free user after its intended start.
+     * @return Measured duration in nanoseconds
+     */
+    private long runOpenLoop(int users, int rate, int warmupSeconds, int seconds) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(users);
+        ScheduledExecutorService arrivals = Executors.newSingleThreadScheduledExecutor();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong arrival = new AtomicLong();
+        arrivals.scheduleAtFixedRate(() -> {
+            long intendedStart = start + arrival.getAndIncrement() * intervalNanos;
+            if (intendedStart >= end)
+                return;
+            pool.execute(() -> runOperation(intendedStart, intendedStart >= measureStart));
+        }, 0, intervalNanos, TimeUnit.NANOSECONDS);
+        TimeUnit.NANOSECONDS.sleep(end - start);
+        arrivals.shutdownNow();
+        pool.shutdown();
+        pool.awaitTermination(60, TimeUnit.SECONDS);
+        return end - measureStart;
+    }
+
+    /**
+     * Picks an operation from the mix, runs it and records its latency or failure
+     * @param startNanos Start time the latency is measured from
+     * @param record False during warmup
+     */
+    private void runOperation(long startNanos, boolean record) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int operation = 0;
+        while (pick >= cumulativeWeights[operation])
+            operation++;
+        String name = OPERATIONS[operation];
+        int id = 1 + random.nextInt(Math.max(1, highestId.get()));
+        try {
+            switch (name){
+                case "create":
+                    itemController.createItem("Created by load driver", Priority.LOW,
+                            LocalDate.now().plusDays(random.nextInt(14)));
+                    highestId.incrementAndGet();
+                    break;
+                case "get":
+                    itemController.getItem(id);
+                    break;
+                case "list":
+                    itemController.getItems(ItemQuery.futureItems().limit(50));
+                    break;
+                case "toggle":
+                    itemController.toggleCompleted(id);
+                    break;
+                case "update":
+                    itemController.updateItem(id, "Updated by load driver", Priority.HIGH,
+                            LocalDate.now().plusDays(random.nextInt(14)), random.nextBoolean());
+                    break;
+                default:
+                    itemController.deleteItem(id);
+            }
+            if (record)
+                latencies.get(name).record(System.nanoTime() - startNanos);
+        } catch (RuntimeException e) {
+            if (!record)
+                return;
+            int errorCode = sqlErrorCode(e);
+            if (errorCode == H2_LOCK_TIMEOUT)
+                lockTimeouts.get(name).incrementAndGet();
+            else if (errorCode == H2_DEADLOCK)
+                deadlocks.get(name).incrementAndGet();
+            else
+                errors.get(name).incrementAndGet();
+        }
+    }
+
+    private void report(long measuredNanos) {
+        double seconds = measuredNanos / 1e9;
+        long total = 0;
+        for (String name : OPERATIONS){
+            LatencyHistogram histogram = latencies.get(name);
+            total += histogram.count();
+            if (histogram.count() + errors.get(name).get() + lockTimeouts.get(name).get() + deadlocks.get(name).get() == 0)
+                continue;
+            System.out.printf("%-7s %8.1f ops/s  %s  lockTimeouts=%d deadlocks=%d errors=%d%n", name,
+                    histogram.count() / seconds, histogram.summary(), lockTimeouts.get(name).get(),
+                    deadlocks.get(name).get(), errors.get(name).get());
+        }
+        System.out.printf("total   %8.1f ops/s%n", total / seconds);
+    }
+
+    /**
+     * Finds the H2 error code of the SQL exception behind a persistence exception
+     * @param e Exception thrown by a controller
+     * @return H2 error code, 0 if there is no SQL exception in the cause chain
+     */
+    private static int sqlErrorCode(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()){
+            if (cause instanceof SQLException)
+                return ((SQLException) cause).getErrorCode();
+        }
+        return 0;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2){
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")){
+            String[] parts = entry.split("=");
+            if (parts.length != 2 || !Arrays.asList(OPERATIONS).contains(parts[0]))
+                throw new IllegalArgumentException("Invalid mix entry " + entry);
+            weights.put(parts[0], Integer.parseInt(parts[1]));
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,118 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReminderSchedulerTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2030, 1, 1);
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static TestClock clock;
+    private static List<String> reminders;
+    private static ReminderScheduler reminderScheduler;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        clock = new TestClock(TODAY.atTime(12, 0).toInstant(ZoneOffset.UTC));
+        reminders = Collections.synchronizedList(new ArrayList<>());
+        reminderScheduler = new ReminderScheduler(itemController, Arrays.asList(Duration.ofDays(1), Duration.ofHours(2)),
+                (item, leadTime) -> reminders.add(item.description + " " + leadTime), clock);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        reminderScheduler.stop();
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void fireDueReminders_shouldFireOncePerLeadTime(){
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, TODAY.plusDays(2));
+        reminderScheduler.start();
+        // Act
+        clock.set(TODAY.plusDays(2).atTime(0, 1).toInstant(ZoneOffset.UTC));
+        reminderScheduler.fireDueReminders();
+        reminderScheduler.fireDueReminders();
+        clock.set(TODAY.plusDays(2).atTime(22, 30).toInstant(ZoneOffset.UTC));
+        reminderScheduler.fireDueReminders();
+        // Assert
+        assertEquals(Arrays.asList("First item PT24H", "First item PT2H"), reminders);
+    }
+
+    @Test
+    public void fireDueReminders_shouldFollowChangesMadeAfterStart(){
+        // Arrange
+        itemController.createItem("Completed item", Priority.HIGH, TODAY.plusDays(1));
+        itemController.createItem("Moved item", Priority.HIGH, TODAY.plusDays(1));
+        reminderScheduler.start();
+        itemController.createItem("New item", Priority.LOW, TODAY.plusDays(1));
+        itemController.toggleCompleted(1);
+        itemController.updateItem(2, "Moved item", Priority.HIGH, TODAY.plusDays(5), false);
+        // Act
+        clock.set(TODAY.plusDays(1).atTime(1, 0).toInstant(ZoneOffset.UTC));
+        reminderScheduler.fireDueReminders();
+        // Assert
+        assertEquals(Collections.singletonList("New item PT24H"), reminders);
+    }
+
+    @Test
+    public void start_shouldTrackDatesInsteadOfItems(){
+        // Arrange
+        List<LocalDate> dates = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+            dates.add(TODAY.plusDays(1 + i % 3));
+        itemController.createItems("Bulk item", Priority.MEDIUM, dates);
+        // Act
+        reminderScheduler.start();
+        // Assert
+        assertEquals(3, reminderScheduler.trackedDates());
+    }
+
+    /**
+     * Clock whose time only changes when set by the test
+     */
+    private static class TestClock extends Clock {
+
+        private volatile Instant instant;
+
+        TestClock(Instant instant){
+            this.instant = instant;
+        }
+
+        void set(Instant instant){
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
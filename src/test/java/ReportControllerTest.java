@@ -0,0 +1,131 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportControllerTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static ReportController reportController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        reportController = new ReportController(entityManagerFactory);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void itemChanges_shouldUpdateDailyRollups(){
+        // Arrange
+        LocalDate today = LocalDate.now();
+        itemController.createItem("First item", Priority.HIGH, today.plusDays(2));
+        itemController.createItem("Second item", Priority.HIGH, today.plusDays(2));
+        itemController.createItems("Bulk item", Priority.LOW, Arrays.asList(today, today.plusDays(2)));
+        // Act
+        itemController.toggleCompleted(1);
+        itemController.toggleCompleted(3);
+        itemController.toggleCompleted(3);
+        itemController.deleteItem(2);
+        List<DailyRollup> rows = reportController.getDailyRollups(today, today.plusDays(3));
+        // Assert
+        assertEquals(4, rows.size());
+        assertAll(
+                () -> assertRollup(rows.get(0), today, Priority.HIGH, 2, 1, 0),
+                () -> assertRollup(rows.get(1), today, Priority.LOW, 2, 0, 1),
+                () -> assertRollup(rows.get(2), today.plusDays(2), Priority.HIGH, 0, 0, 0),
+                () -> assertRollup(rows.get(3), today.plusDays(2), Priority.LOW, 0, 0, 1)
+        );
+    }
+
+    @Test
+    public void backfill_shouldRebuildSameCountsAsIncrementalUpdates(){
+        // Arrange
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 10; i++)
+            itemController.createItem("Item " + i, Priority.values()[i % 3], today.plusDays(i % 4));
+        for (int i = 1; i <= 10; i += 3)
+            itemController.toggleCompleted(i);
+        itemController.updateItem(2, "Moved item", Priority.HIGH, today.plusDays(7), false);
+        itemController.deleteItem(5);
+        List<String> incremental = describe(reportController.getDailyRollups(today, today.plusDays(8)));
+        // Act
+        reportController.backfill();
+        // Assert
+        assertEquals(incremental, describe(reportController.getDailyRollups(today, today.plusDays(8))));
+    }
+
+    @Test
+    public void backfill_overdueItemsDeleted_shouldRebuildSameCountsAsIncrementalUpdates(){
+        // Arrange
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 6; i++)
+            itemController.createItem("Overdue item " + i, Priority.values()[i % 3], today.minusDays(1 + i % 2));
+        itemController.toggleCompleted(1);
+        itemController.deleteItem(2);
+        itemController.deleteItem(3);
+        List<String> incremental = describe(reportController.getDailyRollups(today.minusDays(3), today));
+        // Act
+        reportController.backfill();
+        // Assert
+        assertEquals(incremental, describe(reportController.getDailyRollups(today.minusDays(3), today)));
+        assertEquals(4, reportController.getDailyRollups(today.minusDays(3), today).stream()
+                .mapToInt(row -> row.dueOpen).sum());
+    }
+
+    @Test
+    public void getWeeklyRollups_shouldSumDaysAndCountOverdueItems(){
+        // Arrange
+        LocalDate monday = LocalDate.of(2026, 1, 5);
+        UnitOfWork.run(entityManagerFactory, entityManager -> {
+            for (int day = 0; day < 14; day++){
+                Item item = new Item("Old item", Priority.MEDIUM, monday.plusDays(day));
+                item.createdAt = monday.plusDays(day).atTime(9, 0);
+                if (day % 2 == 0){
+                    item.isCompleted = true;
+                    item.completedAt = LocalDateTime.of(monday.plusDays(day), item.createdAt.toLocalTime().plusHours(1));
+                }
+                DescriptionDictionary.resolve(entityManager, List.of(item));
+                entityManager.persist(item);
+            }
+            return null;
+        });
+        reportController.backfill();
+        // Act
+        List<DailyRollup> weeks = reportController.getWeeklyRollups(monday.plusDays(3), monday.plusDays(14));
+        // Assert
+        assertEquals(2, weeks.size());
+        assertAll(
+                () -> assertRollup(weeks.get(0), monday, Priority.MEDIUM, 7, 4, 3),
+                () -> assertRollup(weeks.get(1), monday.plusWeeks(1), Priority.MEDIUM, 7, 3, 4)
+        );
+    }
+
+    private static void assertRollup(DailyRollup row, LocalDate day, Priority priority, int created, int completed,
+                                     int dueOpen) {
+        assertEquals(day + " " + priority + " " + created + "/" + completed + "/" + dueOpen,
+                row.day + " " + row.priority + " " + row.created + "/" + row.completed + "/" + row.dueOpen);
+    }
+
+    private static List<String> describe(List<DailyRollup> rows) {
+        List<String> descriptions = new ArrayList<>();
+        for (DailyRollup row : rows){
+            if (row.created != 0 || row.completed != 0 || row.dueOpen != 0)
+                descriptions.add(row.day + " " + row.priority + " " + row.created + "/" + row.completed + "/" + row.dueOpen);
+        }
+        return descriptions;
+    }
+}
@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static TemplateController templateController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        templateController = new TemplateController(entityManagerFactory, itemController);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void repeatedReads_shouldNotRunStatements(){
+        // Arrange
+        itemController.createItem("First item", Priority.LOW, LocalDate.now().plusDays(1));
+        templateController.createTemplate("Template", "Template item", Priority.HIGH, 2);
+        List<Item> first = itemController.getItems(false);
+        itemController.getHistogram();
+        itemController.countDeadlines(LocalDate.now());
+        templateController.getTemplates();
+        // Act
+        StatementCounter.Counts counts = StatementAssertions.assertMaxStatements(0, () -> {
+            itemController.getItems(false);
+            itemController.getHistogram();
+            itemController.countDeadlines(LocalDate.now());
+            templateController.getTemplates();
+        });
+        // Assert
+        assertAll(
+                () -> assertEquals(0, counts.statements),
+                () -> assertSame(first, itemController.getItems(false)),
+                () -> assertEquals(4, itemController.getResultCache().hitCount()),
+                () -> assertThrows(UnsupportedOperationException.class, () -> first.remove(0))
+        );
+    }
+
+    @Test
+    public void write_shouldMakeCachedResultsStale(){
+        // Arrange
+        itemController.createItem("First item", Priority.LOW, LocalDate.now().plusDays(1));
+        itemController.getItems(false);
+        int[][] histogram = itemController.getHistogram();
+        long version = ResultCache.version(entityManagerFactory);
+        // Act
+        itemController.createItem("Second item", Priority.LOW, LocalDate.now().plusDays(1));
+        List<Item> items = itemController.getItems(false);
+        // Assert
+        assertAll(
+                () -> assertEquals(version + 1, ResultCache.version(entityManagerFactory)),
+                () -> assertEquals(2, items.size()),
+                () -> assertEquals(1, histogram[1][Priority.LOW.ordinal()]),
+                () -> assertEquals(2, itemController.getHistogram()[1][Priority.LOW.ordinal()])
+        );
+    }
+
+    @Test
+    public void readInUnitOfWork_shouldSeeUncommittedChanges(){
+        // Arrange
+        itemController.createItem("First item", Priority.LOW, LocalDate.now().plusDays(1));
+        itemController.getItems(false);
+        long version = ResultCache.version(entityManagerFactory);
+        List<Item> uncommitted;
+        // Act
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            itemController.toggleCompleted(1);
+            uncommitted = itemController.getItems(false);
+            unitOfWork.setRollbackOnly();
+        }
+        List<Item> afterRollback = itemController.getItems(false);
+        // Assert
+        assertAll(
+                () -> assertTrue(uncommitted.get(0).isCompleted),
+                () -> assertFalse(afterRollback.get(0).isCompleted),
+                () -> assertEquals(version, ResultCache.version(entityManagerFactory))
+        );
+    }
+}
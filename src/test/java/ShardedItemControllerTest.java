@@ -0,0 +1,160 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedItemControllerTest {
+
+    private static List<EntityManagerFactory> shards;
+    private static ShardedItemController shardedItemController;
+
+    private static EntityManagerFactory openShard(String name) {
+        EntityManagerFactory entityManagerFactory = ShardedItemController.openShard("test.inmemory.database",
+                "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;MVCC=TRUE");
+        shards.add(entityManagerFactory);
+        return entityManagerFactory;
+    }
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        shards = new ArrayList<>();
+        shardedItemController = new ShardedItemController();
+        shardedItemController.addShard("shard1", openShard("shard1"));
+        shardedItemController.addShard("shard2", openShard("shard2"));
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        shardedItemController.close();
+        for (EntityManagerFactory entityManagerFactory : shards)
+            entityManagerFactory.close();
+    }
+
+    @Test
+    public void createItemAndGetItem_shouldRouteByList(){
+        // Arrange
+        shardedItemController.createItem("team-a", "Item A", Priority.HIGH, LocalDate.now());
+        // Act
+        Item item = shardedItemController.getItem("team-a", 1);
+        Item otherList = shardedItemController.getItem("team-b", 1);
+        // Assert
+        assertNotNull(item);
+        assertEquals("Item A", item.description);
+        assertEquals("team-a", item.listName);
+        assertNull(otherList);
+    }
+
+    @Test
+    public void getItemsAndHistogram_shouldMergeAllShards(){
+        // Arrange
+        for (int i = 0; i < 20; i++)
+            shardedItemController.createItem("list" + i, "Item " + i, Priority.LOW, LocalDate.now().plusDays(i % 5));
+        shardedItemController.createItem("list0", "Past item", Priority.LOW, LocalDate.now().minusDays(1));
+        // Act
+        List<Item> items = shardedItemController.getItems(false);
+        int[][] histogram = shardedItemController.getHistogram();
+        // Assert
+        assertEquals(20, items.size());
+        for (int i = 1; i < items.size(); i++)
+            assertFalse(items.get(i).deadlineDate.isBefore(items.get(i - 1).deadlineDate));
+        assertEquals(4, histogram[0][Priority.LOW.ordinal()]);
+        assertEquals(1, shardedItemController.getItems(true).size());
+    }
+
+    @Test
+    public void toggleAndDelete_wrongList_shouldReturnFalse(){
+        // Arrange
+        shardedItemController.createItem("team-a", "Item A", Priority.HIGH, LocalDate.now());
+        // Act
+        boolean toggledWrongList = shardedItemController.toggleCompleted("team-b", 1);
+        boolean toggled = shardedItemController.toggleCompleted("team-a", 1);
+        boolean deleted = shardedItemController.deleteItem("team-a", 1);
+        // Assert
+        assertFalse(toggledWrongList);
+        assertTrue(toggled);
+        assertTrue(deleted);
+        assertNull(shardedItemController.getItem("team-a", 1));
+    }
+
+    @Test
+    public void addShard_shouldMoveOnlyRemappedLists(){
+        // Arrange
+        for (int i = 0; i < 30; i++)
+            shardedItemController.createItem("list" + i, "Item " + i, Priority.MEDIUM, LocalDate.now());
+        Set<Integer> idsBefore = new HashSet<>();
+        for (Item item : shardedItemController.getItems(false)){
+            idsBefore.add(item.id);
+            assertTrue(shardedItemController.setTags(item.listName, item.id, List.of("tag-" + item.listName)));
+            assertTrue(shardedItemController.setNote(item.listName, item.id, "Note of " + item.listName));
+        }
+        EntityManagerFactory shard3 = openShard("shard3");
+        // Act
+        int moved = shardedItemController.addShard("shard3", shard3);
+        int movedAgain = shardedItemController.addShard("shard3", shard3);
+        List<Item> items = shardedItemController.getItems(false);
+        // Assert
+        assertTrue(moved > 0 && moved < 30);
+        assertEquals(0, movedAgain);
+        assertEquals(30, items.size());
+        Set<Integer> idsAfter = new HashSet<>();
+        for (Item item : items)
+            idsAfter.add(item.id);
+        assertEquals(30, idsBefore.size());
+        assertEquals(idsBefore, idsAfter);
+        for (int i = 0; i < 30; i++){
+            List<Item> listItems = shardedItemController.getItems("list" + i, ItemQuery.futureItems());
+            assertEquals(1, listItems.size());
+            assertNotNull(shardedItemController.getItem("list" + i, listItems.get(0).id));
+            assertEquals(Set.of("tag-list" + i), shardedItemController.getTags("list" + i, listItems.get(0).id));
+            assertEquals("Note of list" + i, shardedItemController.getNote("list" + i, listItems.get(0).id));
+            assertEquals(1, shardedItemController.getItems("list" + i, ItemQuery.futureItems()
+                    .allTags("tag-list" + i)).size());
+        }
+    }
+
+    @Test
+    public void addShard_archivedItems_shouldMoveArchiveWithList(){
+        // Arrange
+        LocalDate longAgo = LocalDate.now().minusDays(100);
+        for (int i = 0; i < 30; i++){
+            shardedItemController.createItem("list" + i, "Old item " + i, Priority.LOW, longAgo);
+            shardedItemController.createItem("list" + i, "Item " + i, Priority.MEDIUM, LocalDate.now());
+        }
+        for (Item item : shardedItemController.getItems(true)){
+            assertTrue(shardedItemController.setTags(item.listName, item.id, List.of("tag-" + item.listName)));
+            assertTrue(shardedItemController.setNote(item.listName, item.id, "Note of " + item.listName));
+        }
+        int archived = 0;
+        for (EntityManagerFactory shard : shards)
+            archived += new ItemArchive(shard, 30).archive();
+        EntityManagerFactory shard3 = openShard("shard3");
+        // Act
+        int moved = shardedItemController.addShard("shard3", shard3);
+        int movedAgain = shardedItemController.addShard("shard3", shard3);
+        // Assert
+        assertEquals(30, archived);
+        assertTrue(moved > 0 && moved < 60 && moved % 2 == 0);
+        assertEquals(0, movedAgain);
+        for (int i = 0; i < 30; i++){
+            List<Item> pastItems = shardedItemController.getItems("list" + i, ItemQuery.pastItems());
+            assertEquals(1, pastItems.size());
+            assertEquals("Old item " + i, pastItems.get(0).description);
+            assertEquals(Set.of("tag-list" + i), shardedItemController.getTags("list" + i, pastItems.get(0).id));
+            assertEquals("Note of list" + i, shardedItemController.getNote("list" + i, pastItems.get(0).id));
+            assertEquals(1, shardedItemController.getItems("list" + i, ItemQuery.futureItems()).size());
+        }
+        for (EntityManagerFactory shard : shards){
+            long archiveRows = UnitOfWork.run(shard, entityManager -> entityManager.createQuery(
+                    "SELECT COUNT(a) FROM ArchivedItem a", Long.class).getSingleResult());
+            long itemRows = UnitOfWork.run(shard, entityManager -> entityManager.createQuery(
+                    "SELECT COUNT(i) FROM Item i", Long.class).getSingleResult());
+            assertEquals(itemRows, archiveRows);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static TemplateController templateController;
+    private static Path file;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() throws Exception {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        templateController = new TemplateController(entityManagerFactory, itemController);
+        file = Files.createTempFile("todo", ".snapshot");
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() throws Exception {
+        entityManagerFactory.close();
+        Files.deleteIfExists(file);
+    }
+
+    private static void reopenDatabase() {
+        entityManagerFactory.close();
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        templateController = new TemplateController(entityManagerFactory, itemController);
+    }
+
+    @Test
+    public void writeAndRestore_shouldRestoreItemsAndTemplates() throws Exception {
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        itemController.createItem("work", "Second \u00e4 item", Priority.LOW, LocalDate.now().plusDays(3));
+        itemController.createItem("Deleted item", Priority.LOW, LocalDate.now());
+        itemController.toggleCompleted(2);
+        itemController.deleteItem(3);
+        templateController.createTemplate("name", "description", Priority.MEDIUM, 2L, Recurrence.EVERY_N_DAYS, 3);
+        // Act
+        int written = Snapshot.write(entityManagerFactory, file);
+        reopenDatabase();
+        int restored = Snapshot.restore(entityManagerFactory, file);
+        List<Item> items = itemController.getItems(false);
+        Template template = templateController.getTemplate(1);
+        // Assert
+        assertEquals(4, written);
+        assertEquals(4, restored);
+        assertEquals(2, items.size());
+        assertNull(itemController.getItem(3));
+        Item item = itemController.getItem(2);
+        assertAll(
+                () -> assertEquals("Second \u00e4 item", item.description),
+                () -> assertEquals("work", item.listName),
+                () -> assertEquals(Priority.LOW, item.priority),
+                () -> assertEquals(LocalDate.now().plusDays(3), item.deadlineDate),
+                () -> assertTrue(item.isCompleted),
+                () -> assertEquals("name", template.name),
+                () -> assertEquals(Recurrence.EVERY_N_DAYS, template.recurrence),
+                () -> assertEquals(3, template.recurrenceInterval),
+                () -> assertEquals(LocalDate.now().plusDays(2), template.recurrenceStart),
+                () -> assertNull(template.generatedUntil)
+        );
+    }
+
+    @Test
+    public void restore_newItemsAfterRestore_shouldContinueIds() throws Exception {
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        itemController.createItem("Second item", Priority.HIGH, LocalDate.now());
+        Snapshot.write(entityManagerFactory, file);
+        reopenDatabase();
+        Snapshot.restore(entityManagerFactory, file);
+        // Act
+        itemController.createItem("Third item", Priority.HIGH, LocalDate.now());
+        // Assert
+        assertEquals("Third item", itemController.getItem(3).description);
+    }
+
+    @Test
+    public void restore_nonEmptyDatabase_shouldThrow() throws Exception {
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        Snapshot.write(entityManagerFactory, file);
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> Snapshot.restore(entityManagerFactory, file));
+    }
+
+    @Test
+    public void writeAndRestore_tagsNotesAndArchivedItems_shouldRestoreThem() throws Exception {
+        // Arrange
+        itemController.createItem("Old item", Priority.HIGH, LocalDate.now().minusDays(100));
+        itemController.createItem("New item", Priority.LOW, LocalDate.now().plusDays(1));
+        itemController.setTags(1, Arrays.asList("old", "shared"));
+        itemController.setTags(2, Arrays.asList("shared"));
+        itemController.setNote(1, "Note \u00e4 of the old item");
+        itemController.setNote(2, "Note of the new item");
+        new ItemArchive(entityManagerFactory, 30).archive();
+        // Act
+        Snapshot.write(entityManagerFactory, file);
+        reopenDatabase();
+        int restored = Snapshot.restore(entityManagerFactory, file);
+        // Assert
+        assertEquals(2, restored);
+        assertAll(
+                () -> assertEquals("Old item", itemController.getItem(1).description),
+                () -> assertEquals(Set.of("old", "shared"), itemController.getTags(1)),
+                () -> assertEquals(Set.of("shared"), itemController.getTags(2)),
+                () -> assertEquals("Note \u00e4 of the old item", itemController.getNote(1)),
+                () -> assertEquals("Note of the new item", itemController.getNote(2))
+        );
+    }
+
+    @Test
+    public void writeAndRestore_longNotes_shouldRestoreWholeBodies() throws Exception {
+        // Arrange
+        String longNote = "Line with \u00e4 and \ud83d\ude00\n".repeat(100_000);
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        itemController.createItem("Second item", Priority.HIGH, LocalDate.now());
+        itemController.createItem("Third item", Priority.HIGH, LocalDate.now());
+        itemController.setNote(1, longNote);
+        itemController.setNote(2, "x");
+        itemController.setNote(3, "Short note");
+        // Act
+        Snapshot.write(entityManagerFactory, file);
+        reopenDatabase();
+        Snapshot.restore(entityManagerFactory, file);
+        // Assert
+        assertAll(
+                () -> assertEquals(longNote, itemController.getNote(1)),
+                () -> assertEquals("x", itemController.getNote(2)),
+                () -> assertEquals("Short note", itemController.getNote(3))
+        );
+    }
+
+    @Test
+    public void writeAndRestore_dependencies_shouldRestoreGraph() throws Exception {
+        // Arrange
+        for (int i = 0; i < 4; i++)
+            itemController.createItem("Item " + i, Priority.MEDIUM, LocalDate.now().plusDays(1));
+        DependencyController dependencyController = new DependencyController(entityManagerFactory, itemController);
+        dependencyController.addDependency(1, 3);
+        dependencyController.addDependency(2, 3);
+        dependencyController.addDependency(3, 4);
+        // Act
+        Snapshot.write(entityManagerFactory, file);
+        reopenDatabase();
+        Snapshot.restore(entityManagerFactory, file);
+        DependencyController restoredController = new DependencyController(entityManagerFactory, itemController);
+        // Assert
+        assertAll(
+                () -> assertEquals(List.of(1, 2), restoredController.getBlockers(3).stream()
+                        .map(item -> item.id).sorted().collect(Collectors.toList())),
+                () -> assertEquals(List.of(3), restoredController.getBlockers(4).stream()
+                        .map(item -> item.id).collect(Collectors.toList())),
+                () -> assertTrue(restoredController.isBlocked(4)),
+                () -> assertFalse(restoredController.isBlocked(1)),
+                () -> assertThrows(IllegalArgumentException.class, () -> restoredController.addDependency(4, 1))
+        );
+    }
+
+    @Test
+    public void write_existingSnapshot_shouldReplaceItWithoutLeavingTemporaryFiles() throws Exception {
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        Snapshot.write(entityManagerFactory, file);
+        itemController.createItem("Second item", Priority.HIGH, LocalDate.now());
+        // Act
+        int written = Snapshot.write(entityManagerFactory, file);
+        List<Path> leftovers;
+        try (Stream<Path> files = Files.list(file.getParent())) {
+            leftovers = files.filter(path -> path.getFileName().toString().startsWith(file.getFileName() + "."))
+                    .collect(Collectors.toList());
+        }
+        reopenDatabase();
+        int restored = Snapshot.restore(entityManagerFactory, file);
+        // Assert
+        assertEquals(2, written);
+        assertEquals(2, restored);
+        assertEquals(List.of(), leftovers);
+    }
+}
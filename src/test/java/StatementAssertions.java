@@ -0,0 +1,32 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Assertions on the number of SQL statements an operation runs, so query count regressions such as N+1 selects fail
+ * the tests. The failure message lists the SQL of every statement the operation ran.
+ */
+class StatementAssertions {
+
+    /**
+     * Asserts that an operation executes at most the given number of SQL statements
+     * @param max Maximum number of statements
+     * @param operation Operation to run
+     * @return Counts of the operation
+     */
+    static StatementCounter.Counts assertMaxStatements(int max, Runnable operation) {
+        StatementCounter.Counts counts = StatementCounter.measure(operation);
+        assertTrue(counts.statements <= max, () -> "Expected at most " + max + " statements but got " + counts);
+        return counts;
+    }
+
+    /**
+     * Asserts that an operation makes at most the given number of round trips to the database
+     * @param max Maximum number of round trips
+     * @param operation Operation to run
+     * @return Counts of the operation
+     */
+    static StatementCounter.Counts assertMaxRoundTrips(int max, Runnable operation) {
+        StatementCounter.Counts counts = StatementCounter.measure(operation);
+        assertTrue(counts.roundTrips <= max, () -> "Expected at most " + max + " round trips but got " + counts);
+        return counts;
+    }
+}
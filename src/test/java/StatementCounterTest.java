@@ -0,0 +1,91 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatementCounterTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void getItem_shouldRunOneStatement(){
+        // Arrange
+        itemController.createItem("First item", Priority.LOW, LocalDate.now().plusDays(1));
+        // Act
+        StatementCounter.Counts counts = StatementAssertions.assertMaxStatements(1, () -> itemController.getItem(1));
+        // Assert
+        assertEquals(1, counts.rows);
+    }
+
+    @Test
+    public void getItems_shouldNotRunStatementsPerItem(){
+        // Arrange
+        itemController.createItems("Bulk item", Priority.LOW, Collections.nCopies(60, LocalDate.now().plusDays(1)));
+        for (int id = 1; id <= 5; id++)
+            itemController.setTags(id, Arrays.asList("home"));
+        itemController.getBitmapIndex();
+        StatementCounter.Counts fewItems = StatementCounter.measure(
+                () -> itemController.getItems(ItemQuery.futureItems().allTags("home")));
+        for (int id = 6; id <= 60; id++)
+            itemController.setTags(id, Arrays.asList("home"));
+        // Act
+        StatementCounter.Counts manyItems = StatementAssertions.assertMaxStatements((int) fewItems.statements,
+                () -> itemController.getItems(ItemQuery.futureItems().allTags("home")));
+        // Assert
+        assertAll(
+                () -> assertEquals(1, manyItems.statements),
+                () -> assertEquals(60, manyItems.rows)
+        );
+    }
+
+    @Test
+    public void createItems_shouldBatchInserts(){
+        // Act
+        StatementCounter.Counts counts = StatementAssertions.assertMaxRoundTrips(20,
+                () -> itemController.createItems("Bulk item", Priority.LOW,
+                        Collections.nCopies(120, LocalDate.now().plusDays(1))));
+        // Assert
+        assertTrue(counts.statements >= 120);
+    }
+
+    @Test
+    public void slowStatements_shouldBeLoggedWithBoundParameters(){
+        // Arrange
+        entityManagerFactory.close();
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database",
+                Collections.singletonMap(StatementCounter.SLOW_STATEMENT_MS, "0"));
+        itemController = new ItemController(entityManagerFactory);
+        itemController.createItem("First item", Priority.LOW, LocalDate.now().plusDays(1));
+        PrintStream err = System.err;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        // Act
+        System.setErr(new PrintStream(log, true));
+        try {
+            itemController.getItem(1);
+        } finally {
+            System.setErr(err);
+        }
+        // Assert
+        assertTrue(log.toString().matches("(?s)Slow statement took \\d+ ms: select .* where item0_.id=\\? \\[1=1\\]\\s*"),
+                log.toString());
+    }
+}
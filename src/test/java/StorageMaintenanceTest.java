@@ -0,0 +1,138 @@
+import org.h2.tools.Server;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageMaintenanceTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+    private static StorageMaintenance storageMaintenance;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+        storageMaintenance = new StorageMaintenance(entityManagerFactory);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void report_shouldCountLiveAndInactiveRows(){
+        // Arrange
+        itemController.createItems("Water the plants", Priority.LOW, Collections.nCopies(5, LocalDate.now()));
+        itemController.deleteItem(1);
+        itemController.deleteItem(2);
+        // Act
+        StorageMaintenance.Report report = storageMaintenance.report();
+        StorageMaintenance.TableReport items = report.tables.stream()
+                .filter(table -> table.name.equals("ITEM")).findFirst().orElse(null);
+        StorageMaintenance.TableReport descriptions = report.tables.stream()
+                .filter(table -> table.name.equals("ITEMDESCRIPTION")).findFirst().orElse(null);
+        // Assert
+        assertAll(
+                () -> assertNotNull(items),
+                () -> assertEquals(5, items.rows),
+                () -> assertEquals(2, items.inactiveRows),
+                () -> assertEquals(1, descriptions.rows),
+                () -> assertEquals(-1, descriptions.inactiveRows),
+                () -> assertEquals(0, report.fileBytes)
+        );
+    }
+
+    @Test
+    public void compact_shouldDoNothingForInMemoryDatabase(){
+        // Arrange
+        itemController.createItem("Pay the rent", Priority.HIGH, LocalDate.now());
+        // Act
+        long saved = storageMaintenance.compact();
+        // Assert
+        assertAll(
+                () -> assertEquals(0, saved),
+                () -> assertEquals("Pay the rent", itemController.getItem(1).description)
+        );
+    }
+
+    @Test
+    public void compact_fileDatabaseWithSoftDeletedRows_shouldShrinkFileAndKeepData(@TempDir Path directory){
+        // Arrange
+        Map<String, String> properties = new HashMap<>();
+        properties.put("javax.persistence.jdbc.url",
+                "jdbc:h2:" + directory.resolve("compact").toAbsolutePath() + ";MVCC=TRUE;RETENTION_TIME=0");
+        EntityManagerFactory fileDatabase = Persistence.createEntityManagerFactory("test.inmemory.database",
+                properties);
+        try {
+            ItemController fileItems = new ItemController(fileDatabase);
+            StorageMaintenance fileMaintenance = new StorageMaintenance(fileDatabase);
+            for (int i = 0; i < 10; i++)
+                fileItems.createItems("Water the plants " + i, Priority.LOW,
+                        Collections.nCopies(2000, LocalDate.now()));
+            for (int i = 0; i < 5; i++)
+                UnitOfWork.run(fileDatabase, entityManager -> entityManager
+                        .createNativeQuery("UPDATE Item SET isActive = FALSE WHERE isActive = TRUE AND MOD(id, 2) = 0")
+                        .executeUpdate() + entityManager
+                        .createNativeQuery("UPDATE Item SET isActive = TRUE WHERE isActive = FALSE")
+                        .executeUpdate());
+            UnitOfWork.run(fileDatabase, entityManager -> entityManager
+                    .createNativeQuery("UPDATE Item SET isActive = FALSE WHERE MOD(id, 2) = 0").executeUpdate());
+            long sizeBefore = fileMaintenance.report().fileBytes;
+            // Act
+            long saved = fileMaintenance.compact();
+            StorageMaintenance.Report report = fileMaintenance.report();
+            StorageMaintenance.TableReport items = report.tables.stream()
+                    .filter(table -> table.name.equals("ITEM")).findFirst().orElse(null);
+            // Assert
+            assertAll(
+                    () -> assertTrue(saved > 0),
+                    () -> assertTrue(report.fileBytes < sizeBefore),
+                    () -> assertEquals(20000, items.rows),
+                    () -> assertEquals(10000, items.inactiveRows),
+                    () -> assertEquals("Water the plants 0", fileItems.getItem(1).description),
+                    () -> assertEquals(10000, fileItems.getItems(false).size())
+            );
+        } finally {
+            fileDatabase.close();
+        }
+    }
+
+    @Test
+    public void compact_databaseOfOtherProcess_shouldThrowIllegalStateException() throws SQLException {
+        // Arrange
+        Server server = Server.createTcpServer("-tcpPort", "0").start();
+        Map<String, String> properties = new HashMap<>();
+        properties.put("javax.persistence.jdbc.url",
+                "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:remote;DB_CLOSE_DELAY=-1");
+        EntityManagerFactory remoteDatabase = Persistence.createEntityManagerFactory("test.inmemory.database",
+                properties);
+        try {
+            StorageMaintenance remoteMaintenance = new StorageMaintenance(remoteDatabase);
+            // Act
+            IllegalStateException compactException = assertThrows(IllegalStateException.class,
+                    remoteMaintenance::compact);
+            IllegalStateException reportException = assertThrows(IllegalStateException.class,
+                    remoteMaintenance::report);
+            // Assert
+            assertAll(
+                    () -> assertTrue(compactException.getMessage().contains("process that owns")),
+                    () -> assertTrue(reportException.getMessage().contains("process that owns"))
+            );
+        } finally {
+            remoteDatabase.close();
+            server.stop();
+        }
+    }
+}
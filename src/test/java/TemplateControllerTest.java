@@ -2,8 +2,14 @@ import org.junit.jupiter.api.Test;
 
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDate;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -156,4 +162,185 @@ class TemplateControllerTest {
         // Assert
         assertFalse(result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void expandRecurringTemplates_daily_shouldCreateOneItemPerDayInWindow(){
+        // Arrange
+        ItemController itemController = new ItemController(entityManagerFactory);
+        templateController.createTemplate("name", "description", Priority.MEDIUM, 0L, Recurrence.DAILY, 0);
+        // Act
+        int created = templateController.expandRecurringTemplates(6);
+        List<Item> items = itemController.getItems(false);
+        // Assert
+        assertEquals(7, created);
+        assertEquals(7, items.size());
+        assertAll(
+                () -> assertEquals(LocalDate.now(), items.get(0).deadlineDate),
+                () -> assertEquals(LocalDate.now().plusDays(6), items.get(6).deadlineDate),
+                () -> assertEquals("description", items.get(0).description),
+                () -> assertEquals(Priority.MEDIUM, items.get(0).priority)
+        );
+    }
+
+    @Test
+    public void expandRecurringTemplates_calledAgain_shouldOnlyCreateNewOccurrences(){
+        // Arrange
+        templateController.createTemplate("name", "description", Priority.MEDIUM, 0L, Recurrence.DAILY, 0);
+        templateController.expandRecurringTemplates(3);
+        // Act
+        int sameWindow = templateController.expandRecurringTemplates(3);
+        int largerWindow = templateController.expandRecurringTemplates(5);
+        // Assert
+        assertEquals(0, sameWindow);
+        assertEquals(2, largerWindow);
+        assertEquals(LocalDate.now().plusDays(5), templateController.getTemplate(1).generatedUntil);
+    }
+
+    @Test
+    public void expandRecurringTemplates_rolledBack_shouldExpandWindowAgain(){
+        // Arrange
+        templateController.createTemplate("name", "description", Priority.MEDIUM, 0L, Recurrence.DAILY, 0);
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            templateController.expandRecurringTemplates(3);
+            unitOfWork.setRollbackOnly();
+        }
+        // Act
+        int created = templateController.expandRecurringTemplates(3);
+        // Assert
+        assertEquals(4, created);
+        assertEquals(LocalDate.now().plusDays(3), templateController.getTemplate(1).generatedUntil);
+    }
+
+    @Test
+    public void expandRecurringTemplates_otherController_shouldNotExpandCoveredWindowAgain(){
+        // Arrange
+        templateController.createTemplate("name", "description", Priority.MEDIUM, 0L, Recurrence.DAILY, 0);
+        templateController.expandRecurringTemplates(5);
+        TemplateController otherController = new TemplateController(entityManagerFactory);
+        // Act
+        int[] created = new int[1];
+        StatementAssertions.assertMaxStatements(0, () -> created[0] = otherController.expandRecurringTemplates(3));
+        // Assert
+        assertEquals(0, created[0]);
+    }
+
+    @Test
+    public void updateTemplate_withRecurrence_shouldMoveRecurrenceStart(){
+        // Arrange
+        templateController.createTemplate("name", "description", Priority.MEDIUM, 0L, Recurrence.DAILY, 0);
+        // Act
+        boolean result = templateController.updateTemplate(1, "name", "description", Priority.MEDIUM, 2L,
+                Recurrence.WEEKLY, 0);
+        Template template = templateController.getTemplate(1);
+        // Assert
+        assertAll(
+                () -> assertTrue(result),
+                () -> assertEquals(Recurrence.WEEKLY, template.recurrence),
+                () -> assertEquals(LocalDate.now().plusDays(2), template.recurrenceStart)
+        );
+    }
+
+    @Test
+    public void expandRecurringTemplates_weeklyAndEveryNDays_shouldRespectInterval(){
+        // Arrange
+        templateController.createTemplate("weekly", "weekly", Priority.LOW, 1L, Recurrence.WEEKLY, 0);
+        templateController.createTemplate("everyThird", "everyThird", Priority.LOW, 0L, Recurrence.EVERY_N_DAYS, 3);
+        templateController.createTemplate("once", "once", Priority.LOW, 0L);
+        // Act
+        int created = templateController.expandRecurringTemplates(14);
+        // Assert
+        // weekly: days 1 and 8, every third day: days 0, 3, 6, 9 and 12
+        assertEquals(7, created);
+    }
+
+    @Test
+    public void expandRecurringTemplates_deletedTemplate_shouldNotCreateItems(){
+        // Arrange
+        templateController.createTemplate("name", "description", Priority.MEDIUM, 0L, Recurrence.DAILY, 0);
+        templateController.deleteTemplate(1);
+        // Act
+        int created = templateController.expandRecurringTemplates(7);
+        // Assert
+        assertEquals(0, created);
+    }
+
+    @Test
+    public void occursOn_weekdays_shouldSkipWeekends(){
+        // Arrange
+        LocalDate monday = LocalDate.of(2019, 6, 3);
+        // Act & Assert
+        assertAll(
+                () -> assertTrue(Recurrence.WEEKDAYS.occursOn(monday, monday.plusDays(4), 0)),
+                () -> assertFalse(Recurrence.WEEKDAYS.occursOn(monday, monday.plusDays(5), 0)),
+                () -> assertFalse(Recurrence.WEEKDAYS.occursOn(monday, monday.plusDays(6), 0)),
+                () -> assertFalse(Recurrence.WEEKDAYS.occursOn(monday, monday.minusDays(1), 0))
+        );
+    }
+
+    @Test
+    public void createItemsFromTemplate_dateRange_shouldCreateItemPerDayAndReturnIds(){
+        // Arrange
+        ItemController itemController = new ItemController(entityManagerFactory);
+        templateController.createTemplate("name", "description", Priority.HIGH, 0L);
+        // Act
+        IdRange ids = templateController.createItemsFromTemplate(1, LocalDate.now(), LocalDate.now().plusDays(89));
+        List<Item> items = itemController.getItems(false);
+        // Assert
+        assertNotNull(ids);
+        assertAll(
+                () -> assertEquals(1, ids.first),
+                () -> assertEquals(90, ids.last),
+                () -> assertEquals(90, ids.size()),
+                () -> assertEquals(90, items.size()),
+                () -> assertEquals("description", items.get(89).description),
+                () -> assertEquals(Priority.HIGH, items.get(89).priority),
+                () -> assertEquals(LocalDate.now().plusDays(89), items.get(89).deadlineDate)
+        );
+    }
+
+    @Test
+    public void createItemsFromTemplate_deletedId_shouldReturnNullAndNotCreateItems(){
+        // Arrange
+        ItemController itemController = new ItemController(entityManagerFactory);
+        templateController.createTemplate("name", "description", Priority.HIGH, 0L);
+        templateController.deleteTemplate(1);
+        // Act
+        IdRange ids = templateController.createItemsFromTemplate(1, LocalDate.now(), LocalDate.now().plusDays(3));
+        // Assert
+        assertNull(ids);
+        assertEquals(0, itemController.getItems(false).size());
+    }
+
+    @Test
+    public void getTemplates_databaseWithTemplatesFromBeforeRecurrence_shouldUpgradeTable() throws SQLException {
+        // Arrange
+        String url = "jdbc:h2:mem:templateUpgrade;DB_CLOSE_DELAY=-1;MVCC=TRUE";
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE Template (id INTEGER NOT NULL PRIMARY KEY, name VARCHAR(255), " +
+                    "description VARCHAR(255), priority INTEGER, daysToAdd BIGINT NOT NULL, isActive BOOLEAN NOT NULL)");
+            statement.executeUpdate("INSERT INTO Template VALUES (1, 'Old template', 'Old description', 1, 2, TRUE)");
+        }
+        Map<String, String> properties = new HashMap<>();
+        properties.put("javax.persistence.jdbc.url", url);
+        properties.put("hibernate.hbm2ddl.auto", "update");
+        EntityManagerFactory upgraded = Persistence.createEntityManagerFactory("test.inmemory.database", properties);
+        try {
+            // Act
+            List<Template> templates = new TemplateController(upgraded).getTemplates();
+            // Assert
+            assertEquals(1, templates.size());
+            assertAll(
+                    () -> assertEquals("Old template", templates.get(0).name),
+                    () -> assertFalse(templates.get(0).isRecurring()),
+                    () -> assertEquals(0, templates.get(0).recurrenceInterval)
+            );
+        } finally {
+            upgraded.close();
+            try (Connection connection = DriverManager.getConnection(url, "sa", "");
+                 Statement statement = connection.createStatement()) {
+                statement.execute("DROP ALL OBJECTS");
+            }
+        }
+    }
+}
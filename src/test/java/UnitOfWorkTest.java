@@ -0,0 +1,114 @@
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnitOfWorkTest {
+
+    private static EntityManagerFactory entityManagerFactory;
+    private static ItemController itemController;
+
+    @org.junit.jupiter.api.BeforeEach
+    void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory( "test.inmemory.database" );
+        itemController = new ItemController(entityManagerFactory);
+    }
+
+    @org.junit.jupiter.api.AfterEach
+    void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Test
+    public void controllerCallsInUnitOfWork_shouldShareFirstLevelCache(){
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        // Act
+        Item first;
+        Item second;
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            first = itemController.getItem(1);
+            itemController.toggleCompleted(1);
+            second = itemController.getItem(1);
+            unitOfWork.complete();
+        }
+        // Assert
+        Item outside = itemController.getItem(1);
+        assertAll(
+                () -> assertSame(first, second),
+                () -> assertTrue(first.isCompleted),
+                () -> assertNotSame(first, outside),
+                () -> assertTrue(outside.isCompleted)
+        );
+    }
+
+    @Test
+    public void controllerCallsWithoutUnitOfWork_shouldUseSeparateSessions(){
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        // Act
+        Item first = itemController.getItem(1);
+        Item second = itemController.getItem(1);
+        // Assert
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void unitOfWorkNotCompleted_shouldRollBackAllCalls(){
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        // Act
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            itemController.toggleCompleted(1);
+            itemController.createItem("Second item", Priority.LOW, LocalDate.now());
+            // Left open without complete
+            assertTrue(unitOfWork.getEntityManager().getTransaction().isActive());
+        }
+        // Assert
+        assertAll(
+                () -> assertFalse(itemController.getItem(1).isCompleted),
+                () -> assertEquals(1, itemController.getItems(false).size())
+        );
+    }
+
+    @Test
+    public void failingCallInUnitOfWork_shouldRollBackEvenIfCompleted(){
+        // Arrange
+        itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+        // Act
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            itemController.deleteItem(1);
+            assertThrows(RuntimeException.class, () -> UnitOfWork.run(entityManagerFactory, entityManager -> {
+                throw new IllegalStateException("Failure");
+            }));
+            unitOfWork.complete();
+        }
+        // Assert
+        assertNotNull(itemController.getItem(1));
+    }
+
+    @Test
+    public void failingActionAfterCommit_shouldRunOtherActionsAndKeepCommit(){
+        // Arrange
+        long versionBefore = ResultCache.version(entityManagerFactory);
+        boolean[] secondActionRan = new boolean[1];
+        // Act
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(entityManagerFactory)) {
+            itemController.createItem("First item", Priority.HIGH, LocalDate.now());
+            UnitOfWork.afterCommit(entityManagerFactory, () -> {
+                throw new IllegalStateException("Failure");
+            });
+            UnitOfWork.afterCommit(entityManagerFactory, () -> secondActionRan[0] = true);
+            unitOfWork.complete();
+        }
+        // Assert
+        assertAll(
+                () -> assertTrue(secondActionRan[0]),
+                () -> assertTrue(ResultCache.version(entityManagerFactory) > versionBefore),
+                () -> assertNotNull(itemController.getItem(1))
+        );
+    }
+}